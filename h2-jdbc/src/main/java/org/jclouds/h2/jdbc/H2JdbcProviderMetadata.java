@@ -16,6 +16,19 @@
  */
 package org.jclouds.h2.jdbc;
 
+import static org.jclouds.h2.jdbc.reference.H2JdbcConstants.DEFAULT_POOL_CONNECTION_TIMEOUT;
+import static org.jclouds.h2.jdbc.reference.H2JdbcConstants.DEFAULT_POOL_MAX_SIZE;
+import static org.jclouds.h2.jdbc.reference.H2JdbcConstants.DEFAULT_POOL_MIN_SIZE;
+import static org.jclouds.h2.jdbc.reference.H2JdbcConstants.DEFAULT_POOL_STATEMENT_CACHE_SIZE;
+import static org.jclouds.h2.jdbc.reference.H2JdbcConstants.DEFAULT_POOL_VALIDATION_TIMEOUT;
+import static org.jclouds.h2.jdbc.reference.H2JdbcConstants.PROPERTY_POOL_CONNECTION_TIMEOUT;
+import static org.jclouds.h2.jdbc.reference.H2JdbcConstants.PROPERTY_POOL_MAX_SIZE;
+import static org.jclouds.h2.jdbc.reference.H2JdbcConstants.PROPERTY_POOL_MIN_SIZE;
+import static org.jclouds.h2.jdbc.reference.H2JdbcConstants.PROPERTY_POOL_STATEMENT_CACHE_SIZE;
+import static org.jclouds.h2.jdbc.reference.H2JdbcConstants.PROPERTY_POOL_VALIDATION_TIMEOUT;
+
+import java.util.Properties;
+
 import org.jclouds.h2.jdbc.config.H2JdbcBlobStoreContextModule;
 import org.jclouds.jdbc.JdbcApiMetadata;
 import org.jclouds.providers.ProviderMetadata;
@@ -43,6 +56,16 @@ public class H2JdbcProviderMetadata extends BaseProviderMetadata {
       super(builder);
    }
 
+   public static Properties defaultProperties() {
+      Properties properties = JdbcApiMetadata.defaultProperties();
+      properties.setProperty(PROPERTY_POOL_MIN_SIZE, String.valueOf(DEFAULT_POOL_MIN_SIZE));
+      properties.setProperty(PROPERTY_POOL_MAX_SIZE, String.valueOf(DEFAULT_POOL_MAX_SIZE));
+      properties.setProperty(PROPERTY_POOL_STATEMENT_CACHE_SIZE, String.valueOf(DEFAULT_POOL_STATEMENT_CACHE_SIZE));
+      properties.setProperty(PROPERTY_POOL_VALIDATION_TIMEOUT, String.valueOf(DEFAULT_POOL_VALIDATION_TIMEOUT));
+      properties.setProperty(PROPERTY_POOL_CONNECTION_TIMEOUT, String.valueOf(DEFAULT_POOL_CONNECTION_TIMEOUT));
+      return properties;
+   }
+
    public static class Builder extends BaseProviderMetadata.Builder {
       protected Builder() {
          id("h2-jdbc")
@@ -50,7 +73,8 @@ public class H2JdbcProviderMetadata extends BaseProviderMetadata {
                .apiMetadata(new JdbcApiMetadata()
                      .toBuilder()
                      .defaultModule(H2JdbcBlobStoreContextModule.class)
-                     .build());
+                     .build())
+               .defaultProperties(H2JdbcProviderMetadata.defaultProperties());
       }
 
       @Override
@@ -16,10 +16,19 @@
  */
 package org.jclouds.h2.jdbc.config;
 
+import static org.jclouds.h2.jdbc.reference.H2JdbcConstants.PROPERTY_POOL_CONNECTION_TIMEOUT;
+import static org.jclouds.h2.jdbc.reference.H2JdbcConstants.PROPERTY_POOL_MAX_SIZE;
+import static org.jclouds.h2.jdbc.reference.H2JdbcConstants.PROPERTY_POOL_MIN_SIZE;
+import static org.jclouds.h2.jdbc.reference.H2JdbcConstants.PROPERTY_POOL_STATEMENT_CACHE_SIZE;
+import static org.jclouds.h2.jdbc.reference.H2JdbcConstants.PROPERTY_POOL_VALIDATION_TIMEOUT;
+
 import java.util.Properties;
 
+import javax.inject.Named;
+
 import org.jclouds.jdbc.config.JdbcBlobStoreContextModule;
 
+import com.google.inject.Inject;
 import com.google.inject.persist.jpa.JpaPersistModule;
 
 public class H2JdbcBlobStoreContextModule extends JdbcBlobStoreContextModule {
@@ -33,6 +42,35 @@ public class H2JdbcBlobStoreContextModule extends JdbcBlobStoreContextModule {
       properties.setProperty("hibernate.connection.url", "jdbc:h2:" + DEFAULT_FILE);
 
       install(new JpaPersistModule("jclouds-h2").properties(properties));
+      // members are injected before eager singletons are created, so the pool settings are in place
+      // by the time JPAInitializer starts the persistence unit
+      requestInjection(new PoolProperties(properties));
+   }
+
+   /**
+    * Copies the connection pool settings of the context into the persistence unit properties, where
+    * the pooled connection provider picks them up.
+    */
+   static class PoolProperties {
+
+      private final Properties properties;
+
+      PoolProperties(Properties properties) {
+         this.properties = properties;
+      }
+
+      @Inject(optional = true)
+      void setPoolProperties(@Named(PROPERTY_POOL_MIN_SIZE) String minSize,
+            @Named(PROPERTY_POOL_MAX_SIZE) String maxSize,
+            @Named(PROPERTY_POOL_STATEMENT_CACHE_SIZE) String statementCacheSize,
+            @Named(PROPERTY_POOL_VALIDATION_TIMEOUT) String validationTimeout,
+            @Named(PROPERTY_POOL_CONNECTION_TIMEOUT) String connectionTimeout) {
+         properties.setProperty(PROPERTY_POOL_MIN_SIZE, minSize);
+         properties.setProperty(PROPERTY_POOL_MAX_SIZE, maxSize);
+         properties.setProperty(PROPERTY_POOL_STATEMENT_CACHE_SIZE, statementCacheSize);
+         properties.setProperty(PROPERTY_POOL_VALIDATION_TIMEOUT, validationTimeout);
+         properties.setProperty(PROPERTY_POOL_CONNECTION_TIMEOUT, connectionTimeout);
+      }
    }
 
 }
@@ -0,0 +1,89 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jclouds.h2.jdbc.pool;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Counts the connections handed out by the pool and the time callers waited for them.
+ */
+public class ConnectionPoolStats implements ConnectionPoolStatsMXBean {
+
+   private final AtomicInteger activeConnections = new AtomicInteger();
+   private final AtomicInteger peakActiveConnections = new AtomicInteger();
+   private final AtomicLong connectionRequests = new AtomicLong();
+   private final AtomicLong totalWaitNanos = new AtomicLong();
+   private final AtomicLong maxWaitNanos = new AtomicLong();
+
+   /**
+    * Records a connection handed out after the caller waited the given time for it.
+    */
+   void connectionAcquired(long waitNanos) {
+      int active = activeConnections.incrementAndGet();
+      int peak = peakActiveConnections.get();
+      while (active > peak && !peakActiveConnections.compareAndSet(peak, active)) {
+         peak = peakActiveConnections.get();
+      }
+      connectionRequests.incrementAndGet();
+      totalWaitNanos.addAndGet(waitNanos);
+      long max = maxWaitNanos.get();
+      while (waitNanos > max && !maxWaitNanos.compareAndSet(max, waitNanos)) {
+         max = maxWaitNanos.get();
+      }
+   }
+
+   /**
+    * Records a connection given back to the pool.
+    */
+   void connectionReleased() {
+      activeConnections.decrementAndGet();
+   }
+
+   @Override
+   public int getActiveConnections() {
+      return activeConnections.get();
+   }
+
+   @Override
+   public int getPeakActiveConnections() {
+      return peakActiveConnections.get();
+   }
+
+   @Override
+   public long getConnectionRequests() {
+      return connectionRequests.get();
+   }
+
+   @Override
+   public long getTotalWaitTimeMillis() {
+      return TimeUnit.NANOSECONDS.toMillis(totalWaitNanos.get());
+   }
+
+   @Override
+   public long getMaxWaitTimeMillis() {
+      return TimeUnit.NANOSECONDS.toMillis(maxWaitNanos.get());
+   }
+
+   @Override
+   public double getAverageWaitTimeMillis() {
+      long requests = connectionRequests.get();
+      return requests == 0 ? 0 : totalWaitNanos.get() / 1e6 / requests;
+   }
+
+}
@@ -0,0 +1,54 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jclouds.h2.jdbc.pool;
+
+/**
+ * Usage of the h2-jdbc connection pool, as seen by the callers asking it for connections.
+ */
+public interface ConnectionPoolStatsMXBean {
+
+   /**
+    * @return the number of connections currently handed out
+    */
+   int getActiveConnections();
+
+   /**
+    * @return the highest number of connections handed out at once
+    */
+   int getPeakActiveConnections();
+
+   /**
+    * @return the number of connections handed out so far
+    */
+   long getConnectionRequests();
+
+   /**
+    * @return the total time callers spent waiting for a connection, in milliseconds
+    */
+   long getTotalWaitTimeMillis();
+
+   /**
+    * @return the longest time a caller waited for a connection, in milliseconds
+    */
+   long getMaxWaitTimeMillis();
+
+   /**
+    * @return the average time callers waited for a connection, in milliseconds
+    */
+   double getAverageWaitTimeMillis();
+
+}
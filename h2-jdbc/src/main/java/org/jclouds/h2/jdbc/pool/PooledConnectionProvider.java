@@ -0,0 +1,177 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jclouds.h2.jdbc.pool;
+
+import static org.jclouds.h2.jdbc.reference.H2JdbcConstants.DEFAULT_POOL_CONNECTION_TIMEOUT;
+import static org.jclouds.h2.jdbc.reference.H2JdbcConstants.DEFAULT_POOL_MAX_SIZE;
+import static org.jclouds.h2.jdbc.reference.H2JdbcConstants.DEFAULT_POOL_MIN_SIZE;
+import static org.jclouds.h2.jdbc.reference.H2JdbcConstants.DEFAULT_POOL_STATEMENT_CACHE_SIZE;
+import static org.jclouds.h2.jdbc.reference.H2JdbcConstants.DEFAULT_POOL_VALIDATION_TIMEOUT;
+import static org.jclouds.h2.jdbc.reference.H2JdbcConstants.PROPERTY_POOL_CONNECTION_TIMEOUT;
+import static org.jclouds.h2.jdbc.reference.H2JdbcConstants.PROPERTY_POOL_MAX_SIZE;
+import static org.jclouds.h2.jdbc.reference.H2JdbcConstants.PROPERTY_POOL_MIN_SIZE;
+import static org.jclouds.h2.jdbc.reference.H2JdbcConstants.PROPERTY_POOL_STATEMENT_CACHE_SIZE;
+import static org.jclouds.h2.jdbc.reference.H2JdbcConstants.PROPERTY_POOL_VALIDATION_TIMEOUT;
+
+import java.lang.management.ManagementFactory;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+import org.hibernate.HibernateException;
+import org.hibernate.cfg.AvailableSettings;
+import org.hibernate.engine.jdbc.connections.spi.ConnectionProvider;
+import org.hibernate.service.UnknownUnwrapTypeException;
+import org.hibernate.service.spi.Configurable;
+import org.hibernate.service.spi.Stoppable;
+
+import com.zaxxer.hikari.HikariConfig;
+import com.zaxxer.hikari.HikariDataSource;
+
+/**
+ * Hibernate connection provider handing out connections from a HikariCP pool. The pool is sized
+ * from the {@code jclouds.jdbc.pool} properties passed along with the persistence unit properties.
+ * Besides the pool MBean HikariCP registers, the time callers wait for connections and the number
+ * of connections in use are published as {@link ConnectionPoolStatsMXBean}. Databases are opened in
+ * MVCC mode unless the URL chooses otherwise.
+ */
+public class PooledConnectionProvider implements ConnectionProvider, Configurable, Stoppable {
+
+   private static final AtomicInteger POOL_COUNT = new AtomicInteger();
+
+   private final ConnectionPoolStats stats = new ConnectionPoolStats();
+   private HikariDataSource dataSource;
+   private ObjectName statsName;
+
+   @Override
+   public void configure(Map configurationValues) {
+      String url = (String) configurationValues.get(AvailableSettings.URL);
+      if (url == null) {
+         throw new HibernateException("No JDBC URL set in " + AvailableSettings.URL);
+      }
+      if (!url.toUpperCase().contains("QUERY_CACHE_SIZE")) {
+         url += ";QUERY_CACHE_SIZE=" + getLong(configurationValues, PROPERTY_POOL_STATEMENT_CACHE_SIZE,
+               DEFAULT_POOL_STATEMENT_CACHE_SIZE);
+      }
+      if (!url.toUpperCase().contains("MVCC")) {
+         // readers see the last committed rows instead of waiting for the table locks of writers, and
+         // writers only lock the rows they change
+         url += ";MVCC=TRUE";
+      }
+      String poolName = "jclouds-h2-" + POOL_COUNT.incrementAndGet();
+
+      HikariConfig config = new HikariConfig();
+      config.setPoolName(poolName);
+      config.setJdbcUrl(url);
+      if (configurationValues.get(AvailableSettings.DRIVER) != null) {
+         config.setDriverClassName((String) configurationValues.get(AvailableSettings.DRIVER));
+      }
+      config.setUsername((String) configurationValues.get(AvailableSettings.USER));
+      config.setPassword((String) configurationValues.get(AvailableSettings.PASS));
+      config.setMinimumIdle((int) getLong(configurationValues, PROPERTY_POOL_MIN_SIZE, DEFAULT_POOL_MIN_SIZE));
+      config.setMaximumPoolSize((int) getLong(configurationValues, PROPERTY_POOL_MAX_SIZE, DEFAULT_POOL_MAX_SIZE));
+      config.setValidationTimeout(getLong(configurationValues, PROPERTY_POOL_VALIDATION_TIMEOUT,
+            DEFAULT_POOL_VALIDATION_TIMEOUT));
+      config.setConnectionTimeout(getLong(configurationValues, PROPERTY_POOL_CONNECTION_TIMEOUT,
+            DEFAULT_POOL_CONNECTION_TIMEOUT));
+      config.setRegisterMbeans(true);
+      dataSource = new HikariDataSource(config);
+
+      try {
+         statsName = new ObjectName("org.jclouds.h2.jdbc:type=ConnectionPoolStats,name=" + poolName);
+         ManagementFactory.getPlatformMBeanServer().registerMBean(stats, statsName);
+      } catch (JMException e) {
+         dataSource.close();
+         throw new HibernateException("Could not register the connection pool statistics", e);
+      }
+   }
+
+   private static long getLong(Map configurationValues, String key, long defaultValue) {
+      Object value = configurationValues.get(key);
+      return value == null ? defaultValue : Long.parseLong(value.toString().trim());
+   }
+
+   /**
+    * @return the statistics of this pool, also registered as an MBean
+    */
+   public ConnectionPoolStatsMXBean getStats() {
+      return stats;
+   }
+
+   @Override
+   public Connection getConnection() throws SQLException {
+      long start = System.nanoTime();
+      Connection connection = dataSource.getConnection();
+      stats.connectionAcquired(System.nanoTime() - start);
+      return connection;
+   }
+
+   @Override
+   public void closeConnection(Connection connection) throws SQLException {
+      try {
+         connection.close();
+      } finally {
+         stats.connectionReleased();
+      }
+   }
+
+   @Override
+   public boolean supportsAggressiveRelease() {
+      return false;
+   }
+
+   @Override
+   public void stop() {
+      if (statsName != null) {
+         MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+         try {
+            if (server.isRegistered(statsName)) {
+               server.unregisterMBean(statsName);
+            }
+         } catch (JMException e) {
+            // the pool is being shut down anyway
+         }
+      }
+      if (dataSource != null) {
+         dataSource.close();
+      }
+   }
+
+   @Override
+   public boolean isUnwrappableAs(Class unwrapType) {
+      return unwrapType.isAssignableFrom(PooledConnectionProvider.class)
+            || unwrapType.isAssignableFrom(HikariDataSource.class);
+   }
+
+   @Override
+   @SuppressWarnings("unchecked")
+   public <T> T unwrap(Class<T> unwrapType) {
+      if (unwrapType.isAssignableFrom(PooledConnectionProvider.class)) {
+         return (T) this;
+      }
+      if (unwrapType.isAssignableFrom(HikariDataSource.class)) {
+         return (T) dataSource;
+      }
+      throw new UnknownUnwrapTypeException(unwrapType);
+   }
+
+}
@@ -0,0 +1,65 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jclouds.h2.jdbc.reference;
+
+/**
+ * Constants used by the h2-jdbc provider to configure its connection pool.
+ */
+public final class H2JdbcConstants {
+
+    /**
+     * Number of idle connections the pool tries to keep open. Default: 2
+     */
+    public static final String PROPERTY_POOL_MIN_SIZE = "jclouds.jdbc.pool.min-size";
+
+    public static final int DEFAULT_POOL_MIN_SIZE = 2;
+
+    /**
+     * Maximum number of connections open at once, idle or in use. Callers wait for a connection to
+     * be returned once they are all in use. Default: 16
+     */
+    public static final String PROPERTY_POOL_MAX_SIZE = "jclouds.jdbc.pool.max-size";
+
+    public static final int DEFAULT_POOL_MAX_SIZE = 16;
+
+    /**
+     * Number of parsed statements H2 keeps per connection, so pooled connections do not parse the
+     * same queries again. Default: 32
+     */
+    public static final String PROPERTY_POOL_STATEMENT_CACHE_SIZE = "jclouds.jdbc.pool.statement-cache-size";
+
+    public static final int DEFAULT_POOL_STATEMENT_CACHE_SIZE = 32;
+
+    /**
+     * Milliseconds the pool waits for a connection to prove it is alive before handing it out.
+     * Default: 5000
+     */
+    public static final String PROPERTY_POOL_VALIDATION_TIMEOUT = "jclouds.jdbc.pool.validation-timeout";
+
+    public static final long DEFAULT_POOL_VALIDATION_TIMEOUT = 5000;
+
+    /**
+     * Milliseconds a caller waits for a connection before giving up. Default: 30000
+     */
+    public static final String PROPERTY_POOL_CONNECTION_TIMEOUT = "jclouds.jdbc.pool.connection-timeout";
+
+    public static final long DEFAULT_POOL_CONNECTION_TIMEOUT = 30000;
+
+    private H2JdbcConstants() {
+        throw new AssertionError("Intentionally Unimplemented");
+    }
+}
@@ -0,0 +1,106 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jclouds.h2.jdbc.benchmark;
+
+import com.google.common.collect.Lists;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.ListeningExecutorService;
+import com.google.common.util.concurrent.MoreExecutors;
+import org.jclouds.ContextBuilder;
+import org.jclouds.blobstore.BlobStore;
+import org.jclouds.blobstore.BlobStoreContext;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.TearDown;
+
+import java.util.List;
+import java.util.Properties;
+import java.util.concurrent.Callable;
+import java.util.concurrent.Executors;
+
+/**
+ * Blob store of the h2-jdbc provider, created for each benchmark trial and driven through the
+ * public {@link BlobStore} API. The provider recreates its schema when the context starts, so every
+ * trial begins with an empty database.
+ */
+public abstract class BaseBlobStoreBenchmark {
+
+   protected static final String CONTAINER = "benchmark";
+
+   private static final int POPULATE_THREADS = 8;
+   private static final int POPULATE_BATCH = 10000;
+
+   protected BlobStoreContext context;
+   protected BlobStore blobStore;
+
+   @Setup(Level.Trial)
+   public void setUp() throws Exception {
+      context = ContextBuilder.newBuilder("h2-jdbc").overrides(overrides()).buildView(BlobStoreContext.class);
+      blobStore = context.getBlobStore();
+      blobStore.createContainerInLocation(null, CONTAINER);
+      populate();
+   }
+
+   @TearDown(Level.Trial)
+   public void tearDown() {
+      context.close();
+   }
+
+   /**
+    * @return properties overriding the defaults of the provider
+    */
+   protected Properties overrides() {
+      return new Properties();
+   }
+
+   /**
+    * Stores the blobs the benchmark reads, once the container exists.
+    */
+   protected void populate() throws Exception {
+   }
+
+   protected static String key(int index) {
+      return String.format("blob-%08d", index);
+   }
+
+   /**
+    * Stores blobs named by {@link #key(int)} from 0 up to the given count, several at a time.
+    */
+   protected void putBlobs(int count, final byte[] content) throws Exception {
+      ListeningExecutorService executor = MoreExecutors.listeningDecorator(
+            Executors.newFixedThreadPool(POPULATE_THREADS));
+      try {
+         for (int start = 0; start < count; start += POPULATE_BATCH) {
+            List<ListenableFuture<String>> puts = Lists.newArrayList();
+            for (int i = start; i < Math.min(start + POPULATE_BATCH, count); i++) {
+               final String name = key(i);
+               puts.add(executor.submit(new Callable<String>() {
+                  @Override
+                  public String call() {
+                     return blobStore.putBlob(CONTAINER, blobStore.blobBuilder(name).payload(content).build());
+                  }
+               }));
+            }
+            Futures.allAsList(puts).get();
+         }
+      } finally {
+         executor.shutdownNow();
+      }
+   }
+
+}
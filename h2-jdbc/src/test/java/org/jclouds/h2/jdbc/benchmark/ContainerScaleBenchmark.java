@@ -0,0 +1,96 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jclouds.h2.jdbc.benchmark;
+
+import org.jclouds.blobstore.domain.BlobMetadata;
+import org.jclouds.blobstore.domain.PageSet;
+import org.jclouds.blobstore.domain.StorageMetadata;
+import org.jclouds.jdbc.reference.JdbcConstants;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.Properties;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+import static org.jclouds.blobstore.options.ListContainerOptions.Builder.maxResults;
+
+/**
+ * Lookups, listings and counts in a container holding a growing number of blobs, showing how
+ * their latency scales with the size of the tables. The metadata cache is disabled so every lookup
+ * reaches the database. Larger containers, up to 10M blobs, can be run with {@code -p keys=10000000}.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+public class ContainerScaleBenchmark extends BaseBlobStoreBenchmark {
+
+   private static final int PAGE_SIZE = 1000;
+
+   @Param({ "10000", "100000", "1000000" })
+   public int keys;
+
+   @Override
+   protected Properties overrides() {
+      Properties overrides = super.overrides();
+      overrides.setProperty(JdbcConstants.PROPERTY_METADATA_CACHE_SIZE, "0");
+      return overrides;
+   }
+
+   @Override
+   protected void populate() throws Exception {
+      putBlobs(keys, new byte[16]);
+   }
+
+   @Benchmark
+   public BlobMetadata blobMetadata() {
+      return blobStore.blobMetadata(CONTAINER, key(ThreadLocalRandom.current().nextInt(keys)));
+   }
+
+   @Benchmark
+   public boolean blobExistsMissing() {
+      return blobStore.blobExists(CONTAINER, "missing-" + ThreadLocalRandom.current().nextInt(keys));
+   }
+
+   @Benchmark
+   public PageSet<? extends StorageMetadata> listFirstPage() {
+      return blobStore.list(CONTAINER, maxResults(PAGE_SIZE));
+   }
+
+   @Benchmark
+   public PageSet<? extends StorageMetadata> listPageAfterMarker() {
+      return blobStore.list(CONTAINER, maxResults(PAGE_SIZE)
+            .afterMarker(key(ThreadLocalRandom.current().nextInt(keys))));
+   }
+
+   @Benchmark
+   public long countBlobs() {
+      return blobStore.countBlobs(CONTAINER);
+   }
+
+}
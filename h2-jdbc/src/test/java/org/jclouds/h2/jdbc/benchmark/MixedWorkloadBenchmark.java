@@ -0,0 +1,115 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jclouds.h2.jdbc.benchmark;
+
+import com.google.common.io.ByteStreams;
+import org.jclouds.blobstore.domain.BlobMetadata;
+import org.jclouds.blobstore.domain.PageSet;
+import org.jclouds.blobstore.domain.StorageMetadata;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Group;
+import org.openjdk.jmh.annotations.GroupThreads;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Random;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+import static org.jclouds.blobstore.options.ListContainerOptions.Builder.maxResults;
+
+/**
+ * Reads, writes, lookups and listings running at once against the same container, as several
+ * clients of a blob store would. The group runs six readers, two writers replacing blobs, a lister and a metadata
+ * reader; {@code -tg} changes the mix and scales it up to see how the connection pool copes, for
+ * example {@code -tg 48,8,4,4} for 64 threads. The {@code getBlob} benchmark on its own scales with
+ * {@code -t} from 1 to 64 threads.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+public class MixedWorkloadBenchmark extends BaseBlobStoreBenchmark {
+
+   @Param({ "1000" })
+   public int keys;
+
+   @Param({ "65536" })
+   public int size;
+
+   private byte[] content;
+
+   @Override
+   protected void populate() throws Exception {
+      content = new byte[size];
+      new Random(0).nextBytes(content);
+      putBlobs(keys, content);
+   }
+
+   @Benchmark
+   @Group("mixed")
+   @GroupThreads(6)
+   public long read() throws IOException {
+      return getBlob();
+   }
+
+   @Benchmark
+   @Group("mixed")
+   @GroupThreads(2)
+   public String write() {
+      // every writer replaces a blob of its own, concurrent writes to one key are not what is measured
+      String name = "write-" + Thread.currentThread().getId();
+      return blobStore.putBlob(CONTAINER, blobStore.blobBuilder(name).payload(content).build());
+   }
+
+   @Benchmark
+   @Group("mixed")
+   @GroupThreads(1)
+   public PageSet<? extends StorageMetadata> list() {
+      return blobStore.list(CONTAINER, maxResults(100).afterMarker(key(ThreadLocalRandom.current().nextInt(keys))));
+   }
+
+   @Benchmark
+   @Group("mixed")
+   @GroupThreads(1)
+   public BlobMetadata metadata() {
+      return blobStore.blobMetadata(CONTAINER, key(ThreadLocalRandom.current().nextInt(keys)));
+   }
+
+   @Benchmark
+   public long getBlob() throws IOException {
+      InputStream in = blobStore.getBlob(CONTAINER, key(ThreadLocalRandom.current().nextInt(keys)))
+            .getPayload().openStream();
+      try {
+         return ByteStreams.copy(in, ByteStreams.nullOutputStream());
+      } finally {
+         in.close();
+      }
+   }
+
+}
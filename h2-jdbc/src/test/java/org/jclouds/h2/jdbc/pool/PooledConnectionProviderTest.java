@@ -0,0 +1,94 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jclouds.h2.jdbc.pool;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.lang.management.ManagementFactory;
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+
+import javax.management.ObjectName;
+
+import org.hibernate.cfg.AvailableSettings;
+import org.jclouds.h2.jdbc.reference.H2JdbcConstants;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import com.google.common.collect.ImmutableMap;
+
+@Test(groups = "unit", testName = "PooledConnectionProviderTest")
+public class PooledConnectionProviderTest {
+
+   private PooledConnectionProvider provider;
+
+   @BeforeMethod
+   public void setUp() {
+      provider = new PooledConnectionProvider();
+      provider.configure(ImmutableMap.of(
+            AvailableSettings.URL, "jdbc:h2:mem:pooled-connection-provider-test",
+            AvailableSettings.USER, "sa",
+            H2JdbcConstants.PROPERTY_POOL_MIN_SIZE, "1",
+            H2JdbcConstants.PROPERTY_POOL_MAX_SIZE, "2",
+            H2JdbcConstants.PROPERTY_POOL_STATEMENT_CACHE_SIZE, "16"));
+   }
+
+   @AfterMethod(alwaysRun = true)
+   public void tearDown() {
+      provider.stop();
+   }
+
+   public void testCountsActiveConnections() throws SQLException {
+      Connection first = provider.getConnection();
+      Connection second = provider.getConnection();
+      assertThat(provider.getStats().getActiveConnections()).isEqualTo(2);
+
+      provider.closeConnection(first);
+      provider.closeConnection(second);
+      Connection third = provider.getConnection();
+      provider.closeConnection(third);
+
+      assertThat(provider.getStats().getActiveConnections()).isEqualTo(0);
+      assertThat(provider.getStats().getPeakActiveConnections()).isEqualTo(2);
+      assertThat(provider.getStats().getConnectionRequests()).isEqualTo(3);
+   }
+
+   public void testAppliesStatementCacheSize() throws SQLException {
+      Connection connection = provider.getConnection();
+      try {
+         ResultSet rs = connection.createStatement().executeQuery(
+               "SELECT VALUE FROM INFORMATION_SCHEMA.SETTINGS WHERE NAME = 'QUERY_CACHE_SIZE'");
+         assertThat(rs.next()).isTrue();
+         assertThat(rs.getString(1)).isEqualTo("16");
+      } finally {
+         provider.closeConnection(connection);
+      }
+   }
+
+   public void testRegistersStatsUntilStopped() throws Exception {
+      ObjectName pattern = new ObjectName("org.jclouds.h2.jdbc:type=ConnectionPoolStats,*");
+      int registered = ManagementFactory.getPlatformMBeanServer().queryNames(pattern, null).size();
+      assertThat(registered).isGreaterThanOrEqualTo(1);
+
+      provider.stop();
+
+      assertThat(ManagementFactory.getPlatformMBeanServer().queryNames(pattern, null)).hasSize(registered - 1);
+   }
+
+}
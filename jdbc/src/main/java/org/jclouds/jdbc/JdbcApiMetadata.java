@@ -25,6 +25,42 @@ import org.jclouds.blobstore.BlobStoreContext;
 import org.jclouds.jdbc.config.JdbcBlobStoreContextModule;
 
 import java.net.URI;
+import java.util.Properties;
+
+import static org.jclouds.jdbc.reference.JdbcConstants.DEFAULT_COMPRESSION;
+import static org.jclouds.jdbc.reference.JdbcConstants.DEFAULT_DEDUPLICATION;
+import static org.jclouds.jdbc.reference.JdbcConstants.DEFAULT_DELETE_BATCH_SIZE;
+import static org.jclouds.jdbc.reference.JdbcConstants.DEFAULT_GC_AUDIT_INTERVAL;
+import static org.jclouds.jdbc.reference.JdbcConstants.DEFAULT_GC_BATCH_DELAY;
+import static org.jclouds.jdbc.reference.JdbcConstants.DEFAULT_GC_BATCH_SIZE;
+import static org.jclouds.jdbc.reference.JdbcConstants.DEFAULT_GC_GRACE_PERIOD;
+import static org.jclouds.jdbc.reference.JdbcConstants.DEFAULT_GC_INTERVAL;
+import static org.jclouds.jdbc.reference.JdbcConstants.DEFAULT_INLINE_THRESHOLD;
+import static org.jclouds.jdbc.reference.JdbcConstants.DEFAULT_METADATA_CACHE_EXPIRY;
+import static org.jclouds.jdbc.reference.JdbcConstants.DEFAULT_METADATA_CACHE_SIZE;
+import static org.jclouds.jdbc.reference.JdbcConstants.DEFAULT_READ_AHEAD_CHUNKS;
+import static org.jclouds.jdbc.reference.JdbcConstants.DEFAULT_SLOW_OPERATION_THRESHOLD;
+import static org.jclouds.jdbc.reference.JdbcConstants.DEFAULT_WRITE_BATCH_SIZE;
+import static org.jclouds.jdbc.reference.JdbcConstants.DEFAULT_WRITE_RETRIES;
+import static org.jclouds.jdbc.reference.JdbcConstants.DEFAULT_WRITE_RETRY_DELAY;
+import static org.jclouds.jdbc.reference.JdbcConstants.DEFAULT_WRITE_THREADS;
+import static org.jclouds.jdbc.reference.JdbcConstants.PROPERTY_COMPRESSION;
+import static org.jclouds.jdbc.reference.JdbcConstants.PROPERTY_DEDUPLICATION;
+import static org.jclouds.jdbc.reference.JdbcConstants.PROPERTY_DELETE_BATCH_SIZE;
+import static org.jclouds.jdbc.reference.JdbcConstants.PROPERTY_GC_AUDIT_INTERVAL;
+import static org.jclouds.jdbc.reference.JdbcConstants.PROPERTY_GC_BATCH_DELAY;
+import static org.jclouds.jdbc.reference.JdbcConstants.PROPERTY_GC_BATCH_SIZE;
+import static org.jclouds.jdbc.reference.JdbcConstants.PROPERTY_GC_GRACE_PERIOD;
+import static org.jclouds.jdbc.reference.JdbcConstants.PROPERTY_GC_INTERVAL;
+import static org.jclouds.jdbc.reference.JdbcConstants.PROPERTY_INLINE_THRESHOLD;
+import static org.jclouds.jdbc.reference.JdbcConstants.PROPERTY_METADATA_CACHE_EXPIRY;
+import static org.jclouds.jdbc.reference.JdbcConstants.PROPERTY_METADATA_CACHE_SIZE;
+import static org.jclouds.jdbc.reference.JdbcConstants.PROPERTY_READ_AHEAD_CHUNKS;
+import static org.jclouds.jdbc.reference.JdbcConstants.PROPERTY_SLOW_OPERATION_THRESHOLD;
+import static org.jclouds.jdbc.reference.JdbcConstants.PROPERTY_WRITE_BATCH_SIZE;
+import static org.jclouds.jdbc.reference.JdbcConstants.PROPERTY_WRITE_RETRIES;
+import static org.jclouds.jdbc.reference.JdbcConstants.PROPERTY_WRITE_RETRY_DELAY;
+import static org.jclouds.jdbc.reference.JdbcConstants.PROPERTY_WRITE_THREADS;
 
 /**
  * Implementation of {@link ApiMetadata} for jclouds Jdbc BlobStore
@@ -45,6 +81,28 @@ public class JdbcApiMetadata extends BaseApiMetadata {
       super(builder);
    }
 
+   public static Properties defaultProperties() {
+      Properties properties = BaseApiMetadata.defaultProperties();
+      properties.setProperty(PROPERTY_READ_AHEAD_CHUNKS, String.valueOf(DEFAULT_READ_AHEAD_CHUNKS));
+      properties.setProperty(PROPERTY_WRITE_BATCH_SIZE, String.valueOf(DEFAULT_WRITE_BATCH_SIZE));
+      properties.setProperty(PROPERTY_WRITE_THREADS, String.valueOf(DEFAULT_WRITE_THREADS));
+      properties.setProperty(PROPERTY_DEDUPLICATION, String.valueOf(DEFAULT_DEDUPLICATION));
+      properties.setProperty(PROPERTY_DELETE_BATCH_SIZE, String.valueOf(DEFAULT_DELETE_BATCH_SIZE));
+      properties.setProperty(PROPERTY_INLINE_THRESHOLD, String.valueOf(DEFAULT_INLINE_THRESHOLD));
+      properties.setProperty(PROPERTY_COMPRESSION, String.valueOf(DEFAULT_COMPRESSION));
+      properties.setProperty(PROPERTY_GC_INTERVAL, String.valueOf(DEFAULT_GC_INTERVAL));
+      properties.setProperty(PROPERTY_GC_AUDIT_INTERVAL, String.valueOf(DEFAULT_GC_AUDIT_INTERVAL));
+      properties.setProperty(PROPERTY_GC_GRACE_PERIOD, String.valueOf(DEFAULT_GC_GRACE_PERIOD));
+      properties.setProperty(PROPERTY_GC_BATCH_SIZE, String.valueOf(DEFAULT_GC_BATCH_SIZE));
+      properties.setProperty(PROPERTY_GC_BATCH_DELAY, String.valueOf(DEFAULT_GC_BATCH_DELAY));
+      properties.setProperty(PROPERTY_METADATA_CACHE_SIZE, String.valueOf(DEFAULT_METADATA_CACHE_SIZE));
+      properties.setProperty(PROPERTY_METADATA_CACHE_EXPIRY, String.valueOf(DEFAULT_METADATA_CACHE_EXPIRY));
+      properties.setProperty(PROPERTY_SLOW_OPERATION_THRESHOLD, String.valueOf(DEFAULT_SLOW_OPERATION_THRESHOLD));
+      properties.setProperty(PROPERTY_WRITE_RETRIES, String.valueOf(DEFAULT_WRITE_RETRIES));
+      properties.setProperty(PROPERTY_WRITE_RETRY_DELAY, String.valueOf(DEFAULT_WRITE_RETRY_DELAY));
+      return properties;
+   }
+
    public static class Builder extends BaseApiMetadata.Builder<Builder> {
 
       protected Builder() {
@@ -56,6 +114,7 @@ public class JdbcApiMetadata extends BaseApiMetadata {
          .defaultIdentity("unused")
          .defaultCredential("unused")
          .version("1")
+         .defaultProperties(JdbcApiMetadata.defaultProperties())
          .documentation(URI.create("http://www.jclouds.org/documentation/userguide/blobstore-guide"))
          .view(BlobStoreContext.class)
          .defaultModules(ImmutableSet.<Class<? extends Module>>of(JdbcBlobStoreContextModule.class));
@@ -0,0 +1,176 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jclouds.jdbc.blobstore;
+
+import com.google.common.base.Objects;
+import com.google.common.base.Strings;
+import com.google.common.base.Throwables;
+import com.google.common.collect.ImmutableSet;
+import com.google.inject.Inject;
+import com.google.inject.Singleton;
+import org.jclouds.blobstore.ContainerNotFoundException;
+import org.jclouds.blobstore.config.LocalBlobStore;
+import org.jclouds.blobstore.domain.Blob;
+import org.jclouds.blobstore.domain.BlobMetadata;
+import org.jclouds.blobstore.domain.MultipartPart;
+import org.jclouds.blobstore.domain.MultipartUpload;
+import org.jclouds.blobstore.domain.PageSet;
+import org.jclouds.blobstore.domain.StorageMetadata;
+import org.jclouds.blobstore.options.CopyOptions;
+import org.jclouds.blobstore.options.GetOptions;
+import org.jclouds.blobstore.options.ListContainerOptions;
+import org.jclouds.blobstore.options.PutOptions;
+import org.jclouds.blobstore.util.ForwardingBlobStore;
+import org.jclouds.io.Payload;
+import org.jclouds.jdbc.domain.BlobSummary;
+import org.jclouds.jdbc.strategy.JdbcStorageStrategy;
+import org.jclouds.jdbc.util.BlobConditions;
+
+import java.io.IOException;
+import java.util.List;
+
+/**
+ * Blob store backed by {@link LocalBlobStore}, except for container listings which are paged in
+ * the database instead of loading and sorting every blob of the container in memory, for
+ * multipart uploads whose parts are kept as chunks and stitched together without copying them, for
+ * copies which share the chunks of their source, and for conditional reads which are answered from
+ * the stored metadata.
+ */
+@Singleton
+public class JdbcBlobStore extends ForwardingBlobStore {
+
+   private static final int DEFAULT_MAX_RESULTS = 1000;
+
+   private final JdbcStorageStrategy storageStrategy;
+
+   @Inject
+   JdbcBlobStore(LocalBlobStore delegate, JdbcStorageStrategy storageStrategy) {
+      super(delegate);
+      this.storageStrategy = storageStrategy;
+   }
+
+   @Override
+   public PageSet<? extends StorageMetadata> list(String container) {
+      return list(container, ListContainerOptions.NONE);
+   }
+
+   @Override
+   public PageSet<? extends StorageMetadata> list(String container, ListContainerOptions options) {
+      if (options.getDir() != null && options.getPrefix() != null) {
+         throw new IllegalArgumentException("Cannot set both prefix and directory");
+      }
+      if ((options.getDir() != null || options.isRecursive()) && options.getDelimiter() != null) {
+         throw new IllegalArgumentException("Cannot set the delimiter if directory or recursive is set");
+      }
+      if (!storageStrategy.containerExists(container)) {
+         throw new ContainerNotFoundException(container, "container " + container + " does not exist");
+      }
+
+      String separator = storageStrategy.getSeparator();
+      String prefix;
+      String delimiter;
+      if (!Strings.isNullOrEmpty(options.getDir())) {
+         prefix = options.getDir().endsWith(separator) ? options.getDir() : options.getDir() + separator;
+         delimiter = options.isRecursive() ? null : separator;
+      } else if (!Strings.isNullOrEmpty(options.getPrefix())) {
+         prefix = options.getPrefix();
+         delimiter = options.getDelimiter();
+      } else {
+         prefix = "";
+         delimiter = options.isRecursive() && options.getDelimiter() == null ? null
+               : Objects.firstNonNull(options.getDelimiter(), separator);
+      }
+      int maxResults = options.getMaxResults() != null ? options.getMaxResults() : DEFAULT_MAX_RESULTS;
+      return storageStrategy.list(container, prefix, delimiter, options.getMarker(), maxResults,
+            options.isDetailed());
+   }
+
+   /**
+    * Copies a blob within the database, the copy shares the stored content of the source.
+    */
+   @Override
+   public String copyBlob(String fromContainer, String fromName, String toContainer, String toName,
+         CopyOptions options) {
+      for (String container : ImmutableSet.of(fromContainer, toContainer)) {
+         if (!storageStrategy.containerExists(container)) {
+            throw new ContainerNotFoundException(container, "container " + container + " does not exist");
+         }
+      }
+      // the conditions are checked against the source the copy is made from
+      return storageStrategy.copyBlob(fromContainer, fromName, toContainer, toName, options);
+   }
+
+   /**
+    * Evaluates the conditions of a request against the stored summary of the blob before its
+    * payload is built, so a failed revalidation returns without looking up any chunk. Ranges and
+    * requests without conditions are left to {@link LocalBlobStore}.
+    */
+   @Override
+   public Blob getBlob(String container, String name, GetOptions options) {
+      if (options != null && (options.getIfMatch() != null || options.getIfNoneMatch() != null
+            || options.getIfModifiedSince() != null || options.getIfUnmodifiedSince() != null)) {
+         if (!storageStrategy.containerExists(container)) {
+            throw new ContainerNotFoundException(container, "container " + container + " does not exist");
+         }
+         BlobSummary summary = storageStrategy.getBlobSummary(container, name);
+         if (summary == null) {
+            return null;
+         }
+         BlobConditions.check(summary.getEtag(), summary.getLastModified(), options.getIfMatch(),
+               options.getIfNoneMatch(), options.getIfModifiedSince(), options.getIfUnmodifiedSince(), 304);
+      }
+      return super.getBlob(container, name, options);
+   }
+
+   @Override
+   public MultipartUpload initiateMultipartUpload(String container, BlobMetadata blobMetadata, PutOptions options) {
+      if (!storageStrategy.containerExists(container)) {
+         throw new ContainerNotFoundException(container, "container " + container + " does not exist");
+      }
+      return storageStrategy.initiateMultipartUpload(container, blobMetadata, options);
+   }
+
+   @Override
+   public MultipartPart uploadMultipartPart(MultipartUpload mpu, int partNumber, Payload payload) {
+      try {
+         return storageStrategy.uploadMultipartPart(mpu, partNumber, payload);
+      } catch (IOException e) {
+         throw Throwables.propagate(e);
+      }
+   }
+
+   @Override
+   public String completeMultipartUpload(MultipartUpload mpu, List<MultipartPart> parts) {
+      return storageStrategy.completeMultipartUpload(mpu, parts);
+   }
+
+   @Override
+   public void abortMultipartUpload(MultipartUpload mpu) {
+      storageStrategy.abortMultipartUpload(mpu);
+   }
+
+   @Override
+   public List<MultipartPart> listMultipartUpload(MultipartUpload mpu) {
+      return storageStrategy.listMultipartUpload(mpu);
+   }
+
+   @Override
+   public List<MultipartUpload> listMultipartUploads(String container) {
+      return storageStrategy.listMultipartUploads(container);
+   }
+
+}
@@ -18,15 +18,19 @@ package org.jclouds.jdbc.config;
 
 import java.io.Closeable;
 
+import org.jclouds.jdbc.service.SchemaMigration;
+import org.jclouds.jdbc.service.SchemaValidator;
 import org.jclouds.lifecycle.Closer;
 
 import com.google.inject.Inject;
+import com.google.inject.Provider;
 import com.google.inject.persist.PersistService;
 
 public class JPAInitializer {
 
    @Inject
-   private JPAInitializer(final PersistService persistService, Closer closer) {
+   private JPAInitializer(final PersistService persistService, Provider<SchemaMigration> schemaMigration,
+         Provider<SchemaValidator> schemaValidator, Closer closer) {
       persistService.start();
       closer.addToClose(new Closeable() {
          @Override
@@ -34,6 +38,9 @@ public class JPAInitializer {
             persistService.stop();
          }
       });
+      // databases created by older versions keep chunk lists and user metadata in tables of their own
+      schemaMigration.get().migrate();
+      schemaValidator.get().validate();
    }
 
 }
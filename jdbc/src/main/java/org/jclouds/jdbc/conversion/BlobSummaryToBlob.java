@@ -0,0 +1,110 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jclouds.jdbc.conversion;
+
+import com.google.common.base.Function;
+import com.google.common.hash.HashCode;
+import com.google.common.io.ByteSource;
+import com.google.common.util.concurrent.ListeningExecutorService;
+import com.google.inject.Inject;
+import com.google.inject.Provider;
+import org.jclouds.Constants;
+import org.jclouds.blobstore.domain.Blob;
+import org.jclouds.blobstore.domain.BlobBuilder;
+import org.jclouds.blobstore.domain.StorageType;
+import org.jclouds.jdbc.domain.BlobSummary;
+import org.jclouds.jdbc.reference.JdbcConstants;
+import org.jclouds.jdbc.service.JdbcService;
+import org.jclouds.jdbc.util.JdbcByteSource;
+
+import javax.inject.Named;
+import java.util.List;
+
+public class BlobSummaryToBlob implements Function<BlobSummary, Blob> {
+
+   private final Provider<BlobBuilder> blobBuilders;
+   private final JdbcService jdbcService;
+
+   @Inject(optional = true)
+   @Named(Constants.PROPERTY_USER_THREADS)
+   private ListeningExecutorService userExecutor;
+
+   @Inject(optional = true)
+   @Named(JdbcConstants.PROPERTY_READ_AHEAD_CHUNKS)
+   private int readAheadChunks = JdbcConstants.DEFAULT_READ_AHEAD_CHUNKS;
+
+   @Inject
+   BlobSummaryToBlob(Provider<BlobBuilder> blobBuilders, JdbcService jdbcService) {
+      this.blobBuilders = blobBuilders;
+      this.jdbcService = jdbcService;
+   }
+
+   @Override
+   public Blob apply(BlobSummary summary) {
+      return apply(summary, null);
+   }
+
+   /**
+    * @param chunks the chunk ids of the payload, or null to look them up when the content is opened
+    */
+   public Blob apply(BlobSummary summary, List<Long> chunks) {
+      if (summary == null) {
+         return null;
+      }
+
+      BlobBuilder builder = blobBuilders.get()
+            .name(summary.getKey())
+            .userMetadata(summary.getUserMetadata());
+
+      if (summary.isDirectory()) {
+         builder.type(StorageType.FOLDER);
+      }
+      else if (summary.getInlineData() != null) {
+         builder.payload(ByteSource.wrap(summary.getInlineData()));
+      }
+      else if (chunks != null) {
+         builder.payload(new JdbcByteSource(jdbcService, summary.getPayloadId(), chunks,
+               summary.isVariableChunkSize(), summary.getContentLength(), userExecutor, readAheadChunks));
+      }
+      else {
+         builder.payload(new JdbcByteSource(jdbcService, summary.getPayloadId(), summary.isVariableChunkSize(),
+               summary.getContentLength(), userExecutor, readAheadChunks));
+      }
+
+      Blob blob = builder.build();
+
+      blob.getMetadata().setContainer(summary.getContainerName());
+      blob.getMetadata().setCreationDate(summary.getCreationDate());
+      blob.getMetadata().setLastModified(summary.getLastModified());
+      blob.getMetadata().setSize(summary.getSize());
+      blob.getMetadata().setUserMetadata(summary.getUserMetadata());
+
+      blob.getMetadata().getContentMetadata().setCacheControl(summary.getCacheControl());
+      blob.getMetadata().getContentMetadata().setContentType(summary.getContentType());
+      blob.getMetadata().getContentMetadata().setContentDisposition(summary.getContentDisposition());
+      blob.getMetadata().getContentMetadata().setContentEncoding(summary.getContentEncoding());
+      blob.getMetadata().getContentMetadata().setContentLanguage(summary.getContentLanguage());
+      blob.getMetadata().getContentMetadata().setContentLength(summary.getContentLength());
+      blob.getMetadata().getContentMetadata().setContentMD5(summary.getContentMD5() == null ?
+            null :
+            HashCode.fromBytes(summary.getContentMD5()));
+      blob.getMetadata().setETag(summary.getEtag());
+      blob.getMetadata().getContentMetadata().setExpires(summary.getExpires());
+      return blob;
+   }
+
+}
@@ -0,0 +1,173 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jclouds.jdbc.domain;
+
+import com.google.common.collect.ImmutableMap;
+import org.jclouds.jdbc.util.PackedColumns;
+
+import java.util.Date;
+import java.util.Map;
+
+/**
+ * Metadata of a blob read with a projection query. It holds the scalar columns of the blob and
+ * its payload, but neither the chunk ids nor, unless they were asked for, the user metadata and the
+ * content of inline payloads.
+ */
+public class BlobSummary {
+
+   private final String containerName;
+   private final String key;
+   private final boolean directory;
+   private final Long size;
+   private final String etag;
+   private final Date creationDate;
+   private final Date lastModified;
+   private final Long payloadId;
+   private final boolean variableChunkSize;
+   private final String contentType;
+   private final Long contentLength;
+   private final byte[] contentMD5;
+   private final String cacheControl;
+   private final String contentDisposition;
+   private final String contentEncoding;
+   private final String contentLanguage;
+   private final Date expires;
+   private final byte[] inlineData;
+   private Map<String, String> userMetadata = ImmutableMap.of();
+
+   public BlobSummary(String containerName, String key, boolean directory, Long size, String etag, Date creationDate,
+         Date lastModified, Long payloadId, boolean variableChunkSize, String contentType, Long contentLength,
+         byte[] contentMD5, String cacheControl, String contentDisposition, String contentEncoding,
+         String contentLanguage, Date expires) {
+      this(containerName, key, directory, size, etag, creationDate, lastModified, payloadId, variableChunkSize,
+            contentType, contentLength, contentMD5, cacheControl, contentDisposition, contentEncoding,
+            contentLanguage, expires, null, null);
+   }
+
+   /**
+    * @param userMetadata the user metadata as packed in the blob row
+    */
+   public BlobSummary(String containerName, String key, boolean directory, Long size, String etag, Date creationDate,
+         Date lastModified, Long payloadId, boolean variableChunkSize, String contentType, Long contentLength,
+         byte[] contentMD5, String cacheControl, String contentDisposition, String contentEncoding,
+         String contentLanguage, Date expires, byte[] inlineData, byte[] userMetadata) {
+      this.containerName = containerName;
+      this.key = key;
+      this.directory = directory;
+      this.size = size;
+      this.etag = etag;
+      this.creationDate = creationDate;
+      this.lastModified = lastModified;
+      this.payloadId = payloadId;
+      this.variableChunkSize = variableChunkSize;
+      this.contentType = contentType;
+      this.contentLength = contentLength;
+      this.contentMD5 = contentMD5;
+      this.cacheControl = cacheControl;
+      this.contentDisposition = contentDisposition;
+      this.contentEncoding = contentEncoding;
+      this.contentLanguage = contentLanguage;
+      this.expires = expires;
+      this.inlineData = inlineData;
+      this.userMetadata = PackedColumns.unpackUserMetadata(userMetadata);
+   }
+
+   public String getContainerName() {
+      return containerName;
+   }
+
+   public String getKey() {
+      return key;
+   }
+
+   public boolean isDirectory() {
+      return directory;
+   }
+
+   public Long getSize() {
+      return size;
+   }
+
+   public String getEtag() {
+      return etag;
+   }
+
+   public Date getCreationDate() {
+      return creationDate;
+   }
+
+   public Date getLastModified() {
+      return lastModified;
+   }
+
+   public Long getPayloadId() {
+      return payloadId;
+   }
+
+   public boolean isVariableChunkSize() {
+      return variableChunkSize;
+   }
+
+   public String getContentType() {
+      return contentType;
+   }
+
+   public Long getContentLength() {
+      return contentLength;
+   }
+
+   public byte[] getContentMD5() {
+      return contentMD5;
+   }
+
+   public String getCacheControl() {
+      return cacheControl;
+   }
+
+   public String getContentDisposition() {
+      return contentDisposition;
+   }
+
+   public String getContentEncoding() {
+      return contentEncoding;
+   }
+
+   public String getContentLanguage() {
+      return contentLanguage;
+   }
+
+   public Date getExpires() {
+      return expires;
+   }
+
+   /**
+    * @return the content of a payload stored inline, or null if the payload is stored in chunks or
+    *         its content was not read
+    */
+   public byte[] getInlineData() {
+      return inlineData;
+   }
+
+   public Map<String, String> getUserMetadata() {
+      return userMetadata;
+   }
+
+   public void setUserMetadata(Map<String, String> userMetadata) {
+      this.userMetadata = userMetadata;
+   }
+
+}
@@ -17,23 +17,32 @@
 package org.jclouds.jdbc.entity;
 
 import org.jclouds.blobstore.domain.BlobAccess;
+import org.jclouds.jdbc.util.PackedColumns;
 
 import javax.persistence.CascadeType;
-import javax.persistence.ElementCollection;
+import javax.persistence.Column;
 import javax.persistence.Entity;
 import javax.persistence.FetchType;
 import javax.persistence.Id;
 import javax.persistence.IdClass;
+import javax.persistence.Index;
 import javax.persistence.JoinColumn;
+import javax.persistence.Lob;
 import javax.persistence.ManyToOne;
 import javax.persistence.OneToOne;
 import javax.persistence.PrePersist;
 import javax.persistence.Table;
+import javax.persistence.Version;
 import java.util.Date;
 import java.util.Map;
 
+/**
+ * Blob of a container. The primary key on the container id and the key serves the lookups and
+ * the prefix scans of listings and directories; the index on the directory flag serves the
+ * deletes that leave directory blobs alone.
+ */
 @Entity
-@Table
+@Table(indexes = @Index(name = "BlobEntity_directory", columnList = "id, directory"))
 @IdClass(value = BlobEntityPK.class)
 public class BlobEntity {
 
@@ -45,11 +54,15 @@ public class BlobEntity {
    @Id
    private String key;
 
-   @OneToOne(cascade = CascadeType.ALL, fetch = FetchType.EAGER)
+   @OneToOne(cascade = CascadeType.ALL, fetch = FetchType.EAGER, orphanRemoval = true)
    private PayloadEntity payload;
 
-   @ElementCollection(fetch = FetchType.EAGER)
-   public Map<String, String> userMetadata;
+   /**
+    * User metadata packed by {@link PackedColumns}, so it is read along with the blob row.
+    */
+   @Lob
+   @Column(name = "user_metadata")
+   private byte[] userMetadata;
 
    private Date creationDate;
    private Date lastModified;
@@ -58,6 +71,14 @@ public class BlobEntity {
    private String etag;
    private boolean directory;
 
+   /**
+    * Incremented by every update of the row. A writer only replaces the blob if it still has the
+    * version the writer read, so the loser of two concurrent writes is rolled back instead of
+    * overwriting a row it has not seen.
+    */
+   @Version
+   private long version;
+
    @PrePersist
    private void defaults() {
       this.lastModified = new Date();
@@ -80,7 +101,7 @@ public class BlobEntity {
       this.lastModified = lastModified;
       this.payload = payload;
       this.blobAccess = blobAccess;
-      this.userMetadata = userMetadata;
+      this.userMetadata = PackedColumns.packUserMetadata(userMetadata);
       this.size = size;
       this.etag = etag;
       this.directory = directory;
@@ -143,11 +164,11 @@ public class BlobEntity {
    }
 
    public Map<String, String> getUserMetadata() {
-      return userMetadata;
+      return PackedColumns.unpackUserMetadata(userMetadata);
    }
 
    public void setUserMetadata(Map<String, String> userMetadata) {
-      this.userMetadata = userMetadata;
+      this.userMetadata = PackedColumns.packUserMetadata(userMetadata);
    }
 
    public Long getSize() {
@@ -166,6 +187,14 @@ public class BlobEntity {
       this.etag = etag;
    }
 
+   public long getVersion() {
+      return version;
+   }
+
+   public void setVersion(long version) {
+      this.version = version;
+   }
+
    public static Builder builder(ContainerEntity containerEntity, String key) {
       return new Builder(containerEntity, key);
    }
@@ -18,35 +18,88 @@ package org.jclouds.jdbc.entity;
 
 import org.jclouds.jdbc.reference.JdbcConstants;
 
+import javax.persistence.Cacheable;
 import javax.persistence.Column;
 import javax.persistence.Entity;
 import javax.persistence.GeneratedValue;
+import javax.persistence.GenerationType;
 import javax.persistence.Id;
+import javax.persistence.Index;
 import javax.persistence.Lob;
+import javax.persistence.PrePersist;
 import javax.persistence.Table;
+import javax.persistence.TableGenerator;
+import java.util.Date;
 
 @Entity
-@Table
+@Table(indexes = {
+      @Index(name = "ChunkEntity_hash", columnList = "hash"),
+      @Index(name = "ChunkEntity_released", columnList = "referenceCount, lastUsed") })
+@Cacheable(false)
 public class ChunkEntity {
 
+   /**
+    * Identity columns force the provider to insert rows one by one, so ids are allocated from a
+    * table in blocks to allow chunk inserts to be batched.
+    */
    @Id
-   @GeneratedValue
+   @TableGenerator(name = "ChunkIdGenerator", table = "ChunkIdSequence", allocationSize = 64)
+   @GeneratedValue(strategy = GenerationType.TABLE, generator = "ChunkIdGenerator")
    private Long id;
 
    @Lob
    @Column(length = JdbcConstants.DEFAULT_CHUNK_SIZE)
    private byte[] data;
 
+   /**
+    * Size of the chunk content, before compression.
+    */
    private int size;
 
+   /**
+    * Whether the data is deflate compressed. Chunks stored before compression was added have no
+    * value, their data is not compressed.
+    */
+   private Boolean compressed;
+
+   /**
+    * Hex encoded SHA-256 of the chunk data, only set when chunks are deduplicated.
+    */
+   @Column(length = 64)
+   private String hash;
+
+   /**
+    * Number of payloads that point at this chunk. Chunks nothing references anymore are deleted by
+    * the chunk collector.
+    */
+   private int referenceCount;
+
+   /**
+    * Time the chunk was stored or last had a reference added or dropped. Chunks nothing references
+    * are only collected once this is older than the grace period, which leaves uploads time to
+    * publish them and readers of a replaced payload time to finish.
+    */
+   private Date lastUsed;
+
    public ChunkEntity(byte[] data, int size) {
+      this(data, size, null);
+   }
+
+   public ChunkEntity(byte[] data, int size, String hash) {
       this.data = data;
       this.size = size;
+      this.hash = hash;
+      this.referenceCount = 1;
    }
 
    public ChunkEntity() {
    }
 
+   @PrePersist
+   private void defaults() {
+      this.lastUsed = new Date();
+   }
+
    public Long getId() {
       return id;
    }
@@ -70,4 +123,36 @@ public class ChunkEntity {
    public void setSize(int size) {
       this.size = size;
    }
+
+   public boolean isCompressed() {
+      return Boolean.TRUE.equals(compressed);
+   }
+
+   public void setCompressed(boolean compressed) {
+      this.compressed = compressed;
+   }
+
+   public String getHash() {
+      return hash;
+   }
+
+   public void setHash(String hash) {
+      this.hash = hash;
+   }
+
+   public int getReferenceCount() {
+      return referenceCount;
+   }
+
+   public void setReferenceCount(int referenceCount) {
+      this.referenceCount = referenceCount;
+   }
+
+   public Date getLastUsed() {
+      return lastUsed;
+   }
+
+   public void setLastUsed(Date lastUsed) {
+      this.lastUsed = lastUsed;
+   }
 }
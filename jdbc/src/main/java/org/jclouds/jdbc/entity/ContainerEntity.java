@@ -18,23 +18,22 @@ package org.jclouds.jdbc.entity;
 
 import org.jclouds.blobstore.domain.ContainerAccess;
 
-import javax.persistence.Column;
 import javax.persistence.Entity;
 import javax.persistence.GeneratedValue;
 import javax.persistence.Id;
+import javax.persistence.Index;
 import javax.persistence.PrePersist;
 import javax.persistence.Table;
 import java.util.Date;
 
 @Entity
-@Table
+@Table(indexes = @Index(name = "ContainerEntity_name", columnList = "name", unique = true))
 public class ContainerEntity {
 
    @Id
    @GeneratedValue
    private Long id;
 
-   @Column(unique = true)
    private String name;
 
    private Date creationDate;
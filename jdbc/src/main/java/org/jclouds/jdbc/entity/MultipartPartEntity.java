@@ -0,0 +1,140 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jclouds.jdbc.entity;
+
+import com.google.common.collect.Ordering;
+import org.jclouds.jdbc.util.PackedColumns;
+
+import javax.persistence.Column;
+import javax.persistence.Entity;
+import javax.persistence.GeneratedValue;
+import javax.persistence.Id;
+import javax.persistence.Index;
+import javax.persistence.Lob;
+import javax.persistence.Table;
+import javax.persistence.UniqueConstraint;
+import java.util.Date;
+import java.util.List;
+
+/**
+ * Part of a multipart upload. The part content is written to chunks as soon as it arrives, and
+ * completing the upload hands these chunks over to the payload of the blob.
+ */
+@Entity
+@Table(uniqueConstraints = @UniqueConstraint(columnNames = { "upload_id", "part_number" }),
+      indexes = @Index(name = "MultipartPartEntity_chunk_range", columnList = "min_chunk_id, max_chunk_id"))
+public class MultipartPartEntity {
+
+   @Id
+   @GeneratedValue
+   private Long id;
+
+   @Column(name = "upload_id", length = 36, nullable = false)
+   private String uploadId;
+
+   @Column(name = "part_number")
+   private int partNumber;
+
+   /**
+    * Ids of the chunks holding the part content, in order, packed by {@link PackedColumns}.
+    */
+   @Lob
+   @Column(name = "chunk_list")
+   private byte[] chunks;
+
+   /**
+    * Smallest and largest chunk id of the chunk list, see {@link PayloadEntity}.
+    */
+   @Column(name = "min_chunk_id")
+   private Long minChunkId;
+
+   @Column(name = "max_chunk_id")
+   private Long maxChunkId;
+
+   private long size;
+
+   private String etag;
+
+   private Date lastModified;
+
+   public MultipartPartEntity() {
+   }
+
+   public MultipartPartEntity(String uploadId, int partNumber) {
+      this.uploadId = uploadId;
+      this.partNumber = partNumber;
+   }
+
+   public Long getId() {
+      return id;
+   }
+
+   public void setId(Long id) {
+      this.id = id;
+   }
+
+   public String getUploadId() {
+      return uploadId;
+   }
+
+   public void setUploadId(String uploadId) {
+      this.uploadId = uploadId;
+   }
+
+   public int getPartNumber() {
+      return partNumber;
+   }
+
+   public void setPartNumber(int partNumber) {
+      this.partNumber = partNumber;
+   }
+
+   public List<Long> getChunks() {
+      return PackedColumns.unpackChunkIds(chunks);
+   }
+
+   public void setChunks(List<Long> chunks) {
+      this.chunks = PackedColumns.packChunkIds(chunks);
+      this.minChunkId = this.chunks == null ? null : Ordering.natural().min(chunks);
+      this.maxChunkId = this.chunks == null ? null : Ordering.natural().max(chunks);
+   }
+
+   public long getSize() {
+      return size;
+   }
+
+   public void setSize(long size) {
+      this.size = size;
+   }
+
+   public String getEtag() {
+      return etag;
+   }
+
+   public void setEtag(String etag) {
+      this.etag = etag;
+   }
+
+   public Date getLastModified() {
+      return lastModified;
+   }
+
+   public void setLastModified(Date lastModified) {
+      this.lastModified = lastModified;
+   }
+
+}
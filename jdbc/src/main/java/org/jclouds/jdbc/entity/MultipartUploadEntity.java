@@ -0,0 +1,93 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jclouds.jdbc.entity;
+
+import javax.persistence.Column;
+import javax.persistence.Entity;
+import javax.persistence.Id;
+import javax.persistence.ManyToOne;
+import javax.persistence.PrePersist;
+import javax.persistence.Table;
+import java.util.Date;
+
+/**
+ * Multipart upload in progress. Its parts are stored as {@link MultipartPartEntity} rows until the
+ * upload is completed or aborted.
+ */
+@Entity
+@Table
+public class MultipartUploadEntity {
+
+   @Id
+   @Column(length = 36)
+   private String id;
+
+   @ManyToOne(optional = false)
+   private ContainerEntity containerEntity;
+
+   @Column(nullable = false)
+   private String blobName;
+
+   private Date creationDate;
+
+   public MultipartUploadEntity() {
+   }
+
+   public MultipartUploadEntity(String id, ContainerEntity containerEntity, String blobName) {
+      this.id = id;
+      this.containerEntity = containerEntity;
+      this.blobName = blobName;
+   }
+
+   @PrePersist
+   private void defaults() {
+      this.creationDate = new Date();
+   }
+
+   public String getId() {
+      return id;
+   }
+
+   public void setId(String id) {
+      this.id = id;
+   }
+
+   public ContainerEntity getContainerEntity() {
+      return containerEntity;
+   }
+
+   public void setContainerEntity(ContainerEntity containerEntity) {
+      this.containerEntity = containerEntity;
+   }
+
+   public String getBlobName() {
+      return blobName;
+   }
+
+   public void setBlobName(String blobName) {
+      this.blobName = blobName;
+   }
+
+   public Date getCreationDate() {
+      return creationDate;
+   }
+
+   public void setCreationDate(Date creationDate) {
+      this.creationDate = creationDate;
+   }
+
+}
@@ -17,24 +17,61 @@
 package org.jclouds.jdbc.entity;
 
 import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Ordering;
+import org.jclouds.jdbc.util.PackedColumns;
 
-import javax.persistence.ElementCollection;
+import javax.persistence.Basic;
+import javax.persistence.Column;
 import javax.persistence.Entity;
 import javax.persistence.FetchType;
 import javax.persistence.GeneratedValue;
 import javax.persistence.Id;
+import javax.persistence.Index;
+import javax.persistence.Lob;
+import javax.persistence.Table;
 import java.util.Date;
 import java.util.List;
 
 @Entity
+@Table(indexes = @Index(name = "PayloadEntity_chunk_range", columnList = "min_chunk_id, max_chunk_id"))
 public class PayloadEntity {
 
    @Id
    @GeneratedValue
    private Long id;
 
-   @ElementCollection(fetch = FetchType.EAGER)
-   private List<Long> chunks;
+   /**
+    * Ids of the chunks holding the content, in order, packed by {@link PackedColumns} so the whole
+    * list comes with the payload row.
+    */
+   @Lob
+   @Column(name = "chunk_list")
+   private byte[] chunks;
+
+   /**
+    * Smallest and largest chunk id of the chunk list, so the lists that may point at a range of
+    * chunks are found without unpacking every list. Null when there are no chunks, and for lists
+    * packed before the range was kept.
+    */
+   @Column(name = "min_chunk_id")
+   private Long minChunkId;
+
+   @Column(name = "max_chunk_id")
+   private Long maxChunkId;
+
+   /**
+    * Content of payloads small enough to be stored in this row rather than in chunks.
+    */
+   @Lob
+   @Basic(fetch = FetchType.LAZY)
+   @Column(name = "inline_data")
+   private byte[] inlineData;
+
+   /**
+    * Whether chunks other than the last one may hold less than a full chunk, as is the case for
+    * payloads stitched together from the parts of a multipart upload.
+    */
+   private boolean variableChunkSize;
 
    private String cacheControl;
    private String contentType;
@@ -47,7 +84,7 @@ public class PayloadEntity {
 
    public PayloadEntity(List<Long> chunks, String cacheControl, String contentType, Long contentLength, byte[] contentMD5,
          String contentDisposition, String contentLanguage, String contentEncoding, Date expires) {
-      this.chunks = chunks;
+      setChunks(chunks);
       this.cacheControl = cacheControl;
       this.contentType = contentType;
       this.contentLength = contentLength;
@@ -70,11 +107,29 @@ public class PayloadEntity {
    }
 
    public List<Long> getChunks() {
-      return chunks;
+      return PackedColumns.unpackChunkIds(chunks);
    }
 
    public void setChunks(List<Long> chunks) {
-      this.chunks = chunks;
+      this.chunks = PackedColumns.packChunkIds(chunks);
+      this.minChunkId = this.chunks == null ? null : Ordering.natural().min(chunks);
+      this.maxChunkId = this.chunks == null ? null : Ordering.natural().max(chunks);
+   }
+
+   public byte[] getInlineData() {
+      return inlineData;
+   }
+
+   public void setInlineData(byte[] inlineData) {
+      this.inlineData = inlineData;
+   }
+
+   public boolean isVariableChunkSize() {
+      return variableChunkSize;
+   }
+
+   public void setVariableChunkSize(boolean variableChunkSize) {
+      this.variableChunkSize = variableChunkSize;
    }
 
    public String getCacheControl() {
@@ -0,0 +1,142 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jclouds.jdbc.metrics;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.Maps;
+import com.google.inject.Inject;
+import com.google.inject.Singleton;
+import org.jclouds.blobstore.reference.BlobStoreConstants;
+import org.jclouds.jdbc.reference.JdbcConstants;
+import org.jclouds.lifecycle.Closer;
+import org.jclouds.logging.Logger;
+
+import javax.annotation.Resource;
+import javax.inject.Named;
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import java.io.Closeable;
+import java.lang.management.ManagementFactory;
+import java.util.List;
+import java.util.Set;
+import java.util.SortedMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Gathers the latency, rows and bytes of the blob store and service operations. The statistics
+ * are published over JMX as {@code org.jclouds.jdbc:type=JdbcMetrics,name=jclouds-jdbc-N}, handed to the
+ * {@link JdbcOperationListener}s bound in the context, and operations slower than
+ * {@link JdbcConstants#PROPERTY_SLOW_OPERATION_THRESHOLD} are logged.
+ */
+@Singleton
+public class JdbcMetrics implements JdbcMetricsMXBean {
+
+   private static final AtomicInteger INSTANCES = new AtomicInteger();
+
+   @Resource
+   @Named(BlobStoreConstants.BLOBSTORE_LOGGER)
+   protected Logger logger = Logger.NULL;
+
+   private final ConcurrentMap<String, OperationStats> operations = Maps.newConcurrentMap();
+   private Set<JdbcOperationListener> listeners = ImmutableSet.of();
+
+   @Inject(optional = true)
+   @Named(JdbcConstants.PROPERTY_SLOW_OPERATION_THRESHOLD)
+   private long slowOperationThreshold = JdbcConstants.DEFAULT_SLOW_OPERATION_THRESHOLD;
+
+   @Inject(optional = true)
+   void setListeners(Set<JdbcOperationListener> listeners) {
+      this.listeners = ImmutableSet.copyOf(listeners);
+   }
+
+   /**
+    * Publishes the statistics over JMX until the context is closed.
+    */
+   @Inject
+   void register(Closer closer) {
+      final MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+      try {
+         final ObjectName name = new ObjectName("org.jclouds.jdbc:type=JdbcMetrics,name=jclouds-jdbc-"
+               + INSTANCES.incrementAndGet());
+         server.registerMBean(this, name);
+         closer.addToClose(new Closeable() {
+            @Override
+            public void close() {
+               try {
+                  server.unregisterMBean(name);
+               } catch (JMException e) {
+                  // the context is being closed anyway
+               }
+            }
+         });
+      } catch (JMException e) {
+         logger.warn(e, "could not publish the JDBC blob store metrics over JMX");
+      }
+   }
+
+   /**
+    * Records a completed operation.
+    *
+    * @see JdbcOperationListener#operationCompleted
+    */
+   public void record(String operation, long durationNanos, long rows, long bytes, Throwable failure) {
+      OperationStats stats = operations.get(operation);
+      if (stats == null) {
+         OperationStats created = new OperationStats(operation);
+         stats = operations.putIfAbsent(operation, created);
+         if (stats == null) {
+            stats = created;
+         }
+      }
+      stats.record(durationNanos, rows, bytes, failure != null);
+      if (slowOperationThreshold > 0 && durationNanos >= TimeUnit.MILLISECONDS.toNanos(slowOperationThreshold)) {
+         logger.warn("slow operation %s took %d ms, returned %d rows and moved %d bytes%s", operation,
+               TimeUnit.NANOSECONDS.toMillis(durationNanos), rows, bytes, failure == null ? "" : " before failing");
+      }
+      for (JdbcOperationListener listener : listeners) {
+         try {
+            listener.operationCompleted(operation, durationNanos, rows, bytes, failure);
+         } catch (RuntimeException e) {
+            logger.warn(e, "operation listener %s failed", listener);
+         }
+      }
+   }
+
+   /**
+    * @return the statistics of an operation, or null if it has not run yet
+    */
+   public OperationStats getStats(String operation) {
+      return operations.get(operation);
+   }
+
+   @Override
+   public List<OperationStats> getOperations() {
+      SortedMap<String, OperationStats> sorted = Maps.newTreeMap();
+      sorted.putAll(operations);
+      return ImmutableList.copyOf(sorted.values());
+   }
+
+   @Override
+   public void reset() {
+      operations.clear();
+   }
+
+}
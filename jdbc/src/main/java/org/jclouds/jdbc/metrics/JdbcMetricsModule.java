@@ -0,0 +1,48 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jclouds.jdbc.metrics;
+
+import com.google.inject.AbstractModule;
+import com.google.inject.matcher.AbstractMatcher;
+import com.google.inject.matcher.Matchers;
+import org.jclouds.jdbc.service.JdbcService;
+import org.jclouds.jdbc.strategy.JdbcStorageStrategy;
+
+import java.lang.reflect.Method;
+
+/**
+ * Instruments the operations of {@link JdbcStorageStrategy} and {@link JdbcService}. Installed
+ * before the persistence module, the time recorded for a transactional operation includes its
+ * commit.
+ */
+public class JdbcMetricsModule extends AbstractModule {
+
+   @Override
+   protected void configure() {
+      bind(JdbcMetrics.class).asEagerSingleton();
+      OperationMetricsInterceptor interceptor = new OperationMetricsInterceptor();
+      requestInjection(interceptor);
+      bindInterceptor(Matchers.subclassesOf(JdbcStorageStrategy.class).or(Matchers.subclassesOf(JdbcService.class)),
+            new AbstractMatcher<Method>() {
+               @Override
+               public boolean matches(Method method) {
+                  return !method.isSynthetic() && method.getDeclaringClass() != Object.class;
+               }
+            }, interceptor);
+   }
+
+}
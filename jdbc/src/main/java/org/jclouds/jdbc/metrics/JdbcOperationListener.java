@@ -0,0 +1,37 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jclouds.jdbc.metrics;
+
+/**
+ * Receives the outcome of every instrumented operation of the JDBC blob store, to feed it into a
+ * metrics system of its own. Listeners are picked up from a {@code Set<JdbcOperationListener>}
+ * binding, such as one made with a Guice multibinder. They are called on the thread that ran the
+ * operation, so they should return quickly.
+ */
+public interface JdbcOperationListener {
+
+   /**
+    * @param operation the class and method name of the operation, such as
+    *        {@code JdbcService.findChunkById}
+    * @param durationNanos the time the operation took, including its transaction
+    * @param rows the number of entries the operation returned
+    * @param bytes the number of bytes of blob content the operation read or wrote
+    * @param failure the exception the operation threw, or null if it succeeded
+    */
+   void operationCompleted(String operation, long durationNanos, long rows, long bytes, Throwable failure);
+
+}
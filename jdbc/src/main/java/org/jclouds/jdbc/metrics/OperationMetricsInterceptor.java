@@ -0,0 +1,94 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jclouds.jdbc.metrics;
+
+import com.google.common.collect.Multimap;
+import com.google.inject.Inject;
+import org.aopalliance.intercept.MethodInterceptor;
+import org.aopalliance.intercept.MethodInvocation;
+import org.jclouds.blobstore.domain.Blob;
+import org.jclouds.io.Payload;
+import org.jclouds.jdbc.entity.ChunkEntity;
+
+import java.lang.reflect.Method;
+import java.util.Collection;
+import java.util.Map;
+
+/**
+ * Times the intercepted methods and records them in {@link JdbcMetrics}, along with the number of
+ * entries they return and the blob content they take or return.
+ */
+class OperationMetricsInterceptor implements MethodInterceptor {
+
+   private JdbcMetrics metrics;
+
+   @Inject
+   void setMetrics(JdbcMetrics metrics) {
+      this.metrics = metrics;
+   }
+
+   @Override
+   public Object invoke(MethodInvocation invocation) throws Throwable {
+      Method method = invocation.getMethod();
+      String operation = method.getDeclaringClass().getSimpleName() + "." + method.getName();
+      long start = System.nanoTime();
+      Object result = null;
+      Throwable failure = null;
+      try {
+         result = invocation.proceed();
+         return result;
+      } catch (Throwable t) {
+         failure = t;
+         throw t;
+      } finally {
+         long bytes = bytes(result);
+         for (Object argument : invocation.getArguments()) {
+            bytes += bytes(argument);
+         }
+         metrics.record(operation, System.nanoTime() - start, rows(result), bytes, failure);
+      }
+   }
+
+   private static long rows(Object result) {
+      if (result instanceof Collection) {
+         return ((Collection<?>) result).size();
+      } else if (result instanceof Map) {
+         return ((Map<?, ?>) result).size();
+      } else if (result instanceof Multimap) {
+         return ((Multimap<?, ?>) result).size();
+      } else if (result == null || result instanceof Number || result instanceof Boolean
+            || result instanceof String) {
+         return 0;
+      }
+      return 1;
+   }
+
+   private static long bytes(Object value) {
+      if (value instanceof Blob) {
+         return bytes(((Blob) value).getPayload());
+      } else if (value instanceof Payload) {
+         Long length = ((Payload) value).getContentMetadata().getContentLength();
+         return length == null ? 0 : length;
+      } else if (value instanceof ChunkEntity) {
+         return ((ChunkEntity) value).getSize();
+      } else if (value instanceof byte[]) {
+         return ((byte[]) value).length;
+      }
+      return 0;
+   }
+
+}
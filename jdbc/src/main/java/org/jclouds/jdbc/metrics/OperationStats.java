@@ -0,0 +1,158 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jclouds.jdbc.metrics;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Statistics of a single operation. Latencies are counted in a histogram of fixed buckets, from
+ * 100 microseconds to 10 seconds, so percentiles are reported as the upper bound of the bucket
+ * they fall in.
+ */
+public class OperationStats {
+
+   private static final long[] BUCKET_BOUNDS_MICROS = { 100, 250, 500, 1000, 2500, 5000, 10000, 25000, 50000,
+         100000, 250000, 500000, 1000000, 2500000, 5000000, 10000000 };
+
+   private final String operation;
+   private final AtomicLong count = new AtomicLong();
+   private final AtomicLong failures = new AtomicLong();
+   private final AtomicLong totalNanos = new AtomicLong();
+   private final AtomicLong maxNanos = new AtomicLong();
+   private final AtomicLong rows = new AtomicLong();
+   private final AtomicLong bytes = new AtomicLong();
+   private final AtomicLongArray histogram = new AtomicLongArray(BUCKET_BOUNDS_MICROS.length + 1);
+
+   OperationStats(String operation) {
+      this.operation = operation;
+   }
+
+   void record(long durationNanos, long rows, long bytes, boolean failed) {
+      count.incrementAndGet();
+      if (failed) {
+         failures.incrementAndGet();
+      }
+      totalNanos.addAndGet(durationNanos);
+      long max = maxNanos.get();
+      while (durationNanos > max && !maxNanos.compareAndSet(max, durationNanos)) {
+         max = maxNanos.get();
+      }
+      this.rows.addAndGet(rows);
+      this.bytes.addAndGet(bytes);
+      long micros = TimeUnit.NANOSECONDS.toMicros(durationNanos);
+      int bucket = 0;
+      while (bucket < BUCKET_BOUNDS_MICROS.length && micros >= BUCKET_BOUNDS_MICROS[bucket]) {
+         bucket++;
+      }
+      histogram.incrementAndGet(bucket);
+   }
+
+   public String getOperation() {
+      return operation;
+   }
+
+   public long getCount() {
+      return count.get();
+   }
+
+   /**
+    * @return the number of calls that threw an exception
+    */
+   public long getFailures() {
+      return failures.get();
+   }
+
+   public double getTotalTimeMillis() {
+      return totalNanos.get() / 1e6;
+   }
+
+   public double getAverageTimeMillis() {
+      long calls = count.get();
+      return calls == 0 ? 0 : totalNanos.get() / 1e6 / calls;
+   }
+
+   public double getMaxTimeMillis() {
+      return maxNanos.get() / 1e6;
+   }
+
+   public double getMedianTimeMillis() {
+      return percentileMillis(0.5);
+   }
+
+   public double getPercentile99TimeMillis() {
+      return percentileMillis(0.99);
+   }
+
+   /**
+    * @return the number of entries returned by all calls
+    */
+   public long getRows() {
+      return rows.get();
+   }
+
+   /**
+    * @return the number of bytes of blob content read or written by all calls
+    */
+   public long getBytes() {
+      return bytes.get();
+   }
+
+   /**
+    * @return the upper bounds of the histogram buckets in milliseconds, the last bucket has none
+    */
+   public double[] getHistogramBoundsMillis() {
+      double[] bounds = new double[BUCKET_BOUNDS_MICROS.length];
+      for (int i = 0; i < bounds.length; i++) {
+         bounds[i] = BUCKET_BOUNDS_MICROS[i] / 1e3;
+      }
+      return bounds;
+   }
+
+   /**
+    * @return the number of calls that fell in each histogram bucket
+    */
+   public long[] getHistogram() {
+      long[] counts = new long[histogram.length()];
+      for (int i = 0; i < counts.length; i++) {
+         counts[i] = histogram.get(i);
+      }
+      return counts;
+   }
+
+   /**
+    * @return the upper bound of the bucket holding the given percentile, or the maximum latency
+    *         when it falls in the last bucket
+    */
+   private double percentileMillis(double percentile) {
+      long[] counts = getHistogram();
+      long total = 0;
+      for (long bucketCount : counts) {
+         total += bucketCount;
+      }
+      long seen = 0;
+      for (int i = 0; i < BUCKET_BOUNDS_MICROS.length; i++) {
+         seen += counts[i];
+         if (seen > 0 && seen >= percentile * total) {
+            return BUCKET_BOUNDS_MICROS[i] / 1e3;
+         }
+      }
+      return getMaxTimeMillis();
+   }
+
+}
@@ -23,6 +23,150 @@ public final class JdbcConstants {
 
     public static final int DEFAULT_CHUNK_SIZE = 1024 * 1024;
 
+    /**
+     * Number of chunks fetched in the background while a blob payload is being read.
+     * Set it to 0 to disable read-ahead. Default: 2
+     */
+    public static final String PROPERTY_READ_AHEAD_CHUNKS = "jclouds.jdbc.read-ahead-chunks";
+
+    public static final int DEFAULT_READ_AHEAD_CHUNKS = 2;
+
+    /**
+     * Number of chunks written to the database in a single batch when storing a blob. This is also
+     * the number of chunk buffers kept around and reused while a blob is stored. Default: 8
+     */
+    public static final String PROPERTY_WRITE_BATCH_SIZE = "jclouds.jdbc.write-batch-size";
+
+    public static final int DEFAULT_WRITE_BATCH_SIZE = 8;
+
+    /**
+     * Maximum number of chunk batches of a single upload written to the database at once, each on
+     * its own connection and in its own transaction, while the upload keeps reading its payload.
+     * Set it to 1 to write the batches one after the other, in between reading the payload. Default: 2
+     */
+    public static final String PROPERTY_WRITE_THREADS = "jclouds.jdbc.write-threads";
+
+    public static final int DEFAULT_WRITE_THREADS = 2;
+
+    /**
+     * Whether chunks with the same content are stored only once and shared between blobs.
+     * Chunks are matched by their SHA-256 hash. Default: false
+     */
+    public static final String PROPERTY_DEDUPLICATION = "jclouds.jdbc.deduplication";
+
+    public static final boolean DEFAULT_DEDUPLICATION = false;
+
+    /**
+     * Number of blobs deleted per transaction when a container or a directory is cleared, must be
+     * positive. Default: 500
+     */
+    public static final String PROPERTY_DELETE_BATCH_SIZE = "jclouds.jdbc.delete-batch-size";
+
+    public static final int DEFAULT_DELETE_BATCH_SIZE = 500;
+
+    /**
+     * Payloads of up to this many bytes are stored in the payload row itself instead of in chunks,
+     * so that reading them does not go through the chunk table. Set it to 0 to store every
+     * non-empty payload in chunks. Default: 4096
+     */
+    public static final String PROPERTY_INLINE_THRESHOLD = "jclouds.jdbc.inline-threshold";
+
+    public static final int DEFAULT_INLINE_THRESHOLD = 4096;
+
+    /**
+     * Whether chunk data is deflate compressed before it is stored. Chunks that do not get smaller
+     * are stored as they are. Default: false
+     */
+    public static final String PROPERTY_COMPRESSION = "jclouds.jdbc.compression";
+
+    public static final boolean DEFAULT_COMPRESSION = false;
+
+    /**
+     * Seconds between runs of the collector deleting chunks whose reference count dropped to zero:
+     * the chunks of replaced and removed blobs and those of failed uploads. Set it to 0 to disable
+     * the collector, unreferenced chunks then stay in the database. Default: 3600
+     */
+    public static final String PROPERTY_GC_INTERVAL = "jclouds.jdbc.gc.interval";
+
+    public static final long DEFAULT_GC_INTERVAL = 3600;
+
+    /**
+     * Seconds between full passes of the collector, which also check the chunks that still count
+     * references against the chunk lists. They reclaim chunks whose count was never dropped, such
+     * as those of uploads interrupted by a crash, but read every chunk list, so they are meant to
+     * run rarely. Set it to 0 to disable them. Default: 604800
+     */
+    public static final String PROPERTY_GC_AUDIT_INTERVAL = "jclouds.jdbc.gc.audit-interval";
+
+    public static final long DEFAULT_GC_AUDIT_INTERVAL = 604800;
+
+    /**
+     * Seconds an unreferenced chunk is kept after it was last used, which leaves uploads in progress
+     * time to store the payload pointing at their chunks and readers time to finish streaming a
+     * blob that was replaced. It should exceed the time the slowest single upload or download
+     * takes. Default: 86400
+     */
+    public static final String PROPERTY_GC_GRACE_PERIOD = "jclouds.jdbc.gc.grace-period";
+
+    public static final long DEFAULT_GC_GRACE_PERIOD = 86400;
+
+    /**
+     * Number of rows the collector reads or deletes per transaction. Default: 500
+     */
+    public static final String PROPERTY_GC_BATCH_SIZE = "jclouds.jdbc.gc.batch-size";
+
+    public static final int DEFAULT_GC_BATCH_SIZE = 500;
+
+    /**
+     * Milliseconds the collector pauses after each full batch, limiting the load it puts on the
+     * database. Default: 100
+     */
+    public static final String PROPERTY_GC_BATCH_DELAY = "jclouds.jdbc.gc.batch-delay";
+
+    public static final long DEFAULT_GC_BATCH_DELAY = 100;
+
+    /**
+     * Approximate number of bytes of blob metadata kept in memory to answer metadata and existence
+     * lookups without going to the database, including the content of small payloads stored
+     * inline. Set it to 0 to disable the cache. Default: 16777216
+     */
+    public static final String PROPERTY_METADATA_CACHE_SIZE = "jclouds.jdbc.metadata-cache-size";
+
+    public static final long DEFAULT_METADATA_CACHE_SIZE = 16 * 1024 * 1024;
+
+    /**
+     * Seconds blob metadata stays cached. Changes made through this context invalidate the cache
+     * right away, this bounds how long changes made by other processes sharing the database go
+     * unnoticed. Default: 60
+     */
+    public static final String PROPERTY_METADATA_CACHE_EXPIRY = "jclouds.jdbc.metadata-cache-expiry";
+
+    public static final long DEFAULT_METADATA_CACHE_EXPIRY = 60;
+
+    /**
+     * Milliseconds after which a blob store or service operation is logged as slow, along with the
+     * rows and bytes it moved. Set it to 0 to disable the log. Default: 1000
+     */
+    public static final String PROPERTY_SLOW_OPERATION_THRESHOLD = "jclouds.jdbc.slow-operation-threshold";
+
+    public static final long DEFAULT_SLOW_OPERATION_THRESHOLD = 1000;
+
+    /**
+     * Number of times a write transaction is run again after losing a race against a concurrent
+     * write of the same blob, such as two uploads of the same key. Default: 5
+     */
+    public static final String PROPERTY_WRITE_RETRIES = "jclouds.jdbc.write-retries";
+
+    public static final int DEFAULT_WRITE_RETRIES = 5;
+
+    /**
+     * Milliseconds waited before running a conflicting write again, doubled for each further retry
+     * and spread randomly so that the writers involved do not collide again. Default: 10
+     */
+    public static final String PROPERTY_WRITE_RETRY_DELAY = "jclouds.jdbc.write-retry-delay";
+
+    public static final long DEFAULT_WRITE_RETRY_DELAY = 10;
+
     private JdbcConstants() {
         throw new AssertionError("Intentionally Unimplemented");
     }
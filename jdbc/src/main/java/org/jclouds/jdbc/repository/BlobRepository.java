@@ -16,19 +16,46 @@
  */
 package org.jclouds.jdbc.repository;
 
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Iterables;
+import com.google.common.collect.Maps;
 import com.google.inject.Inject;
 import com.google.inject.Provider;
 import com.google.inject.Singleton;
+import org.jclouds.jdbc.domain.BlobSummary;
 import org.jclouds.jdbc.entity.BlobEntity;
 import org.jclouds.jdbc.entity.BlobEntityPK;
 import org.jclouds.jdbc.entity.ContainerEntity;
+import org.jclouds.jdbc.util.PackedColumns;
 
 import javax.persistence.EntityManager;
+import javax.persistence.TypedQuery;
+import java.util.Collection;
 import java.util.List;
+import java.util.Map;
 
 @Singleton
 public class BlobRepository extends GenericRepository<BlobEntity, BlobEntityPK> {
 
+   /**
+    * Maximum number of parameters bound to a single IN clause.
+    */
+   private static final int MAX_IN_PARAMETERS = 500;
+
+   private static final char LIKE_ESCAPE = '!';
+
+   private static final String SEPARATOR = "/";
+
+   private static final String SUMMARY_COLUMNS = "c.name, b.key, b.directory, b.size, b.etag, b.creationDate, "
+         + "b.lastModified, p.id, p.variableChunkSize, p.contentType, p.contentLength, p.contentMD5, "
+         + "p.cacheControl, p.contentDisposition, p.contentEncoding, p.contentLanguage, p.expires";
+
+   private static final String SELECT_SUMMARY = "SELECT NEW " + BlobSummary.class.getName() + "("
+         + SUMMARY_COLUMNS + ") ";
+
+   private static final String SELECT_SUMMARY_WITH_DATA = "SELECT NEW " + BlobSummary.class.getName() + "("
+         + SUMMARY_COLUMNS + ", p.inlineData, b.userMetadata) ";
+
    @Inject
    private BlobRepository(Provider<EntityManager> entityManager) {
       super(entityManager);
@@ -42,13 +69,218 @@ public class BlobRepository extends GenericRepository<BlobEntity, BlobEntityPK>
                 .getResultList();
     }
 
-   public List<BlobEntity> findBlobsByDirectory(ContainerEntity containerEntity, String directory) {
-      return entityManager.get().createQuery("SELECT b FROM " + entityClass.getName() + " b "
-            + "WHERE b.containerEntity = :containerEntity AND b.key != :directoryName AND b.key LIKE :directoryLike ", entityClass)
+   /**
+    * Finds the blobs under a directory with a single prefix query.
+    *
+    * @param directory the name of the directory, with or without a trailing separator
+    * @param recursive whether blobs in subdirectories are returned as well
+    */
+   public List<BlobEntity> findBlobsByDirectory(ContainerEntity containerEntity, String directory,
+         boolean recursive) {
+      return createDirectoryQuery("SELECT b", entityClass, containerEntity, directory, recursive).getResultList();
+   }
+
+   /**
+    * Counts the blobs of a container, or only the blobs under a directory.
+    *
+    * @param directory the name of the directory, or null to count the whole container
+    * @param recursive whether blobs in subdirectories are counted as well
+    */
+   public long countBlobs(ContainerEntity containerEntity, String directory, boolean recursive) {
+      if (directory == null) {
+         return entityManager.get().createQuery("SELECT COUNT(b.key) FROM " + entityClass.getName() + " b "
+               + "WHERE b.containerEntity = :containerEntity", Long.class)
+               .setParameter("containerEntity", containerEntity)
+               .getSingleResult();
+      }
+      return createDirectoryQuery("SELECT COUNT(b.key)", Long.class, containerEntity, directory, recursive)
+            .getSingleResult();
+   }
+
+   public boolean directoryExists(ContainerEntity containerEntity, String key) {
+      return entityManager.get().createQuery("SELECT COUNT(p.id) FROM " + entityClass.getName() + " b "
+            + "JOIN b.payload p WHERE b.containerEntity = :containerEntity AND b.key = :key "
+            + "AND p.contentType = :contentType", Long.class)
+            .setParameter("containerEntity", containerEntity)
+            .setParameter("key", key)
+            .setParameter("contentType", "application/directory")
+            .getSingleResult() > 0;
+   }
+
+   public List<String> findBlobKeysByContainer(ContainerEntity containerEntity) {
+      return entityManager.get().createQuery("SELECT b.key FROM " + entityClass.getName() + " b "
+            + "WHERE b.containerEntity = :containerEntity ORDER BY b.key", String.class)
             .setParameter("containerEntity", containerEntity)
-            .setParameter("directoryName", directory)
-            .setParameter("directoryLike", directory + "%")
             .getResultList();
    }
 
+   /**
+    * Finds the keys of a container in ascending order, without loading the blobs.
+    *
+    * @param prefix only keys starting with this prefix are returned
+    * @param after only keys after this one are returned, or null to start from the first key
+    * @param inclusive whether the key given as {@code after} itself is returned
+    * @param maxResults maximum number of keys returned
+    */
+   public List<String> findBlobKeys(ContainerEntity containerEntity, String prefix, String after, boolean inclusive,
+         int maxResults) {
+      StringBuilder query = new StringBuilder("SELECT b.key FROM " + entityClass.getName() + " b "
+            + "WHERE b.containerEntity = :containerEntity");
+      if (!prefix.isEmpty()) {
+         query.append(" AND b.key LIKE :prefix ESCAPE '").append(LIKE_ESCAPE).append("'");
+      }
+      if (after != null) {
+         query.append(inclusive ? " AND b.key >= :after" : " AND b.key > :after");
+      }
+      query.append(" ORDER BY b.key");
+      TypedQuery<String> typedQuery = entityManager.get().createQuery(query.toString(), String.class)
+            .setParameter("containerEntity", containerEntity)
+            .setMaxResults(maxResults);
+      if (!prefix.isEmpty()) {
+         typedQuery.setParameter("prefix", escapeLike(prefix) + "%");
+      }
+      if (after != null) {
+         typedQuery.setParameter("after", after);
+      }
+      return typedQuery.getResultList();
+   }
+
+   public boolean exists(ContainerEntity containerEntity, String key) {
+      return !entityManager.get().createQuery("SELECT b.key FROM " + entityClass.getName() + " b "
+            + "WHERE b.containerEntity = :containerEntity AND b.key = :key", String.class)
+            .setParameter("containerEntity", containerEntity)
+            .setParameter("key", key)
+            .setMaxResults(1)
+            .getResultList()
+            .isEmpty();
+   }
+
+   /**
+    * Reads the metadata of a blob, including its user metadata, without loading its chunk ids.
+    */
+   public BlobSummary findBlobSummary(ContainerEntity containerEntity, String key) {
+      // the user metadata and the content of inline payloads come with the row, reading the blob
+      // needs no further query
+      List<BlobSummary> summaries = entityManager.get().createQuery(SELECT_SUMMARY_WITH_DATA + "FROM " + entityClass.getName()
+            + " b JOIN b.containerEntity c LEFT JOIN b.payload p "
+            + "WHERE c = :containerEntity AND b.key = :key", BlobSummary.class)
+            .setParameter("containerEntity", containerEntity)
+            .setParameter("key", key)
+            .getResultList();
+      return summaries.isEmpty() ? null : summaries.get(0);
+   }
+
+   /**
+    * Reads the metadata of the given blobs without loading their chunk ids or user metadata.
+    */
+   public List<BlobSummary> findBlobSummariesByKeys(ContainerEntity containerEntity, Collection<String> keys) {
+      ImmutableList.Builder<BlobSummary> result = ImmutableList.builder();
+      for (List<String> partition : Iterables.partition(keys, MAX_IN_PARAMETERS)) {
+         result.addAll(entityManager.get().createQuery(SELECT_SUMMARY + "FROM " + entityClass.getName()
+               + " b JOIN b.containerEntity c LEFT JOIN b.payload p "
+               + "WHERE c = :containerEntity AND b.key IN :keys", BlobSummary.class)
+               .setParameter("containerEntity", containerEntity)
+               .setParameter("keys", partition)
+               .getResultList());
+      }
+      return result.build();
+   }
+
+   /**
+    * Reads the user metadata of the given blobs. Blobs without user metadata are left out.
+    */
+   public Map<String, Map<String, String>> findUserMetadataByKeys(ContainerEntity containerEntity,
+         Collection<String> keys) {
+      Map<String, Map<String, String>> result = Maps.newHashMap();
+      for (List<String> partition : Iterables.partition(keys, MAX_IN_PARAMETERS)) {
+         List<Object[]> rows = entityManager.get().createQuery("SELECT b.key, b.userMetadata FROM "
+               + entityClass.getName() + " b WHERE b.containerEntity = :containerEntity AND b.key IN :keys "
+               + "AND b.userMetadata IS NOT NULL", Object[].class)
+               .setParameter("containerEntity", containerEntity)
+               .setParameter("keys", partition)
+               .getResultList();
+         for (Object[] row : rows) {
+            result.put((String) row[0], PackedColumns.unpackUserMetadata((byte[]) row[1]));
+         }
+      }
+      return result;
+   }
+
+   /**
+    * Finds a batch of blobs to delete, with the id of their payload.
+    *
+    * @param prefix only blobs whose key starts with this prefix are returned
+    * @param excludedKey key of a blob that is never returned, or null
+    * @param includeDirectories whether directory blobs are returned
+    * @return rows holding the key and the payload id of a blob
+    */
+   public List<Object[]> findBlobsToDelete(ContainerEntity containerEntity, String prefix, String excludedKey,
+         boolean includeDirectories, int maxResults) {
+      StringBuilder query = new StringBuilder("SELECT b.key, p.id FROM " + entityClass.getName() + " b "
+            + "LEFT JOIN b.payload p WHERE b.containerEntity = :containerEntity");
+      if (!prefix.isEmpty()) {
+         query.append(" AND b.key LIKE :prefix ESCAPE '").append(LIKE_ESCAPE).append("'");
+      }
+      if (excludedKey != null) {
+         query.append(" AND b.key <> :excludedKey");
+      }
+      if (!includeDirectories) {
+         query.append(" AND b.directory = false");
+      }
+      TypedQuery<Object[]> typedQuery = entityManager.get().createQuery(query.toString(), Object[].class)
+            .setParameter("containerEntity", containerEntity)
+            .setMaxResults(maxResults);
+      if (!prefix.isEmpty()) {
+         typedQuery.setParameter("prefix", escapeLike(prefix) + "%");
+      }
+      if (excludedKey != null) {
+         typedQuery.setParameter("excludedKey", excludedKey);
+      }
+      return typedQuery.getResultList();
+   }
+
+   /**
+    * Deletes the given blobs, leaving their payloads alone.
+    */
+   public void deleteBlobs(ContainerEntity containerEntity, Collection<String> keys) {
+      for (List<String> partition : Iterables.partition(keys, MAX_IN_PARAMETERS)) {
+         entityManager.get().createQuery("DELETE FROM " + entityClass.getName() + " b "
+               + "WHERE b.containerEntity = :containerEntity AND b.key IN :keys")
+               .setParameter("containerEntity", containerEntity)
+               .setParameter("keys", partition)
+               .executeUpdate();
+      }
+   }
+
+   private <T> TypedQuery<T> createDirectoryQuery(String select, Class<T> resultClass,
+         ContainerEntity containerEntity, String directory, boolean recursive) {
+      String prefix = directory.endsWith(SEPARATOR) ? directory : directory + SEPARATOR;
+      String query = select + " FROM " + entityClass.getName() + " b "
+            + "WHERE b.containerEntity = :containerEntity AND b.key <> :prefix "
+            + "AND b.key LIKE :prefixLike ESCAPE '" + LIKE_ESCAPE + "'";
+      if (!recursive) {
+         query += " AND b.key NOT LIKE :nestedLike ESCAPE '" + LIKE_ESCAPE + "'";
+      }
+      TypedQuery<T> typedQuery = entityManager.get().createQuery(query, resultClass)
+            .setParameter("containerEntity", containerEntity)
+            .setParameter("prefix", prefix)
+            .setParameter("prefixLike", escapeLike(prefix) + "%");
+      if (!recursive) {
+         typedQuery.setParameter("nestedLike", escapeLike(prefix) + "%" + escapeLike(SEPARATOR) + "%");
+      }
+      return typedQuery;
+   }
+
+   private static String escapeLike(String value) {
+      StringBuilder result = new StringBuilder(value.length());
+      for (int i = 0; i < value.length(); i++) {
+         char c = value.charAt(i);
+         if (c == '%' || c == '_' || c == LIKE_ESCAPE) {
+            result.append(LIKE_ESCAPE);
+         }
+         result.append(c);
+      }
+      return result.toString();
+   }
+
 }
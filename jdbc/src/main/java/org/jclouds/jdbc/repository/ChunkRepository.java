@@ -16,19 +16,232 @@
  */
 package org.jclouds.jdbc.repository;
 
+import com.google.common.collect.ArrayListMultimap;
+import com.google.common.collect.ImmutableMultiset;
+import com.google.common.collect.Iterables;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.google.common.collect.Multimap;
+import com.google.common.collect.Multiset;
 import com.google.inject.Inject;
 import com.google.inject.Provider;
 import com.google.inject.Singleton;
 import org.jclouds.jdbc.entity.ChunkEntity;
 
 import javax.persistence.EntityManager;
+import java.util.Collection;
+import java.util.Date;
+import java.util.List;
+import java.util.Map;
 
 @Singleton
 public class ChunkRepository extends GenericRepository<ChunkEntity, Long> {
 
+   /**
+    * Maximum number of parameters bound to a single IN clause.
+    */
+   private static final int MAX_IN_PARAMETERS = 500;
+
    @Inject
    private ChunkRepository(Provider<EntityManager> entityManager) {
       super(entityManager);
    }
 
+   /**
+    * Persists the chunks in a single flush, so the provider can send them as one JDBC batch, and
+    * detaches them afterwards so the persistence context does not keep their data alive.
+    */
+   public List<ChunkEntity> createAll(List<ChunkEntity> chunks) {
+      EntityManager em = entityManager.get();
+      for (ChunkEntity chunk : chunks) {
+         em.persist(chunk);
+      }
+      em.flush();
+      for (ChunkEntity chunk : chunks) {
+         em.detach(chunk);
+      }
+      return chunks;
+   }
+
+   /**
+    * Looks up chunks that are still referenced by some payload and have one of the given hashes.
+    *
+    * @return the id of a matching chunk for each hash found
+    */
+   public Map<String, Long> findChunkIdsByHash(Collection<String> hashes) {
+      Map<String, Long> result = Maps.newHashMap();
+      for (List<String> partition : Iterables.partition(hashes, MAX_IN_PARAMETERS)) {
+         List<Object[]> rows = entityManager.get().createQuery("SELECT c.hash, c.id FROM " + entityClass.getName() + " c "
+               + "WHERE c.hash IN :hashes AND c.referenceCount > 0", Object[].class)
+               .setParameter("hashes", partition)
+               .getResultList();
+         for (Object[] row : rows) {
+            if (!result.containsKey(row[0])) {
+               result.put((String) row[0], (Long) row[1]);
+            }
+         }
+      }
+      return result;
+   }
+
+   /**
+    * @return the size of each of the given chunks that exists, keyed by chunk id
+    */
+   public Map<Long, Integer> findChunkSizes(Collection<Long> ids) {
+      Map<Long, Integer> result = Maps.newHashMap();
+      for (List<Long> partition : Iterables.partition(ids, MAX_IN_PARAMETERS)) {
+         List<Object[]> rows = entityManager.get().createQuery("SELECT c.id, c.size FROM " + entityClass.getName()
+               + " c WHERE c.id IN :ids", Object[].class)
+               .setParameter("ids", partition)
+               .getResultList();
+         for (Object[] row : rows) {
+            result.put((Long) row[0], (Integer) row[1]);
+         }
+      }
+      return result;
+   }
+
+   /**
+    * Reads the content of the given chunks, a batch of chunks per query.
+    *
+    * @return the id, data, size and compression flag of each chunk found
+    */
+   public List<Object[]> findChunkData(Collection<Long> ids) {
+      List<Object[]> result = Lists.newArrayListWithCapacity(ids.size());
+      for (List<Long> partition : Iterables.partition(ids, MAX_IN_PARAMETERS)) {
+         result.addAll(entityManager.get().createQuery("SELECT c.id, c.data, c.size, c.compressed FROM "
+               + entityClass.getName() + " c WHERE c.id IN :ids", Object[].class)
+               .setParameter("ids", partition)
+               .getResultList());
+      }
+      return result;
+   }
+
+   /**
+    * Looks up chunks that were last used before the given time, in the order of their ids. Chunks
+    * stored before the time of use was tracked have none and are found as well. Chunk lists are
+    * packed into their rows, so whether a chunk is still referenced is left to the caller.
+    *
+    * @param afterId only chunks with a greater id are returned, so a scan can continue where the
+    *        previous batch ended
+    * @return the size of each chunk found, keyed by chunk id
+    */
+   public Map<Long, Integer> findUnusedChunks(long afterId, Date usedBefore, int maxResults) {
+      return findChunks("c.lastUsed IS NULL OR c.lastUsed < :usedBefore", afterId, usedBefore, maxResults);
+   }
+
+   /**
+    * Looks up chunks whose reference count dropped to zero before the given time, in the order of
+    * their ids. Unlike {@link #findUnusedChunks}, chunks that still count references are skipped by
+    * the index on the count, so a table of live chunks is not scanned.
+    *
+    * @param afterId only chunks with a greater id are returned
+    * @return the size of each chunk found, keyed by chunk id
+    */
+   public Map<Long, Integer> findReleasedChunks(long afterId, Date usedBefore, int maxResults) {
+      return findChunks("c.referenceCount <= 0 AND (c.lastUsed IS NULL OR c.lastUsed < :usedBefore)", afterId,
+            usedBefore, maxResults);
+   }
+
+   private Map<Long, Integer> findChunks(String condition, long afterId, Date usedBefore, int maxResults) {
+      List<Object[]> rows = entityManager.get().createQuery("SELECT c.id, c.size FROM " + entityClass.getName() + " c "
+            + "WHERE c.id > :afterId AND (" + condition + ") ORDER BY c.id", Object[].class)
+            .setParameter("afterId", afterId)
+            .setParameter("usedBefore", usedBefore)
+            .setMaxResults(maxResults)
+            .getResultList();
+      Map<Long, Integer> result = Maps.newLinkedHashMap();
+      for (Object[] row : rows) {
+         result.put((Long) row[0], (Integer) row[1]);
+      }
+      return result;
+   }
+
+   /**
+    * Deletes the given chunks unless they were used since the given time. Chunks get used when a
+    * reference is added to them, so chunks picked up by an upload after they were found to be
+    * orphans are kept.
+    *
+    * @return the number of chunks deleted
+    */
+   public int deleteUnusedChunks(Collection<Long> ids, Date usedBefore) {
+      int deleted = 0;
+      for (List<Long> partition : Iterables.partition(ids, MAX_IN_PARAMETERS)) {
+         deleted += entityManager.get().createQuery("DELETE FROM " + entityClass.getName() + " c "
+               + "WHERE c.id IN :ids AND (c.lastUsed IS NULL OR c.lastUsed < :usedBefore)")
+               .setParameter("ids", partition)
+               .setParameter("usedBefore", usedBefore)
+               .executeUpdate();
+      }
+      return deleted;
+   }
+
+   /**
+    * Adds a reference to each of the given chunks, skipping chunks that are no longer referenced.
+    *
+    * @return the number of chunks that were updated
+    */
+   public int retainChunks(Collection<Long> ids) {
+      int updated = 0;
+      Date now = new Date();
+      for (List<Long> partition : Iterables.partition(ids, MAX_IN_PARAMETERS)) {
+         updated += entityManager.get().createQuery("UPDATE " + entityClass.getName() + " c "
+               + "SET c.referenceCount = c.referenceCount + 1, c.lastUsed = :now "
+               + "WHERE c.id IN :ids AND c.referenceCount > 0")
+               .setParameter("now", now)
+               .setParameter("ids", partition)
+               .executeUpdate();
+      }
+      return updated;
+   }
+
+   /**
+    * Drops the reference {@link #retainChunks} took on each of the given chunks that is still
+    * referenced, within the transaction that took it.
+    *
+    * @return the number of chunks that were updated
+    */
+   public int unretainChunks(Collection<Long> ids) {
+      int updated = 0;
+      for (List<Long> partition : Iterables.partition(ids, MAX_IN_PARAMETERS)) {
+         updated += entityManager.get().createQuery("UPDATE " + entityClass.getName() + " c "
+               + "SET c.referenceCount = c.referenceCount - 1 WHERE c.id IN :ids AND c.referenceCount > 0")
+               .setParameter("ids", partition)
+               .executeUpdate();
+      }
+      return updated;
+   }
+
+   /**
+    * Drops a reference from each of the given chunks.
+    *
+    * @see #releaseChunks(Multiset)
+    */
+   public void releaseChunks(Collection<Long> ids) {
+      releaseChunks(ImmutableMultiset.copyOf(ids));
+   }
+
+   /**
+    * Drops references from the given chunks, as many as each chunk occurs in the multiset. Chunks
+    * nothing points at anymore are not deleted here: readers may still be streaming the payload
+    * they belonged to, so they are left to the chunk collector, whose grace period starts now.
+    */
+   public void releaseChunks(Multiset<Long> references) {
+      Multimap<Integer, Long> idsByCount = ArrayListMultimap.create();
+      for (Multiset.Entry<Long> entry : references.entrySet()) {
+         idsByCount.put(entry.getCount(), entry.getElement());
+      }
+      Date now = new Date();
+      for (Map.Entry<Integer, Collection<Long>> entry : idsByCount.asMap().entrySet()) {
+         for (List<Long> partition : Iterables.partition(entry.getValue(), MAX_IN_PARAMETERS)) {
+            entityManager.get().createQuery("UPDATE " + entityClass.getName() + " c "
+                  + "SET c.referenceCount = c.referenceCount - :count, c.lastUsed = :now WHERE c.id IN :ids")
+                  .setParameter("count", entry.getKey())
+                  .setParameter("now", now)
+                  .setParameter("ids", partition)
+                  .executeUpdate();
+         }
+      }
+   }
+
 }
@@ -24,10 +24,24 @@ import org.jclouds.jdbc.entity.ContainerEntity;
 import javax.persistence.EntityManager;
 import javax.persistence.NoResultException;
 import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
 
 @Singleton
 public class ContainerRepository extends GenericRepository<ContainerEntity, Long> {
 
+   /**
+    * Ids of the containers looked up by name. Only containers known to exist are cached.
+    */
+   private final ConcurrentMap<String, Long> containerIds = new ConcurrentHashMap<String, Long>();
+
+   /**
+    * Incremented on every eviction, so that a lookup racing with the removal of a container does
+    * not cache the id it read before the removal.
+    */
+   private final AtomicLong generation = new AtomicLong();
+
    @Inject
    private ContainerRepository(Provider<EntityManager> entityManager) {
       super(entityManager);
@@ -43,6 +57,39 @@ public class ContainerRepository extends GenericRepository<ContainerEntity, Long
       }
    }
 
+   /**
+    * Finds a container by name for use as a query parameter or an association, without querying
+    * the database once its id is cached. The returned entity may be an uninitialized reference.
+    *
+    * @return the container, or null if it does not exist
+    */
+   public ContainerEntity findContainerReferenceByName(String name) {
+      Long id = containerIds.get(name);
+      if (id != null) {
+         return entityManager.get().getReference(entityClass, id);
+      }
+      long expectedGeneration = generation.get();
+      ContainerEntity containerEntity = findContainerByName(name);
+      if (containerEntity != null && containerEntity.getId() != null && generation.get() == expectedGeneration) {
+         containerIds.putIfAbsent(name, containerEntity.getId());
+         if (generation.get() != expectedGeneration) {
+            // evicted while the id was being added, which may have missed it
+            containerIds.remove(name, containerEntity.getId());
+         }
+      }
+      return containerEntity;
+   }
+
+   /**
+    * Drops the cached id of a container. It must be called whenever a container is created,
+    * removed or modified, once the change is committed: a lookup that read the container before
+    * then does not cache its id, and one that reads it afterwards sees the change.
+    */
+   public void evict(String name) {
+      generation.incrementAndGet();
+      containerIds.remove(name);
+   }
+
    public List<ContainerEntity> findAllContainers() {
       return entityManager.get().createQuery("SELECT c FROM " + entityClass.getName() + " c", entityClass)
             .getResultList();
@@ -0,0 +1,109 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jclouds.jdbc.repository;
+
+import com.google.common.collect.ArrayListMultimap;
+import com.google.common.collect.ListMultimap;
+import com.google.common.collect.Maps;
+import com.google.inject.Inject;
+import com.google.inject.Provider;
+import com.google.inject.Singleton;
+import org.jclouds.jdbc.entity.MultipartPartEntity;
+import org.jclouds.jdbc.util.PackedColumns;
+
+import javax.persistence.EntityManager;
+import java.util.List;
+import java.util.Map;
+
+@Singleton
+public class MultipartPartRepository extends GenericRepository<MultipartPartEntity, Long> {
+
+   @Inject
+   private MultipartPartRepository(Provider<EntityManager> entityManager) {
+      super(entityManager);
+   }
+
+   public MultipartPartEntity findPart(String uploadId, int partNumber) {
+      List<MultipartPartEntity> parts = entityManager.get().createQuery("SELECT p FROM " + entityClass.getName()
+            + " p WHERE p.uploadId = :uploadId AND p.partNumber = :partNumber", entityClass)
+            .setParameter("uploadId", uploadId)
+            .setParameter("partNumber", partNumber)
+            .getResultList();
+      return parts.isEmpty() ? null : parts.get(0);
+   }
+
+   /**
+    * @return the parts of an upload ordered by part number
+    */
+   public List<MultipartPartEntity> findPartsByUpload(String uploadId) {
+      return entityManager.get().createQuery("SELECT p FROM " + entityClass.getName()
+            + " p WHERE p.uploadId = :uploadId ORDER BY p.partNumber", entityClass)
+            .setParameter("uploadId", uploadId)
+            .getResultList();
+   }
+
+   /**
+    * Reads the chunk ids of every part of an upload in a single query.
+    *
+    * @return the chunk ids of each part in order, keyed by part number
+    */
+   public ListMultimap<Integer, Long> findChunkIdsByUpload(String uploadId) {
+      List<Object[]> rows = entityManager.get().createQuery("SELECT p.partNumber, p.chunks FROM "
+            + entityClass.getName() + " p WHERE p.uploadId = :uploadId ORDER BY p.partNumber", Object[].class)
+            .setParameter("uploadId", uploadId)
+            .getResultList();
+      ListMultimap<Integer, Long> chunks = ArrayListMultimap.create();
+      for (Object[] row : rows) {
+         chunks.putAll((Integer) row[0], PackedColumns.unpackChunkIds((byte[]) row[1]));
+      }
+      return chunks;
+   }
+
+   /**
+    * Reads the chunk lists of parts that may point at chunks in the given range, in the order of
+    * the part ids. Lists packed before their range was kept are always read.
+    *
+    * @param afterId only parts with a greater id are returned, so a scan can continue where the
+    *        previous batch ended
+    * @return the chunk ids of each part found, keyed by part id
+    */
+   public Map<Long, List<Long>> findChunkLists(long afterId, long minChunkId, long maxChunkId, int maxResults) {
+      List<Object[]> rows = entityManager.get().createQuery("SELECT p.id, p.chunks FROM " + entityClass.getName()
+            + " p WHERE p.id > :afterId AND (p.minChunkId <= :maxChunkId AND p.maxChunkId >= :minChunkId "
+            + "OR p.minChunkId IS NULL AND p.chunks IS NOT NULL) ORDER BY p.id", Object[].class)
+            .setParameter("afterId", afterId)
+            .setParameter("minChunkId", minChunkId)
+            .setParameter("maxChunkId", maxChunkId)
+            .setMaxResults(maxResults)
+            .getResultList();
+      Map<Long, List<Long>> result = Maps.newLinkedHashMap();
+      for (Object[] row : rows) {
+         result.put((Long) row[0], PackedColumns.unpackChunkIds((byte[]) row[1]));
+      }
+      return result;
+   }
+
+   /**
+    * Deletes the parts of an upload, leaving their chunks alone.
+    */
+   public void deletePartsByUpload(String uploadId) {
+      entityManager.get().createQuery("DELETE FROM " + entityClass.getName() + " p WHERE p.uploadId = :uploadId")
+            .setParameter("uploadId", uploadId)
+            .executeUpdate();
+   }
+
+}
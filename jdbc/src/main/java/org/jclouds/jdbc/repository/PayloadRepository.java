@@ -0,0 +1,158 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jclouds.jdbc.repository;
+
+import com.google.common.collect.HashMultiset;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.Iterables;
+import com.google.common.collect.Maps;
+import com.google.common.collect.Multiset;
+import com.google.inject.Inject;
+import com.google.inject.Provider;
+import com.google.inject.Singleton;
+import org.jclouds.jdbc.entity.PayloadEntity;
+import org.jclouds.jdbc.util.PackedColumns;
+
+import javax.persistence.EntityManager;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+
+@Singleton
+public class PayloadRepository extends GenericRepository<PayloadEntity, Long> {
+
+   /**
+    * Maximum number of parameters bound to a single IN clause.
+    */
+   private static final int MAX_IN_PARAMETERS = 500;
+
+   @Inject
+   private PayloadRepository(Provider<EntityManager> entityManager) {
+      super(entityManager);
+   }
+
+   /**
+    * @return the chunk ids of a payload in order, or null if the payload does not exist
+    */
+   public List<Long> findChunkIdsByPayload(Long payloadId) {
+      List<byte[]> rows = entityManager.get().createQuery("SELECT p.chunks FROM " + entityClass.getName()
+            + " p WHERE p.id = :payloadId", byte[].class)
+            .setParameter("payloadId", payloadId)
+            .getResultList();
+      return rows.isEmpty() ? null : PackedColumns.unpackChunkIds(rows.get(0));
+   }
+
+   /**
+    * @return the content of a payload stored inline, or null if the payload is stored in chunks or
+    *         does not exist
+    */
+   public byte[] findInlineData(Long payloadId) {
+      List<byte[]> rows = entityManager.get().createQuery("SELECT p.inlineData FROM " + entityClass.getName()
+            + " p WHERE p.id = :payloadId", byte[].class)
+            .setParameter("payloadId", payloadId)
+            .getResultList();
+      return rows.isEmpty() ? null : rows.get(0);
+   }
+
+   /**
+    * @return the chunk ids of each of the given payloads that exists, in order, keyed by payload id
+    */
+   public Map<Long, List<Long>> findChunkIdsByPayloads(Collection<Long> payloadIds) {
+      Map<Long, List<Long>> result = Maps.newHashMap();
+      for (List<Long> partition : Iterables.partition(payloadIds, MAX_IN_PARAMETERS)) {
+         List<Object[]> rows = entityManager.get().createQuery("SELECT p.id, p.chunks FROM " + entityClass.getName()
+               + " p WHERE p.id IN :payloadIds", Object[].class)
+               .setParameter("payloadIds", partition)
+               .getResultList();
+         for (Object[] row : rows) {
+            result.put((Long) row[0], PackedColumns.unpackChunkIds((byte[]) row[1]));
+         }
+      }
+      return result;
+   }
+
+   /**
+    * @return the content of each of the given payloads that is stored inline, keyed by payload id
+    */
+   public Map<Long, byte[]> findInlineData(Collection<Long> payloadIds) {
+      Map<Long, byte[]> result = Maps.newHashMap();
+      for (List<Long> partition : Iterables.partition(payloadIds, MAX_IN_PARAMETERS)) {
+         List<Object[]> rows = entityManager.get().createQuery("SELECT p.id, p.inlineData FROM "
+               + entityClass.getName() + " p WHERE p.id IN :payloadIds AND p.inlineData IS NOT NULL", Object[].class)
+               .setParameter("payloadIds", partition)
+               .getResultList();
+         for (Object[] row : rows) {
+            result.put((Long) row[0], (byte[]) row[1]);
+         }
+      }
+      return result;
+   }
+
+   /**
+    * Counts the references the given payloads hold on their chunks. A payload holds a single
+    * reference on each distinct chunk it points at.
+    */
+   public Multiset<Long> findChunkReferences(Collection<Long> payloadIds) {
+      Multiset<Long> references = HashMultiset.create();
+      for (List<Long> partition : Iterables.partition(payloadIds, MAX_IN_PARAMETERS)) {
+         List<byte[]> rows = entityManager.get().createQuery("SELECT p.chunks FROM " + entityClass.getName()
+               + " p WHERE p.id IN :payloadIds", byte[].class)
+               .setParameter("payloadIds", partition)
+               .getResultList();
+         for (byte[] chunks : rows) {
+            references.addAll(ImmutableSet.copyOf(PackedColumns.unpackChunkIds(chunks)));
+         }
+      }
+      return references;
+   }
+
+   /**
+    * Reads the chunk lists of payloads that may point at chunks in the given range, in the order of
+    * the payload ids. Lists packed before their range was kept are always read.
+    *
+    * @param afterId only payloads with a greater id are returned, so a scan can continue where the
+    *        previous batch ended
+    * @return the chunk ids of each payload found, keyed by payload id
+    */
+   public Map<Long, List<Long>> findChunkLists(long afterId, long minChunkId, long maxChunkId, int maxResults) {
+      List<Object[]> rows = entityManager.get().createQuery("SELECT p.id, p.chunks FROM " + entityClass.getName()
+            + " p WHERE p.id > :afterId AND (p.minChunkId <= :maxChunkId AND p.maxChunkId >= :minChunkId "
+            + "OR p.minChunkId IS NULL AND p.chunks IS NOT NULL) ORDER BY p.id", Object[].class)
+            .setParameter("afterId", afterId)
+            .setParameter("minChunkId", minChunkId)
+            .setParameter("maxChunkId", maxChunkId)
+            .setMaxResults(maxResults)
+            .getResultList();
+      Map<Long, List<Long>> result = Maps.newLinkedHashMap();
+      for (Object[] row : rows) {
+         result.put((Long) row[0], PackedColumns.unpackChunkIds((byte[]) row[1]));
+      }
+      return result;
+   }
+
+   /**
+    * Deletes the given payloads, leaving their chunks alone.
+    */
+   public void deletePayloads(Collection<Long> payloadIds) {
+      for (List<Long> partition : Iterables.partition(payloadIds, MAX_IN_PARAMETERS)) {
+         entityManager.get().createQuery("DELETE FROM " + entityClass.getName() + " p WHERE p.id IN :payloadIds")
+               .setParameter("payloadIds", partition)
+               .executeUpdate();
+      }
+   }
+
+}
@@ -0,0 +1,228 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jclouds.jdbc.service;
+
+import com.google.common.base.Optional;
+import com.google.common.base.Supplier;
+import com.google.common.base.Suppliers;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheStats;
+import com.google.common.cache.Weigher;
+import com.google.common.collect.Maps;
+import com.google.inject.Inject;
+import com.google.inject.Singleton;
+import org.jclouds.blobstore.reference.BlobStoreConstants;
+import org.jclouds.jdbc.domain.BlobSummary;
+import org.jclouds.jdbc.reference.JdbcConstants;
+import org.jclouds.lifecycle.Closer;
+import org.jclouds.logging.Logger;
+
+import javax.annotation.Resource;
+import javax.inject.Named;
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import java.io.Closeable;
+import java.lang.management.ManagementFactory;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Blob summaries looked up by container name and key, including the blobs found not to exist. The
+ * cache is bounded by an estimate of the memory the summaries take. Callers must invalidate a key
+ * once a change to its blob is committed; a lookup racing with the change does not cache the
+ * summary it read before the change. The hit and miss counts are published over JMX as
+ * {@code org.jclouds.jdbc:type=BlobMetadataCache,name=jclouds-jdbc-N}.
+ */
+@Singleton
+public class BlobMetadataCache implements BlobMetadataCacheMXBean {
+
+   /**
+    * Rough size of a summary without its strings, user metadata and inline data.
+    */
+   private static final int SUMMARY_OVERHEAD = 256;
+
+   /**
+    * Number of generations keys are spread over, a power of two.
+    */
+   private static final int STRIPES = 64;
+
+   private static final AtomicInteger INSTANCES = new AtomicInteger();
+
+   @Resource
+   @Named(BlobStoreConstants.BLOBSTORE_LOGGER)
+   protected Logger logger = Logger.NULL;
+
+   /**
+    * The generation of a key is incremented when the key is invalidated, so that a lookup racing
+    * with a change does not cache the summary it read before the change. Keys share a generation
+    * per stripe, so a write only holds back caching the few keys of its stripe.
+    */
+   private final AtomicLongArray generations = new AtomicLongArray(STRIPES);
+
+   private final Supplier<Cache<Map.Entry<String, String>, Optional<BlobSummary>>> cache = Suppliers.memoize(
+         new Supplier<Cache<Map.Entry<String, String>, Optional<BlobSummary>>>() {
+            @Override
+            public Cache<Map.Entry<String, String>, Optional<BlobSummary>> get() {
+               return CacheBuilder.newBuilder()
+                     .maximumWeight(maximumSize)
+                     .weigher(new SummaryWeigher())
+                     .expireAfterWrite(expiry, TimeUnit.SECONDS)
+                     .recordStats()
+                     .build();
+            }
+         });
+
+   @Inject(optional = true)
+   @Named(JdbcConstants.PROPERTY_METADATA_CACHE_SIZE)
+   private long maximumSize = JdbcConstants.DEFAULT_METADATA_CACHE_SIZE;
+
+   @Inject(optional = true)
+   @Named(JdbcConstants.PROPERTY_METADATA_CACHE_EXPIRY)
+   private long expiry = JdbcConstants.DEFAULT_METADATA_CACHE_EXPIRY;
+
+   /**
+    * Publishes the cache statistics over JMX until the context is closed.
+    */
+   @Inject
+   void register(Closer closer) {
+      final MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+      try {
+         final ObjectName name = new ObjectName("org.jclouds.jdbc:type=BlobMetadataCache,name=jclouds-jdbc-"
+               + INSTANCES.incrementAndGet());
+         server.registerMBean(this, name);
+         closer.addToClose(new Closeable() {
+            @Override
+            public void close() {
+               try {
+                  server.unregisterMBean(name);
+               } catch (JMException e) {
+                  // the context is being closed anyway
+               }
+            }
+         });
+      } catch (JMException e) {
+         logger.warn(e, "could not publish the blob metadata cache statistics over JMX");
+      }
+   }
+
+   /**
+    * @return the cached summary, absent if the blob is known not to exist, or null if nothing is
+    *         cached for the blob
+    */
+   public Optional<BlobSummary> getIfPresent(String containerName, String key) {
+      return cache.get().getIfPresent(Maps.immutableEntry(containerName, key));
+   }
+
+   /**
+    * @return the generation to pass to {@link #put}, read before the summary is looked up
+    */
+   public long generation(String containerName, String key) {
+      return generations.get(stripe(containerName, key));
+   }
+
+   /**
+    * Caches the summary of a blob, or its absence when the summary is null, unless the cache was
+    * invalidated since the given generation.
+    */
+   public void put(String containerName, String key, BlobSummary summary, long expectedGeneration) {
+      int stripe = stripe(containerName, key);
+      if (generations.get(stripe) != expectedGeneration) {
+         return;
+      }
+      Map.Entry<String, String> cacheKey = Maps.immutableEntry(containerName, key);
+      cache.get().put(cacheKey, Optional.fromNullable(summary));
+      if (generations.get(stripe) != expectedGeneration) {
+         // invalidated while the summary was being added, which may have missed it
+         cache.get().invalidate(cacheKey);
+      }
+   }
+
+   public void invalidate(String containerName, String key) {
+      generations.incrementAndGet(stripe(containerName, key));
+      cache.get().invalidate(Maps.immutableEntry(containerName, key));
+   }
+
+   /**
+    * Drops every cached summary, used when many blobs change at once.
+    */
+   public void invalidateAll() {
+      for (int stripe = 0; stripe < STRIPES; stripe++) {
+         generations.incrementAndGet(stripe);
+      }
+      cache.get().invalidateAll();
+   }
+
+   /**
+    * @return the hit and miss counts of the cache, for tuning its size
+    */
+   public CacheStats stats() {
+      return cache.get().stats();
+   }
+
+   @Override
+   public long getHitCount() {
+      return stats().hitCount();
+   }
+
+   @Override
+   public long getMissCount() {
+      return stats().missCount();
+   }
+
+   @Override
+   public double getHitRate() {
+      return stats().hitRate();
+   }
+
+   @Override
+   public long getEvictionCount() {
+      return stats().evictionCount();
+   }
+
+   @Override
+   public long getSize() {
+      return cache.get().size();
+   }
+
+   private static int stripe(String containerName, String key) {
+      int hash = 31 * containerName.hashCode() + key.hashCode();
+      // mixes the high bits into the low bits the mask keeps
+      return (hash ^ (hash >>> 16)) & (STRIPES - 1);
+   }
+
+   private static class SummaryWeigher implements Weigher<Map.Entry<String, String>, Optional<BlobSummary>> {
+      @Override
+      public int weigh(Map.Entry<String, String> key, Optional<BlobSummary> value) {
+         int weight = SUMMARY_OVERHEAD + 2 * (key.getKey().length() + key.getValue().length());
+         if (value.isPresent()) {
+            BlobSummary summary = value.get();
+            for (Map.Entry<String, String> entry : summary.getUserMetadata().entrySet()) {
+               weight += 2 * (entry.getKey().length() + entry.getValue().length());
+            }
+            if (summary.getInlineData() != null) {
+               weight += summary.getInlineData().length;
+            }
+         }
+         return weight;
+      }
+   }
+
+}
@@ -0,0 +1,43 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jclouds.jdbc.service;
+
+/**
+ * Hit and miss counts of the {@link BlobMetadataCache}, for tuning its size and expiry.
+ */
+public interface BlobMetadataCacheMXBean {
+
+   long getHitCount();
+
+   long getMissCount();
+
+   /**
+    * @return the share of lookups answered from the cache, 1 before any lookup
+    */
+   double getHitRate();
+
+   /**
+    * @return the number of summaries dropped to stay within the size of the cache or once expired
+    */
+   long getEvictionCount();
+
+   /**
+    * @return the number of summaries cached, including blobs known not to exist
+    */
+   long getSize();
+
+}
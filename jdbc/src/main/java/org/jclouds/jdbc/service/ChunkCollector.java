@@ -0,0 +1,296 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jclouds.jdbc.service;
+
+import com.google.common.base.Predicates;
+import com.google.common.collect.Iterables;
+import com.google.common.collect.Maps;
+import com.google.common.collect.Sets;
+import com.google.common.util.concurrent.ListeningScheduledExecutorService;
+import com.google.inject.Inject;
+import com.google.inject.Singleton;
+import com.google.inject.persist.Transactional;
+import org.jclouds.Constants;
+import org.jclouds.blobstore.reference.BlobStoreConstants;
+import org.jclouds.jdbc.reference.JdbcConstants;
+import org.jclouds.jdbc.repository.ChunkRepository;
+import org.jclouds.jdbc.repository.MultipartPartRepository;
+import org.jclouds.jdbc.repository.PayloadRepository;
+import org.jclouds.lifecycle.Closer;
+import org.jclouds.logging.Logger;
+
+import javax.annotation.Resource;
+import javax.inject.Named;
+import java.io.Closeable;
+import java.util.Date;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Deletes chunks that no payload or multipart part points at anymore: the chunks of replaced and
+ * removed payloads, and those of uploads that failed before their payload was stored. A run walks
+ * the chunks whose reference count dropped to zero in id order, a batch at a time, so live chunks
+ * are not read. Chunk lists are packed into the rows of their payloads and parts, which also keep
+ * the range of chunk ids they point at, so only the lists whose range overlaps a batch are read to
+ * confirm none of its chunks is still referenced. A full pass, run far less often, walks every
+ * chunk the same way to reclaim those whose count was never dropped. Chunks are only collected once
+ * they have not been used for a grace period, and they are deleted in small batches, each in a
+ * short transaction of its own, with a pause after each full batch, so foreground reads and writes
+ * are not held up. When a scheduler is available the collector runs periodically in the background.
+ */
+@Singleton
+public class ChunkCollector {
+
+   @Resource
+   @Named(BlobStoreConstants.BLOBSTORE_LOGGER)
+   protected Logger logger = Logger.NULL;
+
+   private final ChunkRepository chunkRepository;
+   private final PayloadRepository payloadRepository;
+   private final MultipartPartRepository multipartPartRepository;
+   private final AtomicLong collectedChunks = new AtomicLong();
+   private final AtomicLong collectedBytes = new AtomicLong();
+
+   @Inject(optional = true)
+   @Named(JdbcConstants.PROPERTY_GC_INTERVAL)
+   private long interval = JdbcConstants.DEFAULT_GC_INTERVAL;
+
+   @Inject(optional = true)
+   @Named(JdbcConstants.PROPERTY_GC_AUDIT_INTERVAL)
+   private long auditInterval = JdbcConstants.DEFAULT_GC_AUDIT_INTERVAL;
+
+   @Inject(optional = true)
+   @Named(JdbcConstants.PROPERTY_GC_GRACE_PERIOD)
+   private long gracePeriod = JdbcConstants.DEFAULT_GC_GRACE_PERIOD;
+
+   @Inject(optional = true)
+   @Named(JdbcConstants.PROPERTY_GC_BATCH_SIZE)
+   private int batchSize = JdbcConstants.DEFAULT_GC_BATCH_SIZE;
+
+   @Inject(optional = true)
+   @Named(JdbcConstants.PROPERTY_GC_BATCH_DELAY)
+   private long batchDelay = JdbcConstants.DEFAULT_GC_BATCH_DELAY;
+
+   @Inject
+   ChunkCollector(ChunkRepository chunkRepository, PayloadRepository payloadRepository,
+         MultipartPartRepository multipartPartRepository) {
+      this.chunkRepository = chunkRepository;
+      this.payloadRepository = payloadRepository;
+      this.multipartPartRepository = multipartPartRepository;
+   }
+
+   /**
+    * Runs the collector on the given scheduler every {@link JdbcConstants#PROPERTY_GC_INTERVAL}
+    * seconds, and its full pass every {@link JdbcConstants#PROPERTY_GC_AUDIT_INTERVAL} seconds,
+    * until the context is closed.
+    */
+   @Inject(optional = true)
+   void schedule(@Named(Constants.PROPERTY_SCHEDULER_THREADS) ListeningScheduledExecutorService scheduler,
+         Closer closer) {
+      if (interval <= 0) {
+         return;
+      }
+      schedule(scheduler, closer, interval, false);
+      if (auditInterval > 0) {
+         schedule(scheduler, closer, auditInterval, true);
+      }
+   }
+
+   private void schedule(ListeningScheduledExecutorService scheduler, Closer closer, long delay,
+         final boolean audit) {
+      final ScheduledFuture<?> task = scheduler.scheduleWithFixedDelay(new Runnable() {
+         @Override
+         public void run() {
+            try {
+               collect(audit);
+            } catch (RuntimeException e) {
+               // keep the task scheduled, the next run starts over
+               logger.error(e, "error collecting unreferenced chunks");
+            }
+         }
+      }, delay, delay, TimeUnit.SECONDS);
+      closer.addToClose(new Closeable() {
+         @Override
+         public void close() {
+            task.cancel(false);
+         }
+      });
+   }
+
+   /**
+    * Deletes the chunks whose reference count dropped to zero at least the grace period ago, batch
+    * by batch.
+    *
+    * @return the number of bytes of chunk content reclaimed
+    */
+   public long collectOrphanChunks() {
+      return collect(false);
+   }
+
+   /**
+    * Deletes every chunk that nothing has referenced for the grace period, whatever its reference
+    * count says. This reads all chunks and the chunk lists overlapping them, so it is meant to run
+    * far less often than {@link #collectOrphanChunks()}.
+    *
+    * @return the number of bytes of chunk content reclaimed
+    */
+   public long auditOrphanChunks() {
+      return collect(true);
+   }
+
+   private long collect(boolean audit) {
+      // chunks that get referenced while the chunk lists are read are used after this time and kept
+      Date usedBefore = new Date(System.currentTimeMillis() - TimeUnit.SECONDS.toMillis(gracePeriod));
+      long afterId = Long.MIN_VALUE;
+      long chunks = 0;
+      long bytes = 0;
+      while (true) {
+         Map<Long, Integer> unused = audit ? findUnusedChunks(afterId, usedBefore)
+               : findReleasedChunks(afterId, usedBefore);
+         if (unused.isEmpty()) {
+            break;
+         }
+         Set<Long> referenced = findReferencedChunks(unused.keySet());
+         Map<Long, Integer> orphans = Maps.newLinkedHashMap();
+         for (Map.Entry<Long, Integer> entry : unused.entrySet()) {
+            if (!referenced.contains(entry.getKey())) {
+               orphans.put(entry.getKey(), entry.getValue());
+            }
+            afterId = entry.getKey();
+         }
+         if (!orphans.isEmpty()) {
+            Map<Long, Integer> deleted = deleteOrphanChunks(orphans, usedBefore);
+            for (Integer size : deleted.values()) {
+               bytes += size;
+            }
+            chunks += deleted.size();
+         }
+         if (unused.size() < batchSize || !pause()) {
+            break;
+         }
+      }
+      collectedChunks.addAndGet(chunks);
+      collectedBytes.addAndGet(bytes);
+      logger.info("collected %d unreferenced chunks, reclaiming %d bytes", chunks, bytes);
+      return bytes;
+   }
+
+   /**
+    * @return the number of chunks deleted by this collector so far
+    */
+   public long getCollectedChunks() {
+      return collectedChunks.get();
+   }
+
+   /**
+    * @return the number of bytes of chunk content reclaimed by this collector so far
+    */
+   public long getCollectedBytes() {
+      return collectedBytes.get();
+   }
+
+   /**
+    * Looks up which of the given chunks the payloads and multipart parts point at, reading only the
+    * chunk lists that may point at the range of ids the chunks span.
+    *
+    * @param chunkIds chunk ids in ascending order
+    */
+   private Set<Long> findReferencedChunks(Set<Long> chunkIds) {
+      long minChunkId = Iterables.getFirst(chunkIds, null);
+      long maxChunkId = Iterables.getLast(chunkIds);
+      Set<Long> referenced = Sets.newHashSet();
+      long afterId = Long.MIN_VALUE;
+      Map<Long, List<Long>> chunkLists;
+      do {
+         chunkLists = findPayloadChunkLists(afterId, minChunkId, maxChunkId);
+         for (Map.Entry<Long, List<Long>> entry : chunkLists.entrySet()) {
+            mark(referenced, entry.getValue(), chunkIds);
+            afterId = entry.getKey();
+         }
+      } while (chunkLists.size() == batchSize);
+      afterId = Long.MIN_VALUE;
+      do {
+         chunkLists = findPartChunkLists(afterId, minChunkId, maxChunkId);
+         for (Map.Entry<Long, List<Long>> entry : chunkLists.entrySet()) {
+            mark(referenced, entry.getValue(), chunkIds);
+            afterId = entry.getKey();
+         }
+      } while (chunkLists.size() == batchSize);
+      return referenced;
+   }
+
+   private static void mark(Set<Long> referenced, List<Long> chunkList, Set<Long> chunkIds) {
+      for (Long chunkId : chunkList) {
+         if (chunkIds.contains(chunkId)) {
+            referenced.add(chunkId);
+         }
+      }
+   }
+
+   @Transactional
+   protected Map<Long, List<Long>> findPayloadChunkLists(long afterId, long minChunkId, long maxChunkId) {
+      return payloadRepository.findChunkLists(afterId, minChunkId, maxChunkId, batchSize);
+   }
+
+   @Transactional
+   protected Map<Long, List<Long>> findPartChunkLists(long afterId, long minChunkId, long maxChunkId) {
+      return multipartPartRepository.findChunkLists(afterId, minChunkId, maxChunkId, batchSize);
+   }
+
+   @Transactional
+   protected Map<Long, Integer> findUnusedChunks(long afterId, Date usedBefore) {
+      return chunkRepository.findUnusedChunks(afterId, usedBefore, batchSize);
+   }
+
+   @Transactional
+   protected Map<Long, Integer> findReleasedChunks(long afterId, Date usedBefore) {
+      return chunkRepository.findReleasedChunks(afterId, usedBefore, batchSize);
+   }
+
+   /**
+    * @return the chunks that were actually deleted, chunks used since they were found are kept
+    */
+   @Transactional
+   protected Map<Long, Integer> deleteOrphanChunks(Map<Long, Integer> orphans, Date usedBefore) {
+      if (chunkRepository.deleteUnusedChunks(orphans.keySet(), usedBefore) == orphans.size()) {
+         return orphans;
+      }
+      Map<Long, Integer> kept = chunkRepository.findChunkSizes(orphans.keySet());
+      return Maps.filterKeys(orphans, Predicates.not(Predicates.in(kept.keySet())));
+   }
+
+   /**
+    * @return false if the thread was interrupted while pausing between batches
+    */
+   private boolean pause() {
+      if (batchDelay <= 0) {
+         return true;
+      }
+      try {
+         Thread.sleep(batchDelay);
+         return true;
+      } catch (InterruptedException e) {
+         Thread.currentThread().interrupt();
+         return false;
+      }
+   }
+
+}
@@ -0,0 +1,107 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jclouds.jdbc.service;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.Maps;
+import com.google.common.collect.Sets;
+import com.google.inject.Inject;
+import com.google.inject.Singleton;
+import com.google.inject.persist.Transactional;
+import org.jclouds.jdbc.entity.ChunkEntity;
+import org.jclouds.jdbc.reference.JdbcConstants;
+import org.jclouds.jdbc.repository.ChunkRepository;
+
+import javax.inject.Named;
+import java.util.Collection;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Writes chunks to the database. Called within a transaction it joins it, called from another
+ * thread it writes the chunks in a transaction of its own, which lets uploads write several
+ * batches of chunks at once on separate connections.
+ */
+@Singleton
+public class ChunkWriter {
+
+   private final ChunkRepository chunkRepository;
+
+   @Inject(optional = true)
+   @Named(JdbcConstants.PROPERTY_DEDUPLICATION)
+   private boolean deduplication = JdbcConstants.DEFAULT_DEDUPLICATION;
+
+   @Inject
+   ChunkWriter(ChunkRepository chunkRepository) {
+      this.chunkRepository = chunkRepository;
+   }
+
+   /**
+    * Stores the given chunks and sets their ids. When deduplication is enabled chunks already
+    * stored by other payloads are referenced instead.
+    */
+   @Transactional
+   public void writeChunks(Collection<ChunkEntity> chunks) {
+      Set<ChunkEntity> pending = Sets.newLinkedHashSet(chunks);
+      if (deduplication) {
+         reuseStoredChunks(pending);
+      }
+      chunkRepository.createAll(ImmutableList.copyOf(pending));
+   }
+
+   /**
+    * Drops a reference from each of the given chunks, used to undo writes whose payload was not
+    * stored and to let go of the chunks of replaced payloads.
+    */
+   @Transactional
+   public void releaseChunks(Collection<Long> ids) {
+      chunkRepository.releaseChunks(ids);
+   }
+
+   /**
+    * Points the pending chunks at existing chunks with the same hash, taking a reference on them.
+    * Chunks that are found are removed from the pending set. The references are taken with a
+    * single update; only if some of the chunks were released since they were looked up are they
+    * taken back and retaken one chunk at a time, storing a new copy of the chunks that are gone.
+    */
+   private void reuseStoredChunks(Set<ChunkEntity> pending) {
+      Map<String, ChunkEntity> pendingByHash = Maps.newHashMap();
+      for (ChunkEntity chunk : pending) {
+         pendingByHash.put(chunk.getHash(), chunk);
+      }
+      Map<String, Long> stored = chunkRepository.findChunkIdsByHash(pendingByHash.keySet());
+      if (stored.isEmpty()) {
+         return;
+      }
+      Set<Long> ids = ImmutableSet.copyOf(stored.values());
+      boolean retained = chunkRepository.retainChunks(ids) == ids.size();
+      if (!retained) {
+         // the update holds the chunks it retained until the transaction ends, and chunks without
+         // references are never retained, so this drops exactly the references it just took
+         chunkRepository.unretainChunks(ids);
+      }
+      for (Map.Entry<String, Long> entry : stored.entrySet()) {
+         if (retained || chunkRepository.retainChunks(ImmutableSet.of(entry.getValue())) == 1) {
+            ChunkEntity chunk = pendingByHash.get(entry.getKey());
+            chunk.setId(entry.getValue());
+            pending.remove(chunk);
+         }
+      }
+   }
+
+}
@@ -0,0 +1,366 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jclouds.jdbc.service;
+
+import com.google.common.base.Throwables;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.google.common.hash.HashCode;
+import com.google.common.io.ByteStreams;
+import com.google.common.util.concurrent.ListeningExecutorService;
+import com.google.inject.Inject;
+import com.google.inject.Provider;
+import com.google.inject.Singleton;
+import com.google.inject.persist.Transactional;
+import org.jclouds.Constants;
+import org.jclouds.blobstore.domain.Blob;
+import org.jclouds.blobstore.domain.BlobBuilder;
+import org.jclouds.io.MutableContentMetadata;
+import org.jclouds.io.Payload;
+import org.jclouds.io.Payloads;
+import org.jclouds.jdbc.domain.BlobSummary;
+import org.jclouds.jdbc.predicates.validators.JdbcBlobKeyValidator;
+import org.jclouds.jdbc.reference.JdbcConstants;
+import org.jclouds.jdbc.util.TarArchiveReader;
+import org.jclouds.jdbc.util.TarArchiveWriter;
+import org.jclouds.jdbc.util.TarEntry;
+
+import javax.inject.Named;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.util.Date;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+
+/**
+ * Exports the blobs of a container to a tar archive and imports them back, going straight to
+ * {@link JdbcService} instead of through the blob store. Exports list blobs a page at a time and read
+ * their chunks in batches, the next batch being fetched while the current one is written when a
+ * user executor is available. Imports publish small blobs, whose content is stored inline, many per
+ * transaction, and store larger ones like uploads.
+ * <p>
+ * Each blob is a regular file named after its key, directory blobs are directories. Metadata the
+ * ustar header has no field for is carried in pax extended header records:
+ * <ul>
+ * <li>{@code JCLOUDS.meta.<name>} for each user metadata entry</li>
+ * <li>{@code JCLOUDS.content-type}, {@code JCLOUDS.content-disposition},
+ * {@code JCLOUDS.content-encoding}, {@code JCLOUDS.content-language} and
+ * {@code JCLOUDS.cache-control}</li>
+ * <li>{@code JCLOUDS.expires} in milliseconds since the epoch</li>
+ * <li>{@code JCLOUDS.content-md5} in hex, checked against the content on import</li>
+ * <li>{@code JCLOUDS.key} for directory keys ending with a slash, which tar strips</li>
+ * </ul>
+ * Imported blobs get a new modification time, like blobs that are put. Exports skip blobs removed
+ * or replaced while their page was looked up; blobs replaced later are written as they were when
+ * their page was read.
+ */
+@Singleton
+public class ContainerArchiver {
+
+   /**
+    * Number of blobs listed per query on export, and of small blobs published per transaction on import.
+    */
+   private static final int BATCH_SIZE = 500;
+
+   private static final String HEADER_PREFIX = "JCLOUDS.";
+   private static final String USER_METADATA_PREFIX = HEADER_PREFIX + "meta.";
+   private static final String KEY = HEADER_PREFIX + "key";
+   private static final String CONTENT_TYPE = HEADER_PREFIX + "content-type";
+   private static final String CONTENT_DISPOSITION = HEADER_PREFIX + "content-disposition";
+   private static final String CONTENT_ENCODING = HEADER_PREFIX + "content-encoding";
+   private static final String CONTENT_LANGUAGE = HEADER_PREFIX + "content-language";
+   private static final String CACHE_CONTROL = HEADER_PREFIX + "cache-control";
+   private static final String EXPIRES = HEADER_PREFIX + "expires";
+   private static final String CONTENT_MD5 = HEADER_PREFIX + "content-md5";
+
+   private final JdbcService jdbcService;
+   private final Provider<BlobBuilder> blobBuilders;
+   private final JdbcBlobKeyValidator jdbcBlobKeyValidator;
+
+   @Inject(optional = true)
+   @Named(JdbcConstants.PROPERTY_WRITE_BATCH_SIZE)
+   private int chunkBatchSize = JdbcConstants.DEFAULT_WRITE_BATCH_SIZE;
+
+   @Inject(optional = true)
+   @Named(JdbcConstants.PROPERTY_INLINE_THRESHOLD)
+   private int inlineThreshold = JdbcConstants.DEFAULT_INLINE_THRESHOLD;
+
+   @Inject(optional = true)
+   @Named(Constants.PROPERTY_USER_THREADS)
+   private ListeningExecutorService userExecutor;
+
+   @Inject
+   ContainerArchiver(JdbcService jdbcService, Provider<BlobBuilder> blobBuilders,
+         JdbcBlobKeyValidator jdbcBlobKeyValidator) {
+      this.jdbcService = jdbcService;
+      this.blobBuilders = blobBuilders;
+      this.jdbcBlobKeyValidator = jdbcBlobKeyValidator;
+   }
+
+   /**
+    * Writes every blob of a container to a tar archive, in the order of their keys. The stream is
+    * left open.
+    *
+    * @return the number of blobs written
+    */
+   public long exportContainer(String containerName, OutputStream out) throws IOException {
+      TarArchiveWriter tar = new TarArchiveWriter(out);
+      long count = 0;
+      String marker = null;
+      List<String> keys;
+      do {
+         keys = jdbcService.findBlobKeys(containerName, "", marker, false, BATCH_SIZE);
+         if (keys.isEmpty()) {
+            break;
+         }
+         ExportPage page = findExportPage(containerName, keys);
+         for (String key : keys) {
+            BlobSummary summary = page.summaries.get(key);
+            if (summary == null) {
+               // removed since it was listed
+               continue;
+            }
+            if (summary.isDirectory()) {
+               tar.putEntry(new TarEntry(key, 0, true, summary.getLastModified(), headers(summary)));
+            } else {
+               byte[] data = page.inlineData.get(summary.getPayloadId());
+               List<Long> chunks = page.chunkIds.get(summary.getPayloadId());
+               if (data == null && chunks == null) {
+                  // the payload was replaced between the lookups, its content cannot be written
+                  continue;
+               }
+               long size = data != null ? data.length : contentLength(summary);
+               tar.putEntry(new TarEntry(key, size, false, summary.getLastModified(), headers(summary)));
+               if (data != null) {
+                  tar.write(data);
+               } else {
+                  copyChunks(chunks, tar);
+               }
+            }
+            count++;
+         }
+         marker = keys.get(keys.size() - 1);
+      } while (keys.size() == BATCH_SIZE);
+      tar.finish();
+      return count;
+   }
+
+   /**
+    * Looks up the summaries of a page of blobs along with the inline content or the chunk list of
+    * their payloads, in a single transaction so that they describe the same payloads.
+    */
+   @Transactional
+   protected ExportPage findExportPage(String containerName, List<String> keys) {
+      ExportPage page = new ExportPage();
+      List<Long> payloadIds = Lists.newArrayList();
+      for (BlobSummary summary : jdbcService.findBlobSummariesByKeys(containerName, keys, true)) {
+         page.summaries.put(summary.getKey(), summary);
+         if (!summary.isDirectory() && summary.getPayloadId() != null) {
+            payloadIds.add(summary.getPayloadId());
+         }
+      }
+      page.inlineData = jdbcService.findInlineDataByPayloadIds(payloadIds);
+      payloadIds.removeAll(page.inlineData.keySet());
+      page.chunkIds = jdbcService.findChunkIdsByPayloadIds(payloadIds);
+      return page;
+   }
+
+   /**
+    * Stores the files and directories of a tar archive as blobs of a container, replacing blobs with
+    * the same keys. The stream is read to the end of the archive and left open.
+    *
+    * @return the number of blobs stored
+    */
+   public long importContainer(String containerName, InputStream in) throws IOException {
+      TarArchiveReader tar = new TarArchiveReader(in);
+      InputStream content = new FilterInputStream(tar) {
+         @Override
+         public void close() {
+            // the archive stays open for the next entries
+         }
+      };
+      List<Blob> batch = Lists.newArrayListWithCapacity(BATCH_SIZE);
+      long count = 0;
+      TarEntry entry;
+      while ((entry = tar.getNextEntry()) != null) {
+         String key = entry.getHeaders().get(KEY);
+         if (key == null) {
+            key = entry.isDirectory() && entry.getName().endsWith("/")
+                  ? entry.getName().substring(0, entry.getName().length() - 1) : entry.getName();
+         }
+         jdbcBlobKeyValidator.validate(key);
+         if (!entry.isDirectory() && entry.getSize() <= inlineThreshold) {
+            byte[] data = new byte[(int) entry.getSize()];
+            ByteStreams.readFully(tar, data);
+            batch.add(toBlob(key, entry, Payloads.newByteArrayPayload(data)));
+            if (batch.size() >= BATCH_SIZE) {
+               jdbcService.createOrModifyInlineBlobs(containerName, batch);
+               batch.clear();
+            }
+         } else {
+            // keeps the entries of the archive in order when it holds the same key twice
+            if (!batch.isEmpty()) {
+               jdbcService.createOrModifyInlineBlobs(containerName, batch);
+               batch.clear();
+            }
+            if (entry.isDirectory()) {
+               jdbcService.createDirectoryBlob(containerName, toBlob(key, entry, Payloads.newStringPayload("")));
+            } else {
+               jdbcService.createOrModifyBlob(containerName,
+                     toBlob(key, entry, Payloads.newInputStreamPayload(content)));
+            }
+         }
+         count++;
+      }
+      if (!batch.isEmpty()) {
+         jdbcService.createOrModifyInlineBlobs(containerName, batch);
+      }
+      return count;
+   }
+
+   private static long contentLength(BlobSummary summary) {
+      if (summary.getContentLength() != null) {
+         return summary.getContentLength();
+      }
+      return summary.getSize() != null ? summary.getSize() : 0;
+   }
+
+   private static Map<String, String> headers(BlobSummary summary) {
+      Map<String, String> headers = Maps.newLinkedHashMap();
+      if (summary.isDirectory() && summary.getKey().endsWith("/")) {
+         headers.put(KEY, summary.getKey());
+      }
+      putIfNotNull(headers, CONTENT_TYPE, summary.getContentType());
+      putIfNotNull(headers, CONTENT_DISPOSITION, summary.getContentDisposition());
+      putIfNotNull(headers, CONTENT_ENCODING, summary.getContentEncoding());
+      putIfNotNull(headers, CONTENT_LANGUAGE, summary.getContentLanguage());
+      putIfNotNull(headers, CACHE_CONTROL, summary.getCacheControl());
+      if (summary.getExpires() != null) {
+         headers.put(EXPIRES, Long.toString(summary.getExpires().getTime()));
+      }
+      if (!summary.isDirectory() && summary.getContentMD5() != null) {
+         headers.put(CONTENT_MD5, HashCode.fromBytes(summary.getContentMD5()).toString());
+      }
+      for (Map.Entry<String, String> entry : summary.getUserMetadata().entrySet()) {
+         headers.put(USER_METADATA_PREFIX + entry.getKey(), entry.getValue());
+      }
+      return headers;
+   }
+
+   private static void putIfNotNull(Map<String, String> headers, String key, String value) {
+      // an empty value would remove the record
+      if (value != null && !value.isEmpty()) {
+         headers.put(key, value);
+      }
+   }
+
+   private Blob toBlob(String key, TarEntry entry, Payload payload) {
+      Map<String, String> headers = entry.getHeaders();
+      Map<String, String> userMetadata = Maps.newHashMap();
+      for (Map.Entry<String, String> header : headers.entrySet()) {
+         if (header.getKey().startsWith(USER_METADATA_PREFIX)) {
+            userMetadata.put(header.getKey().substring(USER_METADATA_PREFIX.length()), header.getValue());
+         }
+      }
+      Blob blob = blobBuilders.get().name(key).userMetadata(userMetadata).payload(payload).build();
+      MutableContentMetadata contentMetadata = blob.getMetadata().getContentMetadata();
+      contentMetadata.setContentLength(entry.getSize());
+      if (headers.containsKey(CONTENT_TYPE)) {
+         contentMetadata.setContentType(headers.get(CONTENT_TYPE));
+      } else if (entry.isDirectory()) {
+         contentMetadata.setContentType("application/directory");
+      }
+      contentMetadata.setContentDisposition(headers.get(CONTENT_DISPOSITION));
+      contentMetadata.setContentEncoding(headers.get(CONTENT_ENCODING));
+      contentMetadata.setContentLanguage(headers.get(CONTENT_LANGUAGE));
+      contentMetadata.setCacheControl(headers.get(CACHE_CONTROL));
+      try {
+         if (headers.containsKey(EXPIRES)) {
+            contentMetadata.setExpires(new Date(Long.parseLong(headers.get(EXPIRES))));
+         }
+         if (headers.containsKey(CONTENT_MD5)) {
+            contentMetadata.setContentMD5(HashCode.fromString(headers.get(CONTENT_MD5)));
+         }
+      } catch (IllegalArgumentException e) {
+         throw new IllegalArgumentException("Invalid header of archive entry " + entry.getName(), e);
+      }
+      return blob;
+   }
+
+   /**
+    * Writes the content of chunks a batch at a time, fetching the next batch in the background while
+    * the current one is written when a user executor is available.
+    */
+   private void copyChunks(List<Long> chunkIds, OutputStream out) throws IOException {
+      List<List<Long>> batches = Lists.partition(chunkIds, Math.max(1, chunkBatchSize));
+      Future<List<byte[]>> next = null;
+      try {
+         for (int i = 0; i < batches.size(); i++) {
+            List<byte[]> chunks = next != null ? await(next) : jdbcService.findChunkData(batches.get(i));
+            next = userExecutor != null && i + 1 < batches.size() ? fetchChunks(batches.get(i + 1)) : null;
+            for (byte[] data : chunks) {
+               out.write(data);
+            }
+         }
+      } finally {
+         if (next != null) {
+            next.cancel(false);
+         }
+      }
+   }
+
+   private Future<List<byte[]>> fetchChunks(final List<Long> chunkIds) {
+      return userExecutor.submit(new Callable<List<byte[]>>() {
+         @Override
+         public List<byte[]> call() throws IOException {
+            return jdbcService.findChunkData(ImmutableList.copyOf(chunkIds));
+         }
+      });
+   }
+
+   private static List<byte[]> await(Future<List<byte[]>> future) throws IOException {
+      try {
+         return future.get();
+      } catch (InterruptedException e) {
+         Thread.currentThread().interrupt();
+         InterruptedIOException exception = new InterruptedIOException("Interrupted while reading chunks");
+         exception.initCause(e);
+         throw exception;
+      } catch (ExecutionException e) {
+         Throwables.propagateIfInstanceOf(e.getCause(), IOException.class);
+         throw new IOException("Could not read chunks.", e.getCause());
+      }
+   }
+
+   /**
+    * Blobs of a page of an export, keyed by blob key, and the content of their payloads, keyed by
+    * payload id.
+    */
+   static final class ExportPage {
+      private final Map<String, BlobSummary> summaries = Maps.newHashMap();
+      private Map<Long, byte[]> inlineData;
+      private Map<Long, List<Long>> chunkIds;
+   }
+
+}
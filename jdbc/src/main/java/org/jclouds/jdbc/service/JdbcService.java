@@ -16,35 +16,88 @@
  */
 package org.jclouds.jdbc.service;
 
+import com.google.common.base.Supplier;
+import com.google.common.base.Throwables;
+import com.google.common.collect.ArrayListMultimap;
+import com.google.common.collect.HashMultiset;
 import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.Iterables;
+import com.google.common.collect.ListMultimap;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.google.common.collect.Multiset;
 import com.google.common.hash.HashCode;
+import com.google.common.hash.Hasher;
 import com.google.common.hash.Hashing;
 import com.google.common.hash.HashingInputStream;
 import com.google.common.io.ByteStreams;
+import com.google.common.io.CountingInputStream;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.ListeningExecutorService;
+import com.google.common.util.concurrent.Uninterruptibles;
 import com.google.inject.Inject;
 import com.google.inject.Singleton;
 import com.google.inject.persist.Transactional;
+import org.jclouds.Constants;
 import org.jclouds.blobstore.domain.Blob;
 import org.jclouds.blobstore.domain.BlobAccess;
 import org.jclouds.blobstore.domain.ContainerAccess;
+import org.jclouds.blobstore.options.CopyOptions;
+import org.jclouds.blobstore.reference.BlobStoreConstants;
+import org.jclouds.http.HttpResponseException;
+import org.jclouds.io.ContentMetadata;
+import org.jclouds.io.ByteStreams2;
+import org.jclouds.io.ContentMetadataBuilder;
+import org.jclouds.io.Payload;
 import org.jclouds.jdbc.conversion.BlobToBlobEntity;
+import org.jclouds.jdbc.domain.BlobSummary;
 import org.jclouds.jdbc.entity.BlobEntity;
 import org.jclouds.jdbc.entity.BlobEntityPK;
 import org.jclouds.jdbc.entity.ChunkEntity;
 import org.jclouds.jdbc.entity.ContainerEntity;
+import org.jclouds.jdbc.entity.MultipartPartEntity;
+import org.jclouds.jdbc.entity.MultipartUploadEntity;
 import org.jclouds.jdbc.entity.PayloadEntity;
 import org.jclouds.jdbc.reference.JdbcConstants;
 import org.jclouds.jdbc.repository.BlobRepository;
 import org.jclouds.jdbc.repository.ChunkRepository;
 import org.jclouds.jdbc.repository.ContainerRepository;
+import org.jclouds.jdbc.repository.MultipartPartRepository;
+import org.jclouds.jdbc.repository.MultipartUploadRepository;
+import org.jclouds.jdbc.repository.PayloadRepository;
+import org.jclouds.jdbc.util.BlobConditions;
+import org.jclouds.jdbc.util.ChunkCompression;
+import org.jclouds.logging.Logger;
 import org.jclouds.util.Closeables2;
 
+import javax.annotation.Resource;
+import javax.inject.Named;
+import javax.persistence.EntityExistsException;
+import javax.persistence.LockTimeoutException;
+import javax.persistence.OptimisticLockException;
+import javax.persistence.PessimisticLockException;
+import java.io.ByteArrayInputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.SequenceInputStream;
+import java.sql.SQLException;
 import java.util.Arrays;
+import java.util.Collection;
 import java.util.Date;
 import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.BlockingDeque;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.LinkedBlockingDeque;
+import java.util.concurrent.Semaphore;
 
+import static com.google.common.base.Preconditions.checkArgument;
 import static com.google.common.io.BaseEncoding.base16;
 
 @Singleton
@@ -52,26 +105,97 @@ public class JdbcService {
 
    private static final String DIRECTORY_MD5 = Hashing.md5().hashBytes(new byte[0]).toString();
 
+   @Resource
+   @Named(BlobStoreConstants.BLOBSTORE_LOGGER)
+   protected Logger logger = Logger.NULL;
+
    private final ContainerRepository containerRepository;
    private final BlobRepository blobRepository;
    private final ChunkRepository chunkRepository;
+   private final PayloadRepository payloadRepository;
+   private final MultipartUploadRepository multipartUploadRepository;
+   private final MultipartPartRepository multipartPartRepository;
+   private final ChunkWriter chunkWriter;
    private final BlobToBlobEntity blobToBlobEntity;
 
+   @Inject(optional = true)
+   @Named(JdbcConstants.PROPERTY_WRITE_BATCH_SIZE)
+   private int writeBatchSize = JdbcConstants.DEFAULT_WRITE_BATCH_SIZE;
+
+   @Inject(optional = true)
+   @Named(JdbcConstants.PROPERTY_DEDUPLICATION)
+   private boolean deduplication = JdbcConstants.DEFAULT_DEDUPLICATION;
+
+   private int deleteBatchSize = JdbcConstants.DEFAULT_DELETE_BATCH_SIZE;
+
+   @Inject(optional = true)
+   @Named(JdbcConstants.PROPERTY_INLINE_THRESHOLD)
+   private int inlineThreshold = JdbcConstants.DEFAULT_INLINE_THRESHOLD;
+
+   @Inject(optional = true)
+   @Named(JdbcConstants.PROPERTY_COMPRESSION)
+   private boolean compression = JdbcConstants.DEFAULT_COMPRESSION;
+
+   @Inject(optional = true)
+   @Named(JdbcConstants.PROPERTY_WRITE_THREADS)
+   private int writeThreads = JdbcConstants.DEFAULT_WRITE_THREADS;
+
+   @Inject(optional = true)
+   @Named(JdbcConstants.PROPERTY_WRITE_RETRIES)
+   private int writeRetries = JdbcConstants.DEFAULT_WRITE_RETRIES;
+
+   @Inject(optional = true)
+   @Named(JdbcConstants.PROPERTY_WRITE_RETRY_DELAY)
+   private long writeRetryDelay = JdbcConstants.DEFAULT_WRITE_RETRY_DELAY;
+
+   @Inject(optional = true)
+   @Named(Constants.PROPERTY_USER_THREADS)
+   private ListeningExecutorService userExecutor;
+
+   private final Random random = new Random();
+
    @Inject
    JdbcService(ContainerRepository containerRepository, BlobRepository blobRepository, ChunkRepository chunkRepository,
+         PayloadRepository payloadRepository, MultipartUploadRepository multipartUploadRepository,
+         MultipartPartRepository multipartPartRepository, ChunkWriter chunkWriter,
          BlobToBlobEntity blobToBlobEntity) {
       this.containerRepository = containerRepository;
       this.blobRepository = blobRepository;
       this.chunkRepository = chunkRepository;
+      this.payloadRepository = payloadRepository;
+      this.multipartUploadRepository = multipartUploadRepository;
+      this.multipartPartRepository = multipartPartRepository;
+      this.chunkWriter = chunkWriter;
       this.blobToBlobEntity = blobToBlobEntity;
    }
 
-   @Transactional
+   /**
+    * Batches of deleted blobs end when one comes back short, so the batch size must be positive.
+    */
+   @Inject(optional = true)
+   void setDeleteBatchSize(@Named(JdbcConstants.PROPERTY_DELETE_BATCH_SIZE) int deleteBatchSize) {
+      checkArgument(deleteBatchSize > 0, "%s must be positive, was %s", JdbcConstants.PROPERTY_DELETE_BATCH_SIZE,
+            deleteBatchSize);
+      this.deleteBatchSize = deleteBatchSize;
+   }
+
+   /**
+    * The cached id of a container is dropped once a change to the container is committed: dropped
+    * within the transaction, a lookup running before the commit could cache it again.
+    */
    public void createContainer(String containerName, ContainerAccess access) {
-      containerRepository.create(ContainerEntity.builder().name(containerName).containerAccess(access).build());
+      try {
+         insertContainer(containerName, access);
+      } finally {
+         containerRepository.evict(containerName);
+      }
    }
 
    @Transactional
+   protected void insertContainer(String containerName, ContainerAccess access) {
+      containerRepository.create(ContainerEntity.builder().name(containerName).containerAccess(access).build());
+   }
+
    public void createContainer(String containerName) {
       createContainer(containerName, null);
    }
@@ -86,13 +210,32 @@ public class JdbcService {
       return containerRepository.findContainerByName(containerName);
    }
 
-   @Transactional
    public void deleteContainerByName(String containerName) {
-      containerRepository.deleteContainerByName(containerName);
+      try {
+         removeContainer(containerName);
+      } finally {
+         containerRepository.evict(containerName);
+      }
    }
 
    @Transactional
+   protected void removeContainer(String containerName) {
+      for (MultipartUploadEntity upload : findMultipartUploads(containerName)) {
+         abortMultipartUpload(upload.getId());
+      }
+      containerRepository.deleteContainerByName(containerName);
+   }
+
    public void setContainerAccessByName(String containerName, ContainerAccess access) {
+      try {
+         updateContainerAccess(containerName, access);
+      } finally {
+         containerRepository.evict(containerName);
+      }
+   }
+
+   @Transactional
+   protected void updateContainerAccess(String containerName, ContainerAccess access) {
       ContainerEntity containerEntity = containerRepository.findContainerByName(containerName);
       containerEntity.setContainerAccess(access);
       containerRepository.save(containerEntity);
@@ -100,72 +243,457 @@ public class JdbcService {
 
    @Transactional
    public boolean blobExists(String containerName, String key) {
-      return findBlobById(containerName, key) != null;
+      ContainerEntity containerEntity = containerRepository.findContainerReferenceByName(containerName);
+      return containerEntity != null && blobRepository.exists(containerEntity, key);
    }
 
-   @Transactional(rollbackOn = IOException.class)
-   public BlobEntity createOrModifyBlob(String containerName, Blob blob, BlobAccess blobAccess) throws IOException {
+   /**
+    * Stores a blob without holding a transaction open while its content is read. The chunks are
+    * written in batches, each committed on its own, then the blob is published in a short
+    * transaction that swaps in the new payload. Readers see the previous version of the blob until
+    * then. The chunks of the replaced payload are released once the new one is published. Writers
+    * racing on the same key only conflict when publishing, which is then retried.
+    */
+   public BlobEntity createOrModifyBlob(final String containerName, Blob blob, BlobAccess blobAccess)
+         throws IOException {
       List<Long> chunks;
+      byte[] inlineData = null;
       HashingInputStream his = new HashingInputStream(Hashing.md5(), blob.getPayload().openStream());
+      CountingInputStream cis = new CountingInputStream(his);
       try {
-         chunks = storeData(his);
+         // read one byte past the threshold to tell small payloads from the head of a large one
+         byte[] head = new byte[inlineThreshold + 1];
+         int bytes = ByteStreams.read(cis, head, 0, head.length);
+         if (bytes <= inlineThreshold) {
+            inlineData = Arrays.copyOf(head, bytes);
+            chunks = ImmutableList.of();
+         } else {
+            chunks = storeData(new SequenceInputStream(new ByteArrayInputStream(head, 0, bytes), cis));
+         }
       } finally {
-         Closeables2.closeQuietly(his);
+         Closeables2.closeQuietly(cis);
+      }
+      final BlobEntity blobEntity;
+      List<Long> oldChunks;
+      try {
+         HashCode actualHashCode = his.hash();
+         HashCode expectedHashCode = blob.getPayload().getContentMetadata().getContentMD5AsHashCode();
+         if (expectedHashCode != null && !actualHashCode.equals(expectedHashCode)) {
+            throw new IOException("MD5 hash code mismatch, actual: " + actualHashCode +
+                  " expected: " + expectedHashCode);
+         }
+
+         blobEntity = blobToBlobEntity.apply(blob);
+         blobEntity.getPayload().setChunks(chunks);
+         blobEntity.getPayload().setInlineData(inlineData);
+         blobEntity.setBlobAccess(blobAccess);
+         blobEntity.setEtag(base16().lowerCase().encode(actualHashCode.asBytes()));
+         blobEntity.getPayload().setContentMD5(actualHashCode.asBytes());
+         // ranges are resolved against the stored length, which the caller does not always know upfront
+         blobEntity.getPayload().setContentLength(cis.getCount());
+         blobEntity.setSize(cis.getCount());
+         final String key = blob.getMetadata().getName();
+         oldChunks = retryOnConflict(new Supplier<List<Long>>() {
+            @Override
+            public List<Long> get() {
+               return publishBlob(containerName, key, blobEntity);
+            }
+         });
+      } catch (IOException e) {
+         releaseChunksQuietly(chunks);
+         throw e;
+      } catch (RuntimeException e) {
+         releaseChunksQuietly(chunks);
+         throw e;
+      }
+      releaseChunksQuietly(oldChunks);
+      return blobEntity;
+   }
+
+   /**
+    * Stores blobs small enough to be kept in their payload row, all of them in a single transaction
+    * instead of one per blob. The chunks of the replaced payloads are released afterwards.
+    *
+    * @throws IllegalArgumentException if the content of a blob exceeds the inline threshold
+    */
+   public void createOrModifyInlineBlobs(final String containerName, List<Blob> blobs) throws IOException {
+      final List<BlobEntity> blobEntities = Lists.newArrayListWithCapacity(blobs.size());
+      for (Blob blob : blobs) {
+         byte[] data = ByteStreams2.toByteArrayAndClose(blob.getPayload().openStream());
+         checkArgument(data.length <= inlineThreshold, "blob %s exceeds the inline threshold",
+               blob.getMetadata().getName());
+         HashCode actualHashCode = Hashing.md5().hashBytes(data);
+         HashCode expectedHashCode = blob.getPayload().getContentMetadata().getContentMD5AsHashCode();
+         if (expectedHashCode != null && !actualHashCode.equals(expectedHashCode)) {
+            throw new IOException("MD5 hash code mismatch, actual: " + actualHashCode +
+                  " expected: " + expectedHashCode);
+         }
+         BlobEntity blobEntity = blobToBlobEntity.apply(blob);
+         blobEntity.setKey(blob.getMetadata().getName());
+         blobEntity.getPayload().setChunks(ImmutableList.<Long>of());
+         blobEntity.getPayload().setInlineData(data);
+         blobEntity.setEtag(base16().lowerCase().encode(actualHashCode.asBytes()));
+         blobEntity.getPayload().setContentMD5(actualHashCode.asBytes());
+         blobEntity.getPayload().setContentLength((long) data.length);
+         blobEntity.setSize((long) data.length);
+         blobEntities.add(blobEntity);
       }
-      HashCode actualHashCode = his.hash();
-      HashCode expectedHashCode = blob.getPayload().getContentMetadata().getContentMD5AsHashCode();
-      if (expectedHashCode != null && !actualHashCode.equals(expectedHashCode)) {
-         throw new IOException("MD5 hash code mismatch, actual: " + actualHashCode +
-               " expected: " + expectedHashCode);
+      releaseChunksQuietly(retryOnConflict(new Supplier<List<Long>>() {
+         @Override
+         public List<Long> get() {
+            return publishBlobs(containerName, blobEntities);
+         }
+      }));
+   }
+
+   /**
+    * Saves blobs in place of the existing ones with the same keys in a single transaction.
+    *
+    * @return the chunks of the replaced payloads, whose references are left for the caller to release
+    */
+   @Transactional
+   protected List<Long> publishBlobs(String containerName, List<BlobEntity> blobEntities) {
+      List<Long> oldChunks = Lists.newArrayList();
+      for (BlobEntity blobEntity : blobEntities) {
+         oldChunks.addAll(swapBlob(containerName, blobEntity.getKey(), blobEntity));
       }
+      return oldChunks;
+   }
 
-      String key = blob.getMetadata().getName();
+   /**
+    * Saves a blob in place of the existing one with the same key in a transaction of its own.
+    *
+    * @return the chunks of the replaced payload, whose references are left for the caller to release
+    */
+   @Transactional
+   protected List<Long> publishBlob(String containerName, String key, BlobEntity blobEntity) {
+      return swapBlob(containerName, key, blobEntity);
+   }
+
+   /**
+    * Saves a blob in place of the existing one with the same key, if any, keeping its creation date
+    * and releasing its chunks.
+    */
+   private BlobEntity replaceBlob(String containerName, String key, BlobEntity blobEntity) {
+      deleteChunks(swapBlob(containerName, key, blobEntity));
+      return blobEntity;
+   }
+
+   /**
+    * Saves a blob in place of the existing one with the same key, if any, keeping its creation date.
+    * The blob takes the version of the row it replaces, so the update only applies if no other
+    * transaction changed the row since it was read here, and fails with an optimistic lock
+    * exception otherwise.
+    *
+    * @return the chunks of the replaced payload
+    */
+   private List<Long> swapBlob(String containerName, String key, BlobEntity blobEntity) {
       Date creationDate = null;
+      long version = 0;
+      List<Long> oldChunks = ImmutableList.of();
       BlobEntity oldBlobEntity = findBlobById(containerName, key);
       if (oldBlobEntity != null) {
          creationDate = oldBlobEntity.getCreationDate();
+         version = oldBlobEntity.getVersion();
+         if (oldBlobEntity.getPayload().getChunks() != null) {
+            oldChunks = ImmutableList.copyOf(oldBlobEntity.getPayload().getChunks());
+         }
       }
-      BlobEntity blobEntity = blobToBlobEntity.apply(blob);
-      blobEntity.getPayload().setChunks(chunks);
-      blobEntity.setContainerEntity(containerRepository.findContainerByName(containerName));
+      blobEntity.setContainerEntity(containerRepository.findContainerReferenceByName(containerName));
       blobEntity.setKey(key);
-      blobEntity.setBlobAccess(blobAccess);
       blobEntity.setCreationDate(creationDate);
       blobEntity.setLastModified(new Date());
-      blobEntity.setEtag(base16().lowerCase().encode(actualHashCode.asBytes()));
-      blobEntity.getPayload().setContentMD5(actualHashCode.asBytes());
+      blobEntity.setVersion(version);
+      blobRepository.save(blobEntity);
+      return oldChunks;
+   }
 
-      BlobEntity result = blobRepository.save(blobEntity);
-      return result;
+   /**
+    * Copies a blob without reading its content: the copy points at the chunks of the source, which
+    * take a reference for it, and small payloads stored inline are copied along with the row.
+    *
+    * @param options the conditions the source must meet, checked against the row the copy is made
+    *        from, and the content and user metadata of the copy, each kept from the source when null
+    * @return the copy, or null if the source blob does not exist
+    * @throws HttpResponseException with status code 412 if a condition does not hold
+    */
+   public BlobEntity copyBlob(final String fromContainer, final String fromName, final String toContainer,
+         final String toName, final CopyOptions options) {
+      return retryOnConflict(new Supplier<BlobEntity>() {
+         @Override
+         public BlobEntity get() {
+            return copyBlobOnce(fromContainer, fromName, toContainer, toName, options);
+         }
+      });
    }
 
    @Transactional
-   public BlobEntity createDirectoryBlob(String containerName, Blob blob, BlobAccess blobAccess) {
+   protected BlobEntity copyBlobOnce(String fromContainer, String fromName, String toContainer, String toName,
+         CopyOptions options) {
+      BlobEntity source = findBlobById(fromContainer, fromName);
+      if (source == null) {
+         return null;
+      }
+      BlobConditions.check(source.getEtag(), source.getLastModified(), options.ifMatch(), options.ifNoneMatch(),
+            options.ifModifiedSince(), options.ifUnmodifiedSince(), 412);
+      PayloadEntity sourcePayload = source.getPayload();
+      List<Long> chunks = sourcePayload.getChunks() == null ? ImmutableList.<Long>of()
+            : ImmutableList.copyOf(sourcePayload.getChunks());
+      ContentMetadata contentMetadata = options.contentMetadata();
+      Map<String, String> userMetadata = options.userMetadata();
+      if (contentMetadata == null) {
+         contentMetadata = ContentMetadataBuilder.create()
+               .cacheControl(sourcePayload.getCacheControl())
+               .contentDisposition(sourcePayload.getContentDisposition())
+               .contentEncoding(sourcePayload.getContentEncoding())
+               .contentLanguage(sourcePayload.getContentLanguage())
+               .contentType(sourcePayload.getContentType())
+               .expires(sourcePayload.getExpires())
+               .build();
+      }
+      PayloadEntity payload = PayloadEntity.builder()
+            .chunks(chunks)
+            .cacheControl(contentMetadata.getCacheControl())
+            .contentDisposition(contentMetadata.getContentDisposition())
+            .contentEncoding(contentMetadata.getContentEncoding())
+            .contentLanguage(contentMetadata.getContentLanguage())
+            .contentType(contentMetadata.getContentType())
+            .expires(contentMetadata.getExpires())
+            .contentLength(sourcePayload.getContentLength())
+            .contentMD5(sourcePayload.getContentMD5())
+            .build();
+      payload.setInlineData(sourcePayload.getInlineData());
+      payload.setVariableChunkSize(sourcePayload.isVariableChunkSize());
+
+      BlobEntity blobEntity = BlobEntity.builder(null, null)
+            .payload(payload)
+            .userMetadata(Maps.newHashMap(userMetadata != null ? userMetadata : source.getUserMetadata()))
+            .size(source.getSize())
+            .etag(source.getEtag())
+            .directory(source.isDirectory())
+            .build();
+      // the copy takes its own reference on the chunks, replacing the source itself then only drops
+      // the reference the source held
+      Set<Long> distinctChunks = ImmutableSet.copyOf(chunks);
+      if (chunkRepository.retainChunks(distinctChunks) != distinctChunks.size()) {
+         // the source was replaced since it was read and some of its chunks are no longer referenced,
+         // the copy is retried against the current source
+         throw new OptimisticLockException("chunks of " + fromContainer + "/" + fromName
+               + " were released while copying");
+      }
+      return replaceBlob(toContainer, toName, blobEntity);
+   }
+
+   @Transactional
+   public MultipartUploadEntity createMultipartUpload(String containerName, String uploadId, String blobName) {
+      return multipartUploadRepository.create(new MultipartUploadEntity(uploadId,
+            containerRepository.findContainerReferenceByName(containerName), blobName));
+   }
+
+   @Transactional
+   public MultipartUploadEntity findMultipartUpload(String uploadId) {
+      return multipartUploadRepository.find(uploadId);
+   }
+
+   @Transactional
+   public List<MultipartUploadEntity> findMultipartUploads(String containerName) {
+      ContainerEntity containerEntity = containerRepository.findContainerReferenceByName(containerName);
+      return containerEntity == null ? ImmutableList.<MultipartUploadEntity>of()
+            : multipartUploadRepository.findUploadsByContainer(containerEntity);
+   }
+
+   @Transactional
+   public List<MultipartPartEntity> findMultipartParts(String uploadId) {
+      return multipartPartRepository.findPartsByUpload(uploadId);
+   }
+
+   /**
+    * Writes the chunks of a part as it arrives, in batches committed on their own, and then saves
+    * the part in a short transaction. A part uploaded again with the same number replaces the
+    * previous one.
+    */
+   public MultipartPartEntity createOrModifyMultipartPart(String uploadId, int partNumber, Payload payload)
+         throws IOException {
+      List<Long> chunks;
+      HashingInputStream his = new HashingInputStream(Hashing.md5(), payload.openStream());
+      CountingInputStream cis = new CountingInputStream(his);
+      try {
+         chunks = storeData(cis);
+      } finally {
+         Closeables2.closeQuietly(cis);
+      }
+      MultipartPartEntity part = new MultipartPartEntity(uploadId, partNumber);
+      List<Long> oldChunks;
+      try {
+         HashCode actualHashCode = his.hash();
+         HashCode expectedHashCode = payload.getContentMetadata().getContentMD5AsHashCode();
+         if (expectedHashCode != null && !actualHashCode.equals(expectedHashCode)) {
+            throw new IOException("MD5 hash code mismatch, actual: " + actualHashCode +
+                  " expected: " + expectedHashCode);
+         }
+
+         part.setChunks(chunks);
+         part.setSize(cis.getCount());
+         part.setEtag(base16().lowerCase().encode(actualHashCode.asBytes()));
+         part.setLastModified(new Date());
+         oldChunks = publishPart(part);
+      } catch (IOException e) {
+         releaseChunksQuietly(chunks);
+         throw e;
+      } catch (RuntimeException e) {
+         releaseChunksQuietly(chunks);
+         throw e;
+      }
+      releaseChunksQuietly(oldChunks);
+      return part;
+   }
+
+   /**
+    * Saves a part in place of the existing one with the same number, if any, in a transaction of
+    * its own.
+    *
+    * @return the chunks of the replaced part, whose references are left for the caller to release
+    */
+   @Transactional
+   protected List<Long> publishPart(MultipartPartEntity part) {
+      MultipartPartEntity existing = multipartPartRepository.findPart(part.getUploadId(), part.getPartNumber());
+      if (existing == null) {
+         multipartPartRepository.create(part);
+         return ImmutableList.of();
+      }
+      List<Long> oldChunks = ImmutableList.copyOf(existing.getChunks());
+      existing.setChunks(part.getChunks());
+      existing.setSize(part.getSize());
+      existing.setEtag(part.getEtag());
+      existing.setLastModified(part.getLastModified());
+      part.setId(existing.getId());
+      return oldChunks;
+   }
+
+   /**
+    * Creates a blob out of the given parts of a multipart upload and removes the upload. The chunk
+    * lists of the parts are concatenated into the payload, the chunks themselves are not copied.
+    *
+    * @param blob the metadata of the blob, its payload is ignored
+    * @throws IllegalArgumentException if no part is given, if the upload does not exist or belongs to
+    *         another blob, or if one of the parts was not uploaded
+    */
+   public BlobEntity completeMultipartUpload(final String containerName, final String uploadId, final Blob blob,
+         final List<Integer> partNumbers, final BlobAccess blobAccess) {
+      return retryOnConflict(new Supplier<BlobEntity>() {
+         @Override
+         public BlobEntity get() {
+            return completeMultipartUploadOnce(containerName, uploadId, blob, partNumbers, blobAccess);
+         }
+      });
+   }
+
+   @Transactional
+   protected BlobEntity completeMultipartUploadOnce(String containerName, String uploadId, Blob blob,
+         List<Integer> partNumbers, BlobAccess blobAccess) {
+      checkArgument(!partNumbers.isEmpty(), "Upload %s cannot be completed without parts", uploadId);
+      MultipartUploadEntity upload = multipartUploadRepository.find(uploadId);
+      ContainerEntity containerEntity = containerRepository.findContainerReferenceByName(containerName);
+      if (upload == null || containerEntity == null
+            || !containerEntity.getId().equals(upload.getContainerEntity().getId())
+            || !upload.getBlobName().equals(blob.getMetadata().getName())) {
+         throw new IllegalArgumentException("Upload " + uploadId + " of " + containerName + "/"
+               + blob.getMetadata().getName() + " does not exist");
+      }
+      Map<Integer, MultipartPartEntity> parts = Maps.newHashMap();
+      ListMultimap<Integer, Long> chunksByPart = ArrayListMultimap.create();
+      for (MultipartPartEntity part : multipartPartRepository.findPartsByUpload(uploadId)) {
+         // the chunk list comes with the part row
+         parts.put(part.getPartNumber(), part);
+         chunksByPart.putAll(part.getPartNumber(), part.getChunks());
+      }
+      ImmutableList.Builder<Long> chunks = ImmutableList.builder();
+      Hasher etagHasher = Hashing.md5().newHasher();
+      long size = 0;
+      for (int partNumber : partNumbers) {
+         MultipartPartEntity part = parts.get(partNumber);
+         if (part == null) {
+            throw new IllegalArgumentException("Part " + partNumber + " of upload " + uploadId
+                  + " was not uploaded");
+         }
+         chunks.addAll(chunksByPart.get(partNumber));
+         etagHasher.putBytes(base16().lowerCase().decode(part.getEtag()));
+         size += part.getSize();
+      }
+      List<Long> payloadChunks = chunks.build();
+
+      // the payload takes its own reference on its chunks before the parts drop theirs
+      chunkRepository.retainChunks(ImmutableSet.copyOf(payloadChunks));
+      releaseMultipartUpload(uploadId, chunksByPart);
+
+      BlobEntity blobEntity = blobToBlobEntity.apply(blob);
+      blobEntity.getPayload().setChunks(payloadChunks);
+      blobEntity.getPayload().setVariableChunkSize(true);
+      blobEntity.getPayload().setContentMD5(null);
+      blobEntity.getPayload().setContentLength(size);
+      blobEntity.setSize(size);
+      blobEntity.setBlobAccess(blobAccess);
+      blobEntity.setEtag(etagHasher.hash() + "-" + partNumbers.size());
+      return replaceBlob(containerName, blob.getMetadata().getName(), blobEntity);
+   }
+
+   @Transactional
+   public void abortMultipartUpload(String uploadId) {
+      releaseMultipartUpload(uploadId, multipartPartRepository.findChunkIdsByUpload(uploadId));
+   }
+
+   /**
+    * Deletes an upload and its parts and drops the references the parts hold on their chunks.
+    */
+   private void releaseMultipartUpload(String uploadId, ListMultimap<Integer, Long> chunksByPart) {
+      Multiset<Long> references = HashMultiset.create();
+      for (Collection<Long> partChunks : chunksByPart.asMap().values()) {
+         // a part holds a single reference on each distinct chunk it points at
+         references.addAll(ImmutableSet.copyOf(partChunks));
+      }
+      multipartPartRepository.deletePartsByUpload(uploadId);
+      MultipartUploadEntity upload = multipartUploadRepository.find(uploadId);
+      if (upload != null) {
+         multipartUploadRepository.delete(upload);
+      }
+      chunkRepository.releaseChunks(references);
+   }
+
+   /**
+    * Saves a directory blob in place of the blob with the same key, if any.
+    */
+   public BlobEntity createDirectoryBlob(final String containerName, final Blob blob, final BlobAccess blobAccess) {
+      return retryOnConflict(new Supplier<BlobEntity>() {
+         @Override
+         public BlobEntity get() {
+            return createDirectoryBlobOnce(containerName, blob, blobAccess);
+         }
+      });
+   }
+
+   @Transactional
+   protected BlobEntity createDirectoryBlobOnce(String containerName, Blob blob, BlobAccess blobAccess) {
       BlobEntity blobEntity = BlobEntity.builder(null, null)
             .userMetadata(blob.getMetadata().getUserMetadata())
             .directory(true)
             .payload(PayloadEntity.builder().contentType("application/directory").build())
             .build();
-      blobEntity.setContainerEntity(containerRepository.findContainerByName(containerName));
-      blobEntity.setKey(blob.getMetadata().getName());
       blobEntity.setBlobAccess(blobAccess);
       blobEntity.setEtag(DIRECTORY_MD5);
-      return blobRepository.save(blobEntity);
+      return replaceBlob(containerName, blob.getMetadata().getName(), blobEntity);
    }
 
-   @Transactional
    public BlobEntity createDirectoryBlob(String containerName, Blob blob) {
       return createDirectoryBlob(containerName, blob, null);
    }
 
-   @Transactional(rollbackOn = IOException.class)
    public BlobEntity createOrModifyBlob(String containerName, Blob blob) throws IOException {
       return createOrModifyBlob(containerName, blob, null);
    }
 
    @Transactional
    public BlobEntity findBlobById(String containerName, String key) {
-      ContainerEntity containerEntity = containerRepository.findContainerByName(containerName);
+      ContainerEntity containerEntity = containerRepository.findContainerReferenceByName(containerName);
       return containerEntity == null ? null : blobRepository.find(new BlobEntityPK(containerEntity.getId(), key));
    }
 
@@ -176,51 +704,217 @@ public class JdbcService {
 
    @Transactional
    public List<BlobEntity> findBlobsByContainer(String containerName) {
-      return blobRepository.findBlobsByContainer(containerRepository.findContainerByName(containerName));
+      return blobRepository.findBlobsByContainer(containerRepository.findContainerReferenceByName(containerName));
    }
 
    @Transactional
-   public List<BlobEntity> findBlobsByDirectory(String containerName, String directoryName, boolean recursive) {
-      ImmutableList.Builder<BlobEntity> result = ImmutableList.builder();
-      List<BlobEntity> blobEntities = blobRepository
-            .findBlobsByDirectory(containerRepository.findContainerByName(containerName), directoryName);
-      result.addAll(blobEntities);
-      if (recursive) {
-         for (BlobEntity blobEntity : blobEntities) {
-            if (blobEntity.isDirectory()) {
-               result.addAll(findBlobsByDirectory(containerName, blobEntity.getKey(), true));
+   public List<String> findBlobKeysByContainer(String containerName) {
+      return blobRepository.findBlobKeysByContainer(containerRepository.findContainerReferenceByName(containerName));
+   }
+
+   @Transactional
+   public List<String> findBlobKeys(String containerName, String prefix, String after, boolean inclusive,
+         int maxResults) {
+      ContainerEntity containerEntity = containerRepository.findContainerReferenceByName(containerName);
+      return containerEntity == null ? ImmutableList.<String>of()
+            : blobRepository.findBlobKeys(containerEntity, prefix, after, inclusive, maxResults);
+   }
+
+   @Transactional
+   public BlobSummary findBlobSummary(String containerName, String key) {
+      ContainerEntity containerEntity = containerRepository.findContainerReferenceByName(containerName);
+      return containerEntity == null ? null : blobRepository.findBlobSummary(containerEntity, key);
+   }
+
+   @Transactional
+   public List<BlobSummary> findBlobSummariesByKeys(String containerName, Collection<String> keys,
+         boolean withUserMetadata) {
+      ContainerEntity containerEntity = containerRepository.findContainerReferenceByName(containerName);
+      if (containerEntity == null || keys.isEmpty()) {
+         return ImmutableList.of();
+      }
+      List<BlobSummary> summaries = blobRepository.findBlobSummariesByKeys(containerEntity, keys);
+      if (withUserMetadata) {
+         Map<String, Map<String, String>> userMetadata = blobRepository.findUserMetadataByKeys(containerEntity, keys);
+         for (BlobSummary summary : summaries) {
+            if (userMetadata.containsKey(summary.getKey())) {
+               summary.setUserMetadata(userMetadata.get(summary.getKey()));
             }
          }
       }
+      return summaries;
+   }
+
+   @Transactional
+   public byte[] findInlineDataByPayloadId(Long payloadId) {
+      return payloadRepository.findInlineData(payloadId);
+   }
+
+   /**
+    * @return the size of each of the given chunks, in the same order
+    */
+   @Transactional
+   public List<Integer> findChunkSizes(List<Long> chunkIds) {
+      Map<Long, Integer> sizes = chunkRepository.findChunkSizes(ImmutableSet.copyOf(chunkIds));
+      ImmutableList.Builder<Integer> result = ImmutableList.builder();
+      for (Long chunkId : chunkIds) {
+         Integer size = sizes.get(chunkId);
+         result.add(size == null ? 0 : size);
+      }
       return result.build();
    }
 
    @Transactional
-   public void deleteBlobsByContainer(String containerName) {
-      List<BlobEntity> blobs = findBlobsByContainer(containerName);
-      for (BlobEntity blob : blobs) {
-         deleteBlob(containerName, blob.getKey());
+   public List<Long> findChunkIdsByPayloadId(Long payloadId) {
+      return payloadRepository.findChunkIdsByPayload(payloadId);
+   }
+
+   /**
+    * @return the chunk ids of each of the given payloads that exists, keyed by payload id
+    */
+   @Transactional
+   public Map<Long, List<Long>> findChunkIdsByPayloadIds(Collection<Long> payloadIds) {
+      return payloadRepository.findChunkIdsByPayloads(payloadIds);
+   }
+
+   /**
+    * @return the content of each of the given payloads that is stored inline, keyed by payload id
+    */
+   @Transactional
+   public Map<Long, byte[]> findInlineDataByPayloadIds(Collection<Long> payloadIds) {
+      return payloadRepository.findInlineData(payloadIds);
+   }
+
+   /**
+    * Reads the content of the given chunks with a query per batch of chunks instead of one per
+    * chunk, decompressed and trimmed to the chunk size.
+    *
+    * @return the content of each chunk, in the order of the ids
+    */
+   @Transactional
+   public List<byte[]> findChunkData(List<Long> chunkIds) throws IOException {
+      Map<Long, byte[]> chunks = Maps.newHashMap();
+      for (Object[] row : chunkRepository.findChunkData(ImmutableSet.copyOf(chunkIds))) {
+         byte[] data = (byte[]) row[1];
+         int size = (Integer) row[2];
+         if (Boolean.TRUE.equals(row[3])) {
+            data = ChunkCompression.decompress(data, size);
+         } else if (data.length != size) {
+            data = Arrays.copyOf(data, size);
+         }
+         chunks.put((Long) row[0], data);
       }
+      List<byte[]> result = Lists.newArrayListWithCapacity(chunkIds.size());
+      for (Long chunkId : chunkIds) {
+         byte[] data = chunks.get(chunkId);
+         if (data == null) {
+            throw new IOException("Could not find chunk " + chunkId);
+         }
+         result.add(data);
+      }
+      return result;
+   }
+
+   @Transactional
+   public List<BlobEntity> findBlobsByDirectory(String containerName, String directoryName, boolean recursive) {
+      ContainerEntity containerEntity = containerRepository.findContainerReferenceByName(containerName);
+      return containerEntity == null ? ImmutableList.<BlobEntity>of()
+            : blobRepository.findBlobsByDirectory(containerEntity, directoryName, recursive);
+   }
+
+   /**
+    * Counts the blobs of a container, or only the blobs under a directory when one is given.
+    */
+   @Transactional
+   public long countBlobs(String containerName, String directoryName, boolean recursive) {
+      ContainerEntity containerEntity = containerRepository.findContainerReferenceByName(containerName);
+      return containerEntity == null ? 0 : blobRepository.countBlobs(containerEntity, directoryName, recursive);
    }
 
    @Transactional
+   public boolean directoryExists(String containerName, String directoryName) {
+      ContainerEntity containerEntity = containerRepository.findContainerReferenceByName(containerName);
+      return containerEntity != null && blobRepository.directoryExists(containerEntity, directoryName);
+   }
+
+   /**
+    * Deletes every blob of a container. The blobs are deleted in batches, each batch in its own
+    * transaction, so this must not be called within a transaction.
+    */
+   public void deleteBlobsByContainer(String containerName) {
+      while (deleteBlobBatch(containerName, "", null, true) >= deleteBatchSize) {
+         // keep going until a batch comes back short
+      }
+   }
+
+   /**
+    * Deletes the blobs under a directory, but not the directory blob itself. Directory blobs
+    * under it are only deleted when recursive. The blobs are deleted in batches, each batch in its
+    * own transaction, so this must not be called within a transaction.
+    */
    public void deleteBlobsByDirectory(String containerName, String directoryName, boolean recursive) {
-      List<BlobEntity> blobs = findBlobsByDirectory(containerName, directoryName, false);
-      for (BlobEntity blob : blobs) {
-         if (!blob.isDirectory()) {
-            deleteBlob(containerName, blob.getKey());
+      while (deleteBlobBatch(containerName, directoryName, directoryName, recursive) >= deleteBatchSize) {
+         // keep going until a batch comes back short
+      }
+   }
+
+   /**
+    * Deletes a batch of blobs with a handful of bulk statements: their user metadata, the blobs,
+    * their payloads and chunk lists, and then releases the chunks they referenced.
+    *
+    * @return the number of blobs deleted
+    */
+   public int deleteBlobBatch(final String containerName, final String prefix, final String excludedKey,
+         final boolean includeDirectories) {
+      return retryOnConflict(new Supplier<Integer>() {
+         @Override
+         public Integer get() {
+            return deleteBlobBatchOnce(containerName, prefix, excludedKey, includeDirectories);
          }
-         else {
-            if (recursive) {
-               deleteBlobsByDirectory(containerName, blob.getKey(), true);
-               deleteBlob(containerName, blob.getKey());
-            }
+      });
+   }
+
+   @Transactional
+   protected int deleteBlobBatchOnce(String containerName, String prefix, String excludedKey,
+         boolean includeDirectories) {
+      ContainerEntity containerEntity = containerRepository.findContainerReferenceByName(containerName);
+      if (containerEntity == null) {
+         return 0;
+      }
+      List<Object[]> blobs = blobRepository.findBlobsToDelete(containerEntity, prefix, excludedKey,
+            includeDirectories, deleteBatchSize);
+      List<String> keys = Lists.newArrayListWithCapacity(blobs.size());
+      List<Long> payloadIds = Lists.newArrayListWithCapacity(blobs.size());
+      for (Object[] blob : blobs) {
+         keys.add((String) blob[0]);
+         if (blob[1] != null) {
+            payloadIds.add((Long) blob[1]);
          }
       }
+      Multiset<Long> chunkReferences = payloadRepository.findChunkReferences(payloadIds);
+      blobRepository.deleteBlobs(containerEntity, keys);
+      payloadRepository.deletePayloads(payloadIds);
+      chunkRepository.releaseChunks(chunkReferences);
+      return blobs.size();
+   }
+
+   public void deleteBlob(final String containerName, final String key) {
+      retryOnConflict(new Supplier<Void>() {
+         @Override
+         public Void get() {
+            deleteBlobOnce(containerName, key);
+            return null;
+         }
+      });
    }
 
+   /**
+    * Deletes a blob as it was read in this transaction: the delete fails with an optimistic lock
+    * exception if another transaction replaced the blob meanwhile, instead of releasing the chunks
+    * of a payload that is no longer the one being deleted.
+    */
    @Transactional
-   public void deleteBlob(String containerName, String key) {
+   protected void deleteBlobOnce(String containerName, String key) {
       BlobEntity blobEntity = findBlobById(containerName, key);
       if (blobEntity != null) {
          deleteChunks(blobEntity.getPayload().getChunks());
@@ -228,33 +922,271 @@ public class JdbcService {
       }
    }
 
+   public void setBlobAccessById(final String containerName, final String key, final BlobAccess access) {
+      retryOnConflict(new Supplier<Void>() {
+         @Override
+         public Void get() {
+            setBlobAccessByIdOnce(containerName, key, access);
+            return null;
+         }
+      });
+   }
+
    @Transactional
-   public void setBlobAccessById(String containerName, String key, BlobAccess access) {
+   protected void setBlobAccessByIdOnce(String containerName, String key, BlobAccess access) {
       BlobEntity blobEntity = findBlobById(containerName, key);
       blobEntity.setBlobAccess(access);
       blobRepository.save(blobEntity);
    }
 
+   /**
+    * Runs a write transaction and runs it again when it lost a race against a concurrent writer:
+    * when a blob it updates or deletes was changed since it was read, when another transaction
+    * inserted the same key first, or when the database gave up on a deadlock or a lock wait. Each
+    * attempt is rolled back as a whole and starts over from the rows as they are then. Retries wait
+    * for a randomly spread, growing delay, so this must not be called within a transaction.
+    */
+   private <T> T retryOnConflict(Supplier<T> transaction) {
+      long delay = writeRetryDelay;
+      for (int retry = 0; ; retry++) {
+         try {
+            return transaction.get();
+         } catch (RuntimeException e) {
+            if (retry >= writeRetries || !isConflict(e)) {
+               throw e;
+            }
+            try {
+               Thread.sleep(delay + (long) (random.nextDouble() * delay));
+            } catch (InterruptedException interrupted) {
+               Thread.currentThread().interrupt();
+               throw e;
+            }
+            delay *= 2;
+         }
+      }
+   }
+
+   /**
+    * Tells conflicts between concurrent transactions, which go away when the transaction is run
+    * again, from other failures.
+    */
+   private static boolean isConflict(Throwable e) {
+      for (Throwable cause = e; cause != null; cause = cause.getCause() == cause ? null : cause.getCause()) {
+         if (cause instanceof OptimisticLockException || cause instanceof EntityExistsException
+               || cause instanceof PessimisticLockException || cause instanceof LockTimeoutException) {
+            return true;
+         }
+         if (cause instanceof SQLException) {
+            String state = ((SQLException) cause).getSQLState();
+            // unique violations (a key inserted twice), serialization failures and deadlocks, and H2
+            // lock timeouts and concurrent updates of a row under MVCC; other integrity constraint
+            // violations do not go away on a retry
+            if (state != null && (state.equals("23505") || state.startsWith("40") || state.equals("HYT00")
+                  || state.equals("90131"))) {
+               return true;
+            }
+         }
+      }
+      return false;
+   }
+
    @Transactional
    private void deleteChunks(List<Long> chunkIds) {
-      for (Long chunkId : chunkIds) {
-         chunkRepository.delete(chunkRepository.find(chunkId));
+      if (chunkIds != null) {
+         // a payload holds a single reference on each distinct chunk it points at
+         chunkRepository.releaseChunks(ImmutableSet.copyOf(chunkIds));
       }
    }
 
-   @Transactional(rollbackOn = IOException.class)
+   /**
+    * Splits the data into chunks and stores them, each batch of chunks in a transaction of its own.
+    * Reading the data and writing the chunks overlap when a writer pool is available: batches are
+    * then written by up to {@code writeThreads} tasks at once while the next batch is being read.
+    * Chunks are still listed in the order of the data. If storing fails, the chunks of the batches
+    * committed so far are released.
+    */
    private List<Long> storeData(InputStream data) throws IOException {
-      ImmutableList.Builder<Long> chunks = ImmutableList.builder();
-      while (true) {
-         byte[] buffer = new byte[JdbcConstants.DEFAULT_CHUNK_SIZE];
-         int bytes = ByteStreams.read(data, buffer, 0, JdbcConstants.DEFAULT_CHUNK_SIZE);
-         if (bytes == 0) {
-            break;
-         } else if (bytes != buffer.length) {
-            buffer = Arrays.copyOf(buffer, bytes);
+      boolean parallel = userExecutor != null && writeThreads > 1;
+      List<ChunkEntity> chunks = Lists.newArrayList();
+      List<ChunkEntity> batch = Lists.newArrayListWithCapacity(writeBatchSize);
+      BlockingDeque<byte[]> buffers = new LinkedBlockingDeque<byte[]>();
+      Map<String, ChunkEntity> chunksByHash = Maps.newHashMap();
+      Semaphore writers = new Semaphore(writeThreads);
+      List<ListenableFuture<List<Long>>> writes = Lists.newArrayList();
+      try {
+         while (true) {
+            byte[] buffer = buffers.poll();
+            if (buffer == null) {
+               buffer = new byte[JdbcConstants.DEFAULT_CHUNK_SIZE];
+            }
+            int bytes = ByteStreams.read(data, buffer, 0, JdbcConstants.DEFAULT_CHUNK_SIZE);
+            if (bytes == 0) {
+               break;
+            }
+            String hash = deduplication ? Hashing.sha256().hashBytes(buffer, 0, bytes).toString() : null;
+            ChunkEntity chunk = hash == null ? null : chunksByHash.get(hash);
+            if (chunk != null) {
+               // Same data as an earlier chunk of this payload
+               buffers.push(buffer);
+            } else {
+               if (bytes != buffer.length) {
+                  buffers.push(buffer);
+                  buffer = Arrays.copyOf(buffer, bytes);
+               }
+               chunk = new ChunkEntity(buffer, bytes, hash);
+               if (hash != null) {
+                  chunksByHash.put(hash, chunk);
+               }
+               batch.add(chunk);
+            }
+            chunks.add(chunk);
+            if (batch.size() >= writeBatchSize) {
+               writes.add(writeChunks(batch, buffers, parallel ? writers : null));
+               batch = Lists.newArrayListWithCapacity(writeBatchSize);
+            }
+         }
+         writes.add(writeChunks(batch, buffers, parallel ? writers : null));
+         Futures.allAsList(writes).get();
+      } catch (InterruptedException e) {
+         Thread.currentThread().interrupt();
+         releaseWrittenChunks(writes);
+         throw new InterruptedIOException("Interrupted while storing chunks");
+      } catch (ExecutionException e) {
+         releaseWrittenChunks(writes);
+         Throwables.propagateIfPossible(e.getCause(), IOException.class);
+         throw new IOException(e.getCause());
+      } catch (IOException e) {
+         releaseWrittenChunks(writes);
+         throw e;
+      } catch (RuntimeException e) {
+         releaseWrittenChunks(writes);
+         throw e;
+      }
+
+      ImmutableList.Builder<Long> ids = ImmutableList.builder();
+      for (ChunkEntity chunk : chunks) {
+         ids.add(chunk.getId());
+      }
+      return ids.build();
+   }
+
+   /**
+    * Writes a batch of chunks and hands their full-sized buffers back to the pool once the data has
+    * been sent to the database. Without writer permits the batch is written by the current thread,
+    * otherwise it is written by the user executor once a permit is available.
+    *
+    * @return the ids of the chunks the batch holds a reference on once its transaction committed
+    */
+   private ListenableFuture<List<Long>> writeChunks(final List<ChunkEntity> batch,
+         final BlockingDeque<byte[]> buffers, final Semaphore writers) throws InterruptedException {
+      if (batch.isEmpty()) {
+         return Futures.<List<Long>>immediateFuture(ImmutableList.<Long>of());
+      }
+      if (writers == null) {
+         return Futures.immediateFuture(writeChunks(batch, buffers));
+      }
+      // bounds the chunks held in memory while the database is slower than the reader
+      writers.acquire();
+      try {
+         return userExecutor.submit(new Callable<List<Long>>() {
+            @Override
+            public List<Long> call() {
+               try {
+                  return writeChunks(batch, buffers);
+               } finally {
+                  writers.release();
+               }
+            }
+         });
+      } catch (RuntimeException e) {
+         writers.release();
+         throw e;
+      }
+   }
+
+   private List<Long> writeChunks(List<ChunkEntity> batch, BlockingDeque<byte[]> buffers) {
+      List<byte[]> fullBuffers = Lists.newArrayListWithCapacity(batch.size());
+      // chunks are deflated into a pooled buffer, only their compressed bytes are copied out of it
+      byte[] compressionBuffer = compression ? buffers.poll() : null;
+      if (compression && compressionBuffer == null) {
+         compressionBuffer = new byte[JdbcConstants.DEFAULT_CHUNK_SIZE];
+      }
+      for (ChunkEntity chunk : batch) {
+         byte[] data = chunk.getData();
+         if (data.length == JdbcConstants.DEFAULT_CHUNK_SIZE) {
+            fullBuffers.add(data);
+         }
+         byte[] compressed = compression ? ChunkCompression.compress(data, chunk.getSize(), compressionBuffer) : null;
+         if (compressed != null) {
+            chunk.setData(compressed);
+            chunk.setCompressed(true);
+         }
+      }
+      if (compressionBuffer != null) {
+         buffers.push(compressionBuffer);
+      }
+      try {
+         chunkWriter.writeChunks(batch);
+      } catch (RuntimeException e) {
+         // the ids were set before the transaction rolled back, reused chunks then belong to other
+         // payloads only and new chunks were never stored
+         for (ChunkEntity chunk : batch) {
+            chunk.setId(null);
+         }
+         throw e;
+      }
+      ImmutableList.Builder<Long> ids = ImmutableList.builder();
+      for (ChunkEntity chunk : batch) {
+         // the chunk may be referenced again later in the payload, only its id is needed from now on
+         chunk.setData(null);
+         ids.add(chunk.getId());
+      }
+      for (byte[] buffer : fullBuffers) {
+         buffers.push(buffer);
+      }
+      return ids.build();
+   }
+
+   /**
+    * Undoes the writes of a failed upload once the batches still being written are done. Only the
+    * references taken by committed batches are dropped: a failed batch was rolled back, and a batch
+    * still running when the wait is interrupted leaves its chunks to the {@link ChunkCollector}.
+    */
+   private void releaseWrittenChunks(List<ListenableFuture<List<Long>>> writes) {
+      try {
+         Futures.successfulAsList(writes).get();
+      } catch (InterruptedException e) {
+         Thread.currentThread().interrupt();
+      } catch (ExecutionException e) {
+         // successfulAsList does not fail
+      }
+      List<Long> written = Lists.newArrayList();
+      for (ListenableFuture<List<Long>> write : writes) {
+         if (write.isDone() && !write.isCancelled()) {
+            try {
+               written.addAll(Uninterruptibles.getUninterruptibly(write));
+            } catch (ExecutionException e) {
+               // the batch was rolled back
+            }
+         }
+      }
+      releaseChunksQuietly(written);
+   }
+
+   /**
+    * Drops the single reference a payload or part holds on each distinct chunk it points at,
+    * a batch of chunks per transaction. Failures are logged but not thrown: the chunks are then left
+    * to the {@link ChunkCollector}, while the caller reports the error that got it here, if any.
+    */
+   private void releaseChunksQuietly(List<Long> chunkIds) {
+      Set<Long> distinctChunks = ImmutableSet.copyOf(chunkIds);
+      try {
+         for (List<Long> batch : Iterables.partition(distinctChunks, deleteBatchSize)) {
+            chunkWriter.releaseChunks(batch);
          }
-         chunks.add(chunkRepository.create(new ChunkEntity(buffer, bytes)).getId());
+      } catch (RuntimeException e) {
+         // the collector reclaims the chunks nothing points at anymore after its grace period
+         logger.warn(e, "could not release the references on %d chunks", distinctChunks.size());
       }
-      return chunks.build();
    }
 }
@@ -0,0 +1,347 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jclouds.jdbc.service;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.google.common.collect.Ordering;
+import com.google.inject.Inject;
+import com.google.inject.Provider;
+import com.google.inject.Singleton;
+import com.google.inject.persist.Transactional;
+import org.jclouds.blobstore.reference.BlobStoreConstants;
+import org.jclouds.jdbc.entity.BlobEntity;
+import org.jclouds.jdbc.entity.MultipartPartEntity;
+import org.jclouds.jdbc.entity.PayloadEntity;
+import org.jclouds.jdbc.util.PackedColumns;
+import org.jclouds.logging.Logger;
+
+import javax.annotation.Resource;
+import javax.inject.Named;
+import javax.persistence.EntityManager;
+import javax.persistence.PersistenceException;
+import javax.persistence.Query;
+import java.sql.DatabaseMetaData;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Types;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Moves the chunk lists and user metadata of databases created before they were packed into the
+ * rows of their owners. Older schemas kept them in element collection tables with a row per chunk
+ * or metadata entry; their rows are packed batch by batch, each batch in a transaction of its own,
+ * and the tables are dropped once they are empty. Databases without these tables are left alone.
+ * <p>
+ * The columns of these tables were named by the persistence provider in some versions and
+ * explicitly in others, so they are looked up in the database metadata. The first versions kept
+ * chunk lists without an order column; chunk ids were allocated as the chunks were written, so
+ * their lists are restored in the order of the ids. A table whose columns cannot be told apart is
+ * reported and left in place rather than dropped.
+ */
+@Singleton
+public class SchemaMigration {
+
+   private static final int BATCH_SIZE = 500;
+
+   @Resource
+   @Named(BlobStoreConstants.BLOBSTORE_LOGGER)
+   protected Logger logger = Logger.NULL;
+
+   private final Provider<EntityManager> entityManager;
+
+   @Inject
+   SchemaMigration(Provider<EntityManager> entityManager) {
+      this.entityManager = entityManager;
+   }
+
+   public void migrate() {
+      migrateChunkLists("PayloadEntity_chunks", PayloadEntity.class);
+      migrateChunkLists("MultipartPartEntity_chunks", MultipartPartEntity.class);
+      migrateUserMetadata();
+   }
+
+   private void migrateChunkLists(String tableName, Class<?> ownerClass) {
+      LegacyTable table = findTable(tableName);
+      if (table == null) {
+         return;
+      }
+      String chunk = table.findColumn("chunks", "chunk_id");
+      String index = table.findColumn("chunks_ORDER", "chunk_index");
+      List<String> owners = table.otherColumns(chunk, index);
+      if (chunk == null || owners.size() != 1) {
+         logger.warn("cannot tell the columns %s of %s apart, leaving its chunk lists in place", table.columns.keySet(),
+               table.name);
+         return;
+      }
+      long migrated = 0;
+      int batch;
+      while ((batch = migrateChunkListBatch(table, owners.get(0), index, chunk, ownerClass)) > 0) {
+         migrated += batch;
+      }
+      dropTable(table);
+      logger.info("packed the chunk lists of %d rows of %s", migrated, ownerClass.getSimpleName());
+   }
+
+   private void migrateUserMetadata() {
+      LegacyTable table = findTable("BlobEntity_userMetadata");
+      if (table == null) {
+         return;
+      }
+      String value = table.findColumn("userMetadata", "metadata_value");
+      String key = table.findColumn("userMetadata_KEY", "metadata_key");
+      // the blob is referenced by its container id and its key, told apart by their types
+      String containerColumn = null;
+      String keyColumn = null;
+      for (String owner : table.otherColumns(value, key)) {
+         if (isNumeric(table.columns.get(owner))) {
+            containerColumn = containerColumn == null ? owner : null;
+         } else {
+            keyColumn = keyColumn == null ? owner : null;
+         }
+      }
+      if (value == null || key == null || containerColumn == null || keyColumn == null
+            || table.columns.size() != 4) {
+         logger.warn("cannot tell the columns %s of %s apart, leaving its user metadata in place",
+               table.columns.keySet(), table.name);
+         return;
+      }
+      long blobs = 0;
+      int migrated;
+      while ((migrated = migrateUserMetadataBatch(table, containerColumn, keyColumn, key, value)) > 0) {
+         blobs += migrated;
+      }
+      dropTable(table);
+      logger.info("packed the user metadata of %d blobs", blobs);
+   }
+
+   /**
+    * Looks up a table and its columns in the database metadata, whatever the case the database
+    * stored its name in.
+    *
+    * @return the table, or null if the database has no such table
+    */
+   @Transactional
+   protected LegacyTable findTable(String tableName) {
+      try {
+         DatabaseMetaData metaData = SchemaValidator.connection(entityManager.get()).getMetaData();
+         String storedName = null;
+         String schema = null;
+         ResultSet rows = metaData.getTables(null, null, null, new String[] { "TABLE" });
+         try {
+            while (storedName == null && rows.next()) {
+               if (tableName.equalsIgnoreCase(rows.getString("TABLE_NAME"))) {
+                  storedName = rows.getString("TABLE_NAME");
+                  schema = rows.getString("TABLE_SCHEM");
+               }
+            }
+         } finally {
+            rows.close();
+         }
+         if (storedName == null) {
+            return null;
+         }
+         Map<String, Integer> columns = Maps.newLinkedHashMap();
+         rows = metaData.getColumns(null, schema, storedName, null);
+         try {
+            while (rows.next()) {
+               // names are patterns, the underscores of the table name match any character
+               if (storedName.equals(rows.getString("TABLE_NAME"))) {
+                  columns.put(rows.getString("COLUMN_NAME"), rows.getInt("DATA_TYPE"));
+               }
+            }
+         } finally {
+            rows.close();
+         }
+         String quote = metaData.getIdentifierQuoteString();
+         return new LegacyTable(storedName, columns, quote == null ? "" : quote.trim());
+      } catch (SQLException e) {
+         throw new PersistenceException(e);
+      }
+   }
+
+   @Transactional
+   protected void dropTable(LegacyTable table) {
+      entityManager.get().createNativeQuery("DROP TABLE " + table.quote(table.name)).executeUpdate();
+   }
+
+   /**
+    * Packs the chunk lists of a batch of owners and removes their rows from the legacy table.
+    *
+    * @param indexColumn the position of a chunk in its list, or null to order lists by chunk id
+    * @return the number of owners migrated, zero once the table is empty
+    */
+   @Transactional
+   protected int migrateChunkListBatch(LegacyTable table, String ownerColumn, String indexColumn, String chunkColumn,
+         Class<?> ownerClass) {
+      EntityManager em = entityManager.get();
+      String owner = table.quote(ownerColumn);
+      List<Long> ownerIds = toLongs(em.createNativeQuery("SELECT DISTINCT " + owner + " FROM "
+            + table.quote(table.name) + " ORDER BY " + owner)
+            .setMaxResults(BATCH_SIZE)
+            .getResultList());
+      if (ownerIds.isEmpty()) {
+         return 0;
+      }
+      String inClause = inClause(ownerIds.size());
+      Query select = em.createNativeQuery("SELECT " + owner + ", " + table.quote(chunkColumn) + " FROM "
+            + table.quote(table.name) + " WHERE " + owner + " IN " + inClause + " ORDER BY " + owner + ", "
+            + table.quote(indexColumn != null ? indexColumn : chunkColumn));
+      List<?> rows = bind(select, ownerIds).getResultList();
+      Map<Long, List<Long>> chunkLists = Maps.newLinkedHashMap();
+      for (Long ownerId : ownerIds) {
+         chunkLists.put(ownerId, Lists.<Long>newArrayList());
+      }
+      for (Object row : rows) {
+         Object[] columns = (Object[]) row;
+         if (columns[1] != null) {
+            chunkLists.get(((Number) columns[0]).longValue()).add(((Number) columns[1]).longValue());
+         }
+      }
+      for (Map.Entry<Long, List<Long>> entry : chunkLists.entrySet()) {
+         List<Long> chunks = entry.getValue();
+         em.createQuery("UPDATE " + ownerClass.getName() + " o SET o.chunks = :chunks, "
+               + "o.minChunkId = :minChunkId, o.maxChunkId = :maxChunkId WHERE o.id = :id")
+               .setParameter("chunks", PackedColumns.packChunkIds(chunks))
+               .setParameter("minChunkId", chunks.isEmpty() ? null : Ordering.natural().min(chunks))
+               .setParameter("maxChunkId", chunks.isEmpty() ? null : Ordering.natural().max(chunks))
+               .setParameter("id", entry.getKey())
+               .executeUpdate();
+      }
+      bind(em.createNativeQuery("DELETE FROM " + table.quote(table.name) + " WHERE " + owner + " IN " + inClause),
+            ownerIds).executeUpdate();
+      return ownerIds.size();
+   }
+
+   /**
+    * Packs the user metadata of a batch of blobs and removes their rows from the legacy table.
+    *
+    * @return the number of blobs migrated, zero once the table is empty
+    */
+   @Transactional
+   protected int migrateUserMetadataBatch(LegacyTable table, String containerColumn, String keyColumn,
+         String metadataKeyColumn, String metadataValueColumn) {
+      EntityManager em = entityManager.get();
+      String tableName = table.quote(table.name);
+      String owner = table.quote(containerColumn) + " = ?1 AND " + table.quote(keyColumn) + " = ?2";
+      List<?> blobs = em.createNativeQuery("SELECT DISTINCT " + table.quote(containerColumn) + ", "
+            + table.quote(keyColumn) + " FROM " + tableName + " ORDER BY " + table.quote(containerColumn) + ", "
+            + table.quote(keyColumn))
+            .setMaxResults(BATCH_SIZE)
+            .getResultList();
+      for (Object blob : blobs) {
+         Object[] columns = (Object[]) blob;
+         Long containerId = ((Number) columns[0]).longValue();
+         String key = (String) columns[1];
+         List<?> rows = em.createNativeQuery("SELECT " + table.quote(metadataKeyColumn) + ", "
+               + table.quote(metadataValueColumn) + " FROM " + tableName + " WHERE " + owner)
+               .setParameter(1, containerId)
+               .setParameter(2, key)
+               .getResultList();
+         Map<String, String> userMetadata = Maps.newLinkedHashMap();
+         for (Object row : rows) {
+            userMetadata.put((String) ((Object[]) row)[0], (String) ((Object[]) row)[1]);
+         }
+         em.createQuery("UPDATE " + BlobEntity.class.getName() + " b SET b.userMetadata = :userMetadata "
+               + "WHERE b.containerEntity.id = :containerId AND b.key = :key")
+               .setParameter("userMetadata", PackedColumns.packUserMetadata(userMetadata))
+               .setParameter("containerId", containerId)
+               .setParameter("key", key)
+               .executeUpdate();
+         em.createNativeQuery("DELETE FROM " + tableName + " WHERE " + owner)
+               .setParameter(1, containerId)
+               .setParameter(2, key)
+               .executeUpdate();
+      }
+      return blobs.size();
+   }
+
+   private static boolean isNumeric(int type) {
+      return type == Types.BIGINT || type == Types.INTEGER || type == Types.SMALLINT || type == Types.NUMERIC
+            || type == Types.DECIMAL;
+   }
+
+   private static String inClause(int size) {
+      StringBuilder sql = new StringBuilder("(");
+      for (int i = 1; i <= size; i++) {
+         sql.append(i == 1 ? "?" : ", ?").append(i);
+      }
+      return sql.append(")").toString();
+   }
+
+   private static Query bind(Query query, List<Long> values) {
+      for (int i = 0; i < values.size(); i++) {
+         query.setParameter(i + 1, values.get(i));
+      }
+      return query;
+   }
+
+   private static List<Long> toLongs(List<?> values) {
+      ImmutableList.Builder<Long> result = ImmutableList.builder();
+      for (Object value : values) {
+         result.add(((Number) value).longValue());
+      }
+      return result.build();
+   }
+
+   /**
+    * A legacy table as stored in the database, with its columns and their SQL types in column order.
+    */
+   static final class LegacyTable {
+
+      private final String name;
+      private final Map<String, Integer> columns;
+      private final String quote;
+
+      LegacyTable(String name, Map<String, Integer> columns, String quote) {
+         this.name = name;
+         this.columns = columns;
+         this.quote = quote;
+      }
+
+      /**
+       * @return the first column named like one of the given names, ignoring case, or null
+       */
+      String findColumn(String... names) {
+         for (String name : names) {
+            for (String column : columns.keySet()) {
+               if (column.equalsIgnoreCase(name)) {
+                  return column;
+               }
+            }
+         }
+         return null;
+      }
+
+      /**
+       * @return the columns other than the given ones
+       */
+      List<String> otherColumns(String... excluded) {
+         List<String> result = Lists.newArrayList(columns.keySet());
+         result.removeAll(Arrays.asList(excluded));
+         return result;
+      }
+
+      String quote(String identifier) {
+         return quote + identifier + quote;
+      }
+   }
+
+}
@@ -0,0 +1,203 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jclouds.jdbc.service;
+
+import com.google.common.base.Joiner;
+import com.google.common.base.Splitter;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.google.inject.Inject;
+import com.google.inject.Provider;
+import com.google.inject.Singleton;
+import com.google.inject.persist.Transactional;
+import org.jclouds.blobstore.reference.BlobStoreConstants;
+import org.jclouds.logging.Logger;
+
+import javax.annotation.Resource;
+import javax.inject.Named;
+import javax.persistence.EntityManager;
+import javax.persistence.Index;
+import javax.persistence.PersistenceException;
+import javax.persistence.Table;
+import javax.persistence.metamodel.EntityType;
+import java.lang.reflect.InvocationTargetException;
+import java.sql.Connection;
+import java.sql.DatabaseMetaData;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * Checks that the indexes declared on the entities exist in the database. Schemas managed outside
+ * of the persistence provider easily miss them, and without them lookups scan whole tables, so
+ * missing indexes are reported when the persistence unit starts. An index counts as present when
+ * some index or the primary key of the table starts with its columns.
+ */
+@Singleton
+public class SchemaValidator {
+
+   @Resource
+   @Named(BlobStoreConstants.BLOBSTORE_LOGGER)
+   protected Logger logger = Logger.NULL;
+
+   private final Provider<EntityManager> entityManager;
+
+   @Inject
+   SchemaValidator(Provider<EntityManager> entityManager) {
+      this.entityManager = entityManager;
+   }
+
+   /**
+    * Logs a warning for each declared index the database lacks.
+    */
+   public void validate() {
+      List<String> missing;
+      try {
+         missing = findMissingIndexes();
+      } catch (RuntimeException e) {
+         logger.warn(e, "could not read the indexes of the database, skipping schema validation");
+         return;
+      }
+      for (String index : missing) {
+         logger.warn("index %s is missing, queries relying on it scan the whole table", index);
+      }
+   }
+
+   /**
+    * @return the declared indexes the database lacks, as {@code table(columns)}
+    */
+   @Transactional
+   public List<String> findMissingIndexes() {
+      EntityManager em = entityManager.get();
+      try {
+         DatabaseMetaData metaData = connection(em).getMetaData();
+         ImmutableList.Builder<String> missing = ImmutableList.builder();
+         for (EntityType<?> entity : em.getMetamodel().getEntities()) {
+            Table table = entity.getJavaType().getAnnotation(Table.class);
+            if (table == null || table.indexes().length == 0) {
+               continue;
+            }
+            String tableName = table.name().isEmpty() ? entity.getName() : table.name();
+            List<List<String>> existing = findIndexes(metaData, tableName);
+            for (Index index : table.indexes()) {
+               List<String> columns = parseColumnList(index.columnList());
+               if (!isCovered(columns, existing)) {
+                  missing.add(tableName + "(" + Joiner.on(", ").join(columns) + ")");
+               }
+            }
+         }
+         return missing.build();
+      } catch (SQLException e) {
+         throw new PersistenceException(e);
+      }
+   }
+
+   /**
+    * @return the columns of each index and of the primary key of a table, in index order
+    */
+   private static List<List<String>> findIndexes(DatabaseMetaData metaData, String tableName) throws SQLException {
+      String storedName = metaData.storesUpperCaseIdentifiers() ? tableName.toUpperCase(Locale.ENGLISH)
+            : metaData.storesLowerCaseIdentifiers() ? tableName.toLowerCase(Locale.ENGLISH) : tableName;
+      Map<String, Map<Short, String>> indexes = Maps.newHashMap();
+      ResultSet rows = metaData.getIndexInfo(null, null, storedName, false, true);
+      try {
+         while (rows.next()) {
+            addColumn(indexes, "index " + rows.getString("INDEX_NAME"), rows.getShort("ORDINAL_POSITION"),
+                  rows.getString("COLUMN_NAME"));
+         }
+      } finally {
+         rows.close();
+      }
+      rows = metaData.getPrimaryKeys(null, null, storedName);
+      try {
+         while (rows.next()) {
+            addColumn(indexes, "primary key", rows.getShort("KEY_SEQ"), rows.getString("COLUMN_NAME"));
+         }
+      } finally {
+         rows.close();
+      }
+      List<List<String>> result = Lists.newArrayList();
+      for (Map<Short, String> columns : indexes.values()) {
+         result.add(ImmutableList.copyOf(columns.values()));
+      }
+      return result;
+   }
+
+   private static void addColumn(Map<String, Map<Short, String>> indexes, String index, short position,
+         String column) {
+      if (column == null) {
+         // table statistics rows carry no column
+         return;
+      }
+      Map<Short, String> columns = indexes.get(index);
+      if (columns == null) {
+         columns = Maps.newTreeMap();
+         indexes.put(index, columns);
+      }
+      columns.put(position, column.toLowerCase(Locale.ENGLISH));
+   }
+
+   private static boolean isCovered(List<String> columns, List<List<String>> indexes) {
+      for (List<String> index : indexes) {
+         if (index.size() >= columns.size() && index.subList(0, columns.size()).equals(columns)) {
+            return true;
+         }
+      }
+      return false;
+   }
+
+   private static List<String> parseColumnList(String columnList) {
+      ImmutableList.Builder<String> columns = ImmutableList.builder();
+      for (String column : Splitter.on(',').trimResults().omitEmptyStrings().split(columnList)) {
+         // the sort order does not matter for finding the index
+         columns.add(column.split("\\s+")[0].toLowerCase(Locale.ENGLISH));
+      }
+      return columns.build();
+   }
+
+   /**
+    * Reaches the connection of the current transaction. JPA has no standard way to do so: some
+    * providers unwrap it from the entity manager, Hibernate exposes it on its session.
+    */
+   static Connection connection(EntityManager em) {
+      try {
+         Connection connection = em.unwrap(Connection.class);
+         if (connection != null) {
+            return connection;
+         }
+      } catch (PersistenceException e) {
+         // fall through
+      } catch (IllegalArgumentException e) {
+         // fall through
+      }
+      Object delegate = em.getDelegate();
+      try {
+         return (Connection) delegate.getClass().getMethod("connection").invoke(delegate);
+      } catch (NoSuchMethodException e) {
+         throw new PersistenceException("cannot reach the JDBC connection of " + delegate.getClass().getName(), e);
+      } catch (IllegalAccessException e) {
+         throw new PersistenceException("cannot reach the JDBC connection of " + delegate.getClass().getName(), e);
+      } catch (InvocationTargetException e) {
+         throw new PersistenceException("cannot reach the JDBC connection of " + delegate.getClass().getName(),
+               e.getCause());
+      }
+   }
+
+}
@@ -17,37 +17,64 @@
 package org.jclouds.jdbc.strategy;
 
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
 import java.sql.SQLException;
 import java.util.Collection;
 import java.util.List;
+import java.util.SortedSet;
+import java.util.UUID;
 
 import javax.inject.Inject;
 import javax.inject.Provider;
 import javax.persistence.PersistenceException;
 
+import org.jclouds.blobstore.ContainerNotFoundException;
+import org.jclouds.blobstore.KeyNotFoundException;
 import org.jclouds.blobstore.LocalStorageStrategy;
 import org.jclouds.blobstore.domain.Blob;
 import org.jclouds.blobstore.domain.BlobAccess;
 import org.jclouds.blobstore.domain.BlobBuilder;
+import org.jclouds.blobstore.domain.BlobMetadata;
 import org.jclouds.blobstore.domain.ContainerAccess;
+import org.jclouds.blobstore.domain.MultipartPart;
+import org.jclouds.blobstore.domain.MultipartUpload;
 import org.jclouds.blobstore.domain.MutableStorageMetadata;
+import org.jclouds.blobstore.domain.PageSet;
 import org.jclouds.blobstore.domain.StorageMetadata;
 import org.jclouds.blobstore.domain.StorageType;
 import org.jclouds.blobstore.domain.internal.MutableStorageMetadataImpl;
+import org.jclouds.blobstore.domain.internal.PageSetImpl;
+import org.jclouds.blobstore.options.CopyOptions;
 import org.jclouds.blobstore.options.CreateContainerOptions;
 import org.jclouds.blobstore.options.ListContainerOptions;
+import org.jclouds.blobstore.options.PutOptions;
 import org.jclouds.domain.Location;
 import org.jclouds.domain.LocationBuilder;
 import org.jclouds.domain.LocationScope;
+import org.jclouds.http.HttpResponseException;
 import org.jclouds.io.ContentMetadata;
-import org.jclouds.jdbc.conversion.BlobEntityToBlob;
+import org.jclouds.io.Payload;
+import org.jclouds.jdbc.conversion.BlobSummaryToBlob;
+import org.jclouds.jdbc.domain.BlobSummary;
 import org.jclouds.jdbc.entity.BlobEntity;
 import org.jclouds.jdbc.entity.ContainerEntity;
+import org.jclouds.jdbc.entity.MultipartPartEntity;
+import org.jclouds.jdbc.entity.MultipartUploadEntity;
 import org.jclouds.jdbc.predicates.validators.JdbcBlobKeyValidator;
 import org.jclouds.jdbc.predicates.validators.JdbcContainerNameValidator;
+import org.jclouds.jdbc.service.BlobMetadataCache;
+import org.jclouds.jdbc.service.ContainerArchiver;
 import org.jclouds.jdbc.service.JdbcService;
 
+import com.google.common.base.Optional;
+import com.google.common.base.Predicates;
 import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Iterables;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Sets;
+
+import static com.google.common.base.Preconditions.checkArgument;
 
 /**
  * JdbcStorageStrategy implements a blob store that stores objects
@@ -60,19 +87,24 @@ public class JdbcStorageStrategy implements LocalStorageStrategy {
    private final JdbcService jdbcService;
    private final JdbcContainerNameValidator jdbcContainerNameValidator;
    private final JdbcBlobKeyValidator jdbcBlobKeyValidator;
-   private final BlobEntityToBlob blobEntityToBlob;
+   private final BlobSummaryToBlob blobSummaryToBlob;
+   private final BlobMetadataCache metadataCache;
+   private final ContainerArchiver containerArchiver;
    private final Location mockLocation;
 
    @Inject
    JdbcStorageStrategy(Provider<BlobBuilder> blobBuilders,
          JdbcContainerNameValidator jdbcContainerNameValidator, JdbcBlobKeyValidator jdbcBlobKeyValidator,
-         JdbcService jdbcService, BlobEntityToBlob blobEntityToBlob)
+         JdbcService jdbcService, BlobSummaryToBlob blobSummaryToBlob, BlobMetadataCache metadataCache,
+         ContainerArchiver containerArchiver)
          throws ClassNotFoundException, IllegalAccessException, InstantiationException, SQLException {
       this.jdbcService = jdbcService;
       this.blobBuilders = blobBuilders;
       this.jdbcContainerNameValidator = jdbcContainerNameValidator;
       this.jdbcBlobKeyValidator = jdbcBlobKeyValidator;
-      this.blobEntityToBlob = blobEntityToBlob;
+      this.blobSummaryToBlob = blobSummaryToBlob;
+      this.metadataCache = metadataCache;
+      this.containerArchiver = containerArchiver;
       this.mockLocation = new LocationBuilder()
             .id("jdbc")
             .scope(LocationScope.PROVIDER)
@@ -163,8 +195,12 @@ public class JdbcStorageStrategy implements LocalStorageStrategy {
    @Override
    public void deleteContainer(String container) {
       jdbcContainerNameValidator.validate(container);
-      jdbcService.deleteBlobsByContainer(container);
-      jdbcService.deleteContainerByName(container);
+      try {
+         jdbcService.deleteBlobsByContainer(container);
+         jdbcService.deleteContainerByName(container);
+      } finally {
+         metadataCache.invalidateAll();
+      }
    }
 
    /**
@@ -174,7 +210,11 @@ public class JdbcStorageStrategy implements LocalStorageStrategy {
     */
    @Override
    public void clearContainer(String container) {
-      jdbcService.deleteBlobsByContainer(container);
+      try {
+         jdbcService.deleteBlobsByContainer(container);
+      } finally {
+         metadataCache.invalidateAll();
+      }
    }
 
    /**
@@ -186,7 +226,11 @@ public class JdbcStorageStrategy implements LocalStorageStrategy {
    @Override
    public void clearContainer(String container, ListContainerOptions options) {
       if (options.getDir() != null) {
-         jdbcService.deleteBlobsByDirectory(container, options.getDir(), true);
+         try {
+            jdbcService.deleteBlobsByDirectory(container, options.getDir(), true);
+         } finally {
+            metadataCache.invalidateAll();
+         }
       }
       else {
          clearContainer(container);
@@ -224,7 +268,7 @@ public class JdbcStorageStrategy implements LocalStorageStrategy {
    public boolean blobExists(String container, String key) {
       jdbcContainerNameValidator.validate(container);
       jdbcBlobKeyValidator.validate(key);
-      return jdbcService.blobExists(container, key);
+      return findBlobSummary(container, key) != null;
    }
 
    /**
@@ -235,12 +279,76 @@ public class JdbcStorageStrategy implements LocalStorageStrategy {
     */
    @Override
    public Iterable<String> getBlobKeysInsideContainer(String container) throws IOException {
-      List<BlobEntity> blobEntities = jdbcService.findBlobsByContainer(container);
-      ImmutableList.Builder<String> result = ImmutableList.builder();
-      for (BlobEntity blobEntity : blobEntities) {
-         result.add(blobEntity.getKey());
+      return jdbcService.findBlobKeysByContainer(container);
+   }
+
+   /**
+    * Lists a single page of a container. The prefix, the marker and the page size are pushed down
+    * to the key query, and keys rolled up under a delimiter are skipped by seeking past their
+    * common prefix, so only the keys of the page are read and only their metadata is loaded.
+    *
+    * @param container the name of the container
+    * @param prefix only keys starting with this prefix are listed, never the prefix itself
+    * @param delimiter keys containing the delimiter after the prefix are rolled up, or null to list all keys
+    * @param marker only entries after this name are listed, or null to start from the beginning
+    * @param maxResults the maximum number of entries in the page
+    * @param detailed whether the user metadata of the blobs is kept
+    * @return the page, with the name of its last entry as marker if more entries follow
+    */
+   public PageSet<? extends StorageMetadata> list(String container, String prefix, String delimiter, String marker,
+         int maxResults, boolean detailed) {
+      checkArgument(delimiter == null || !delimiter.isEmpty(), "delimiter must not be empty");
+      List<String> keys = Lists.newArrayList();
+      SortedSet<String> commonPrefixes = Sets.newTreeSet();
+      String after = marker != null && marker.compareTo(prefix) > 0 ? marker : prefix;
+      boolean inclusive = false;
+      while (maxResults > 0 && keys.size() + commonPrefixes.size() <= maxResults) {
+         int limit = maxResults + 1 - keys.size() - commonPrefixes.size();
+         List<String> batch = jdbcService.findBlobKeys(container, prefix, after, inclusive, limit);
+         boolean seek = false;
+         for (String key : batch) {
+            int index = delimiter == null ? -1 : key.indexOf(delimiter, prefix.length());
+            if (index == -1) {
+               keys.add(key);
+               after = key;
+               inclusive = false;
+            } else {
+               String commonPrefix = key.substring(0, index + delimiter.length());
+               if (marker == null || commonPrefix.compareTo(marker) > 0) {
+                  commonPrefixes.add(commonPrefix);
+               }
+               after = keysAfter(commonPrefix);
+               inclusive = true;
+               seek = true;
+               break;
+            }
+         }
+         if (!seek && batch.size() < limit) {
+            break;
+         }
       }
-      return result.build();
+
+      SortedSet<String> names = Sets.newTreeSet(Iterables.concat(keys, commonPrefixes));
+      String nextMarker = null;
+      if (names.size() > maxResults) {
+         names = names.headSet(names.last());
+         nextMarker = names.last();
+      }
+
+      SortedSet<StorageMetadata> contents = Sets.newTreeSet();
+      List<String> pageKeys = Lists.newArrayList(Iterables.filter(keys, Predicates.in(names)));
+      for (BlobSummary summary : jdbcService.findBlobSummariesByKeys(container, pageKeys, detailed)) {
+         contents.add(blobSummaryToBlob.apply(summary).getMetadata());
+      }
+      for (String commonPrefix : commonPrefixes) {
+         if (names.contains(commonPrefix)) {
+            MutableStorageMetadata metadata = new MutableStorageMetadataImpl();
+            metadata.setType(StorageType.RELATIVE_PATH);
+            metadata.setName(commonPrefix);
+            contents.add(metadata);
+         }
+      }
+      return new PageSetImpl<StorageMetadata>(contents, nextMarker);
    }
 
    /**
@@ -252,7 +360,52 @@ public class JdbcStorageStrategy implements LocalStorageStrategy {
     */
    @Override
    public Blob getBlob(String container, String key) {
-      return blobEntityToBlob.apply(jdbcService.findBlobById(container, key));
+      BlobSummary summary = findBlobSummary(container, key);
+      if (summary == null || summary.isDirectory() || summary.getInlineData() != null) {
+         return blobSummaryToBlob.apply(summary);
+      }
+      // the chunk list is resolved along with the metadata, a payload replaced after the blob was
+      // fetched then no longer keeps its content from being read
+      List<Long> chunks = jdbcService.findChunkIdsByPayloadId(summary.getPayloadId());
+      if (chunks == null) {
+         // the blob was replaced since its summary was read or cached, read the current one
+         metadataCache.invalidate(container, key);
+         summary = findBlobSummary(container, key);
+         if (summary == null || summary.isDirectory() || summary.getInlineData() != null) {
+            return blobSummaryToBlob.apply(summary);
+         }
+         chunks = jdbcService.findChunkIdsByPayloadId(summary.getPayloadId());
+      }
+      return blobSummaryToBlob.apply(summary, chunks);
+   }
+
+   /**
+    * Gets the stored summary of a blob without building its payload, so no chunk is looked up. Used
+    * to evaluate conditional requests before the content is touched.
+    *
+    * @param container the name of the container containing the blob
+    * @param key the key of the blob
+    * @return the summary of the blob or null if the blob does not exist
+    */
+   public BlobSummary getBlobSummary(String container, String key) {
+      jdbcContainerNameValidator.validate(container);
+      jdbcBlobKeyValidator.validate(key);
+      return findBlobSummary(container, key);
+   }
+
+   /**
+    * Looks up the summary of a blob in the metadata cache, and in the database on a miss. Writes go
+    * through {@link JdbcService} and invalidate the cached summary once they are committed.
+    */
+   private BlobSummary findBlobSummary(String container, String key) {
+      Optional<BlobSummary> cached = metadataCache.getIfPresent(container, key);
+      if (cached != null) {
+         return cached.orNull();
+      }
+      long generation = metadataCache.generation(container, key);
+      BlobSummary summary = jdbcService.findBlobSummary(container, key);
+      metadataCache.put(container, key, summary, generation);
+      return summary;
    }
 
    /**
@@ -267,7 +420,37 @@ public class JdbcStorageStrategy implements LocalStorageStrategy {
       String key = blob.getMetadata().getName();
       jdbcContainerNameValidator.validate(container);
       jdbcBlobKeyValidator.validate(key);
-      return jdbcService.createOrModifyBlob(container, blob).getEtag();
+      try {
+         return jdbcService.createOrModifyBlob(container, blob).getEtag();
+      } finally {
+         metadataCache.invalidate(container, key);
+      }
+   }
+
+   /**
+    * Copies a blob. The copy points at the stored content of the source, no content is read or
+    * written.
+    *
+    * @param options the conditions on the source and the metadata of the copy, metadata left out
+    *        is kept from the source
+    * @return the etag of the copy
+    * @throws KeyNotFoundException if the source blob does not exist
+    * @throws HttpResponseException if a condition does not hold for the source
+    */
+   public String copyBlob(String fromContainer, String fromName, String toContainer, String toName,
+         CopyOptions options) {
+      jdbcContainerNameValidator.validate(toContainer);
+      jdbcBlobKeyValidator.validate(toName);
+      BlobEntity copy;
+      try {
+         copy = jdbcService.copyBlob(fromContainer, fromName, toContainer, toName, options);
+      } finally {
+         metadataCache.invalidate(toContainer, toName);
+      }
+      if (copy == null) {
+         throw new KeyNotFoundException(fromContainer, fromName, "while copying");
+      }
+      return copy.getEtag();
    }
 
    /**
@@ -278,7 +461,11 @@ public class JdbcStorageStrategy implements LocalStorageStrategy {
     */
    @Override
    public void removeBlob(String container, String key) {
-      jdbcService.deleteBlob(container, key);
+      try {
+         jdbcService.deleteBlob(container, key);
+      } finally {
+         metadataCache.invalidate(container, key);
+      }
    }
 
    /**
@@ -333,8 +520,7 @@ public class JdbcStorageStrategy implements LocalStorageStrategy {
     * @return the number of blobs in the container
     */
    public long countBlobs(String container, ListContainerOptions options) {
-      return options.getDir() == null ? jdbcService.findBlobsByContainer(container).size()
-             : jdbcService.findBlobsByDirectory(container, options.getDir(), options.isRecursive()).size();
+      return jdbcService.countBlobs(container, options.getDir(), options.isRecursive());
    }
 
    /**
@@ -345,9 +531,16 @@ public class JdbcStorageStrategy implements LocalStorageStrategy {
     * @return true if the directory exists, false otherwise
     */
    public boolean directoryExists(String container, String directory) {
-      Blob blob = getBlob(container, directory);
-      return blob != null && "application/directory".equals(
-            blob.getMetadata().getContentMetadata().getContentType());
+      return jdbcService.directoryExists(container, directory);
+   }
+
+   /**
+    * Returns the smallest string that sorts after every string starting with the given prefix.
+    */
+   private static String keysAfter(String prefix) {
+      char last = prefix.charAt(prefix.length() - 1);
+      checkArgument(last != Character.MAX_VALUE, "cannot seek past prefix %s", prefix);
+      return prefix.substring(0, prefix.length() - 1) + (char) (last + 1);
    }
 
    /**
@@ -365,7 +558,44 @@ public class JdbcStorageStrategy implements LocalStorageStrategy {
          throw new IllegalArgumentException(
                "Directory blob cannot have content: " + blobKey);
       }
-      return jdbcService.createDirectoryBlob(container, blob).getEtag();
+      try {
+         return jdbcService.createDirectoryBlob(container, blob).getEtag();
+      } finally {
+         metadataCache.invalidate(container, blobKey);
+      }
+   }
+
+   /**
+    * Writes every blob of a container to a tar archive, see {@link ContainerArchiver} for its layout.
+    *
+    * @param container the name of the container to export
+    * @param out the stream the archive is written to, left open
+    * @return the number of blobs exported
+    */
+   public long exportContainer(String container, OutputStream out) throws IOException {
+      if (!containerExists(container)) {
+         throw new ContainerNotFoundException(container, "container " + container + " does not exist");
+      }
+      return containerArchiver.exportContainer(container, out);
+   }
+
+   /**
+    * Stores the content of a tar archive as blobs of a container, creating the container if it does
+    * not exist. Blobs with the same keys as entries of the archive are replaced.
+    *
+    * @param container the name of the container to import into
+    * @param in the stream the archive is read from, left open
+    * @return the number of blobs imported
+    */
+   public long importContainer(String container, InputStream in) throws IOException {
+      if (!containerExists(container)) {
+         jdbcService.createContainer(container);
+      }
+      try {
+         return containerArchiver.importContainer(container, in);
+      } finally {
+         metadataCache.invalidateAll();
+      }
    }
 
    /**
@@ -389,8 +619,121 @@ public class JdbcStorageStrategy implements LocalStorageStrategy {
    public void deleteDirectory(String container, String directory) {
       BlobEntity entity = jdbcService.findBlobById(container, directory);
       if (entity != null && entity.isDirectory()) {
-         jdbcService.deleteBlob(container, directory);
+         try {
+            jdbcService.deleteBlob(container, directory);
+         } finally {
+            metadataCache.invalidate(container, directory);
+         }
+      }
+   }
+
+   /**
+    * Starts a multipart upload. Its parts are stored as they arrive and become a blob once the
+    * upload is completed.
+    *
+    * @param container the name of the container
+    * @param blobMetadata the metadata of the blob to create
+    * @param options the options the blob is stored with
+    * @return the upload
+    */
+   public MultipartUpload initiateMultipartUpload(String container, BlobMetadata blobMetadata, PutOptions options) {
+      jdbcContainerNameValidator.validate(container);
+      jdbcBlobKeyValidator.validate(blobMetadata.getName());
+      String uploadId = UUID.randomUUID().toString();
+      jdbcService.createMultipartUpload(container, uploadId, blobMetadata.getName());
+      return MultipartUpload.create(container, blobMetadata.getName(), uploadId, blobMetadata, options);
+   }
+
+   /**
+    * Stores a part of a multipart upload
+    *
+    * @param mpu the upload
+    * @param partNumber the number of the part, a part uploaded again replaces the previous one
+    * @param payload the content of the part
+    * @return the stored part
+    */
+   public MultipartPart uploadMultipartPart(MultipartUpload mpu, int partNumber, Payload payload)
+         throws IOException {
+      if (jdbcService.findMultipartUpload(mpu.id()) == null) {
+         throw new KeyNotFoundException(mpu.containerName(), mpu.blobName(),
+               "multipart upload " + mpu.id() + " does not exist");
+      }
+      return toMultipartPart(jdbcService.createOrModifyMultipartPart(mpu.id(), partNumber, payload));
+   }
+
+   /**
+    * Completes a multipart upload. The blob is made of the chunks already stored for its parts,
+    * no content is copied.
+    *
+    * @param mpu the upload
+    * @param parts the parts making up the blob, in order
+    * @return the blob's etag
+    */
+   public String completeMultipartUpload(MultipartUpload mpu, List<MultipartPart> parts) {
+      Blob blob = blobBuilders.get().name(mpu.blobName()).payload(new byte[0]).build();
+      BlobMetadata blobMetadata = mpu.blobMetadata();
+      if (blobMetadata != null) {
+         ContentMetadata contentMetadata = blobMetadata.getContentMetadata();
+         blob.getMetadata().setUserMetadata(blobMetadata.getUserMetadata());
+         blob.getMetadata().getContentMetadata().setCacheControl(contentMetadata.getCacheControl());
+         blob.getMetadata().getContentMetadata().setContentType(contentMetadata.getContentType());
+         blob.getMetadata().getContentMetadata().setContentDisposition(contentMetadata.getContentDisposition());
+         blob.getMetadata().getContentMetadata().setContentEncoding(contentMetadata.getContentEncoding());
+         blob.getMetadata().getContentMetadata().setContentLanguage(contentMetadata.getContentLanguage());
+         blob.getMetadata().getContentMetadata().setExpires(contentMetadata.getExpires());
+      }
+      List<Integer> partNumbers = Lists.newArrayListWithCapacity(parts.size());
+      for (MultipartPart part : parts) {
+         partNumbers.add(part.partNumber());
+      }
+      BlobAccess blobAccess = mpu.putOptions() == null ? BlobAccess.PRIVATE : mpu.putOptions().getBlobAccess();
+      try {
+         return jdbcService.completeMultipartUpload(mpu.containerName(), mpu.id(), blob, partNumbers, blobAccess)
+               .getEtag();
+      } finally {
+         metadataCache.invalidate(mpu.containerName(), mpu.blobName());
       }
    }
 
+   /**
+    * Aborts a multipart upload and deletes its parts
+    *
+    * @param mpu the upload
+    */
+   public void abortMultipartUpload(MultipartUpload mpu) {
+      jdbcService.abortMultipartUpload(mpu.id());
+   }
+
+   /**
+    * Lists the parts stored for a multipart upload
+    *
+    * @param mpu the upload
+    * @return the parts ordered by part number
+    */
+   public List<MultipartPart> listMultipartUpload(MultipartUpload mpu) {
+      ImmutableList.Builder<MultipartPart> parts = ImmutableList.builder();
+      for (MultipartPartEntity part : jdbcService.findMultipartParts(mpu.id())) {
+         parts.add(toMultipartPart(part));
+      }
+      return parts.build();
+   }
+
+   /**
+    * Lists the multipart uploads in progress in a container
+    *
+    * @param container the name of the container
+    * @return the uploads, without their blob metadata and options
+    */
+   public List<MultipartUpload> listMultipartUploads(String container) {
+      ImmutableList.Builder<MultipartUpload> uploads = ImmutableList.builder();
+      for (MultipartUploadEntity upload : jdbcService.findMultipartUploads(container)) {
+         uploads.add(MultipartUpload.create(container, upload.getBlobName(), upload.getId(), null, null));
+      }
+      return uploads.build();
+   }
+
+   private static MultipartPart toMultipartPart(MultipartPartEntity part) {
+      return MultipartPart.create(part.getPartNumber(), part.getSize(), part.getEtag(), part.getLastModified());
+   }
+
 }
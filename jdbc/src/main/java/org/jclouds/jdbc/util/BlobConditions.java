@@ -0,0 +1,68 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jclouds.jdbc.util;
+
+import java.util.Date;
+
+import org.jclouds.http.HttpResponse;
+import org.jclouds.http.HttpResponseException;
+
+/**
+ * Evaluates the conditions of reads and copies against the etag and modification time of a blob.
+ */
+public final class BlobConditions {
+
+   /**
+    * @param notModifiedCode the status code thrown when the blob is not modified, 304 for reads and
+    *        412 for copies
+    * @throws HttpResponseException with the status code of the first condition that does not hold
+    */
+   public static void check(String etag, Date lastModified, String ifMatch, String ifNoneMatch,
+         Date ifModifiedSince, Date ifUnmodifiedSince, int notModifiedCode) {
+      etag = unquote(etag);
+      if (ifMatch != null && !unquote(ifMatch).equals(etag)) {
+         throw returnResponseException(412);
+      }
+      if (ifNoneMatch != null && unquote(ifNoneMatch).equals(etag)) {
+         throw returnResponseException(notModifiedCode);
+      }
+      if (ifModifiedSince != null && lastModified.compareTo(ifModifiedSince) <= 0) {
+         throw returnResponseException(notModifiedCode);
+      }
+      if (ifUnmodifiedSince != null && lastModified.compareTo(ifUnmodifiedSince) > 0) {
+         throw returnResponseException(412);
+      }
+   }
+
+   private static String unquote(String etag) {
+      return etag != null && etag.length() >= 2 && etag.startsWith("\"") && etag.endsWith("\"")
+            ? etag.substring(1, etag.length() - 1) : etag;
+   }
+
+   /**
+    * The conditions are evaluated without an HTTP request, so the exception carries no command.
+    */
+   private static HttpResponseException returnResponseException(int code) {
+      HttpResponse response = HttpResponse.builder().statusCode(code).build();
+      return new HttpResponseException("condition not met, status code " + code, null, response);
+   }
+
+   private BlobConditions() {
+      throw new AssertionError("Intentionally Unimplemented");
+   }
+
+}
@@ -0,0 +1,95 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jclouds.jdbc.util;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * Deflate compression of chunk data.
+ */
+public final class ChunkCompression {
+
+   /**
+    * Compresses the first bytes of a chunk buffer.
+    *
+    * @return the compressed data, or null if it would not be smaller than the input
+    */
+   public static byte[] compress(byte[] data, int length) {
+      return compress(data, length, new byte[length]);
+   }
+
+   /**
+    * Compresses the first bytes of a chunk buffer, deflating into a scratch buffer that callers
+    * compressing many chunks can reuse.
+    *
+    * @param buffer scratch space of at least {@code length} bytes, its content is overwritten
+    * @return the compressed data, or null if it would not be smaller than the input
+    */
+   public static byte[] compress(byte[] data, int length, byte[] buffer) {
+      checkArgument(buffer.length >= length, "buffer of %s bytes is smaller than the input of %s bytes",
+            buffer.length, length);
+      Deflater deflater = new Deflater(Deflater.BEST_SPEED);
+      try {
+         deflater.setInput(data, 0, length);
+         deflater.finish();
+         int size = 0;
+         while (!deflater.finished() && size < length) {
+            size += deflater.deflate(buffer, size, length - size);
+         }
+         return deflater.finished() && size < length ? Arrays.copyOf(buffer, size) : null;
+      } finally {
+         deflater.end();
+      }
+   }
+
+   /**
+    * Restores the data of a compressed chunk.
+    *
+    * @param size the size of the chunk before compression
+    */
+   public static byte[] decompress(byte[] data, int size) throws IOException {
+      Inflater inflater = new Inflater();
+      try {
+         inflater.setInput(data);
+         byte[] result = new byte[size];
+         int count = 0;
+         while (count < size) {
+            int inflated = inflater.inflate(result, count, size - count);
+            if (inflated == 0 && (inflater.finished() || inflater.needsInput() || inflater.needsDictionary())) {
+               throw new IOException("Compressed chunk is truncated.");
+            }
+            count += inflated;
+         }
+         return result;
+      } catch (DataFormatException e) {
+         throw new IOException("Compressed chunk is corrupt.", e);
+      } finally {
+         inflater.end();
+      }
+   }
+
+   private ChunkCompression() {
+      throw new AssertionError("Intentionally Unimplemented");
+   }
+
+}
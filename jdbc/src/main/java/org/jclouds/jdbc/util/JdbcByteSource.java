@@ -0,0 +1,188 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jclouds.jdbc.util;
+
+import com.google.common.base.Supplier;
+import com.google.common.base.Suppliers;
+import com.google.common.io.ByteSource;
+import com.google.common.io.ByteStreams;
+import org.jclouds.jdbc.reference.JdbcConstants;
+import org.jclouds.jdbc.service.JdbcService;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+
+/**
+ * Content of a blob stored as a list of chunks. The chunk ids are either given upfront or read
+ * from the database when the content is first opened. All chunks but the last one usually hold
+ * {@link JdbcConstants#DEFAULT_CHUNK_SIZE} bytes, so a slice only fetches the chunks covering the
+ * requested range and skips into the first one instead of streaming through the blob. Payloads
+ * stitched together from multipart uploads have chunks of varying sizes, the sizes are looked up
+ * before slicing them. Payloads without chunks are read from the payload row, where small payloads
+ * are stored inline.
+ */
+public class JdbcByteSource extends ByteSource {
+
+   private final JdbcService jdbcService;
+   private final Long payloadId;
+   private final Supplier<List<Long>> chunks;
+   private final Supplier<List<Integer>> chunkSizes;
+   private final long offset;
+   private final Long length;
+   private final ExecutorService executor;
+   private final int readAhead;
+
+   /**
+    * @param payloadId the id of the payload holding the chunk ids
+    * @param size the size of the blob content, or null if it is not known
+    * @param executor executor used to fetch chunks ahead of the reader, or null to fetch them on demand
+    * @param readAhead maximum number of chunks fetched ahead of the one being read
+    */
+   public JdbcByteSource(JdbcService jdbcService, Long payloadId, Long size, ExecutorService executor,
+         int readAhead) {
+      this(jdbcService, payloadId, false, size, executor, readAhead);
+   }
+
+   /**
+    * @param variableChunkSize whether chunks other than the last one may be smaller than
+    *        {@link JdbcConstants#DEFAULT_CHUNK_SIZE}, in which case slices look up the chunk sizes
+    */
+   public JdbcByteSource(final JdbcService jdbcService, final Long payloadId, boolean variableChunkSize, Long size,
+         ExecutorService executor, int readAhead) {
+      this(jdbcService, payloadId, Suppliers.memoize(new Supplier<List<Long>>() {
+         @Override
+         public List<Long> get() {
+            return jdbcService.findChunkIdsByPayloadId(payloadId);
+         }
+      }), variableChunkSize, size, executor, readAhead);
+   }
+
+   /**
+    * @param chunks the chunk ids of the payload, resolved when the blob was fetched so that the
+    *        content stays readable when the blob is replaced before it is opened
+    */
+   public JdbcByteSource(JdbcService jdbcService, Long payloadId, List<Long> chunks, boolean variableChunkSize,
+         Long size, ExecutorService executor, int readAhead) {
+      this(jdbcService, payloadId, Suppliers.ofInstance(chunks), variableChunkSize, size, executor, readAhead);
+   }
+
+   private JdbcByteSource(final JdbcService jdbcService, Long payloadId, final Supplier<List<Long>> chunks,
+         boolean variableChunkSize, Long size, ExecutorService executor, int readAhead) {
+      this(jdbcService, payloadId, chunks, !variableChunkSize ? null : Suppliers.memoize(
+            new Supplier<List<Integer>>() {
+               @Override
+               public List<Integer> get() {
+                  return jdbcService.findChunkSizes(chunks.get());
+               }
+            }), 0, size, executor, readAhead);
+   }
+
+   private JdbcByteSource(JdbcService jdbcService, Long payloadId, Supplier<List<Long>> chunks,
+         Supplier<List<Integer>> chunkSizes, long offset, Long length, ExecutorService executor, int readAhead) {
+      checkArgument(length == null || length >= 0, "length must be non-negative");
+      this.jdbcService = checkNotNull(jdbcService, "jdbcService");
+      this.payloadId = payloadId;
+      this.chunks = chunks;
+      this.chunkSizes = chunkSizes;
+      this.offset = offset;
+      this.length = length;
+      this.executor = executor;
+      this.readAhead = readAhead;
+   }
+
+   @Override
+   public InputStream openStream() throws IOException {
+      List<Long> chunkIds = chunks.get();
+      if (chunkIds == null) {
+         throw new IOException("Could not find payload.");
+      }
+      if (chunkIds.isEmpty() && (length == null || length > 0)) {
+         // small payloads are stored in the payload row instead of in chunks
+         byte[] inlineData = jdbcService.findInlineDataByPayloadId(payloadId);
+         if (inlineData != null) {
+            ByteSource content = ByteSource.wrap(inlineData);
+            return (length == null ? content : content.slice(offset, length)).openStream();
+         }
+      }
+      if (length == null) {
+         return new JdbcInputStream(jdbcService, chunkIds, executor, readAhead);
+      }
+      int firstChunk;
+      int lastChunk;
+      long firstChunkOffset;
+      if (chunkSizes == null) {
+         firstChunk = (int) Math.min(offset / JdbcConstants.DEFAULT_CHUNK_SIZE, chunkIds.size());
+         lastChunk = length == 0 ? firstChunk
+               : (int) Math.min((offset + length - 1) / JdbcConstants.DEFAULT_CHUNK_SIZE + 1, chunkIds.size());
+         firstChunkOffset = (long) firstChunk * JdbcConstants.DEFAULT_CHUNK_SIZE;
+      } else {
+         List<Integer> sizes = chunkSizes.get();
+         firstChunk = 0;
+         firstChunkOffset = 0;
+         while (firstChunk < sizes.size() && firstChunkOffset + sizes.get(firstChunk) <= offset) {
+            firstChunkOffset += sizes.get(firstChunk++);
+         }
+         lastChunk = firstChunk;
+         long end = firstChunkOffset;
+         while (lastChunk < sizes.size() && end < offset + length) {
+            end += sizes.get(lastChunk++);
+         }
+      }
+      InputStream in = new JdbcInputStream(jdbcService, chunkIds.subList(firstChunk, lastChunk), executor,
+            readAhead);
+      try {
+         // the remaining offset lies within the first chunk, skipping it only moves the read position
+         ByteStreams.skipFully(in, offset - firstChunkOffset);
+      } catch (IOException e) {
+         in.close();
+         throw e;
+      }
+      return ByteStreams.limit(in, length);
+   }
+
+   @Override
+   public long size() throws IOException {
+      return length == null ? super.size() : length;
+   }
+
+   @Override
+   public ByteSource slice(long offset, long length) {
+      if (this.length == null) {
+         return super.slice(offset, length);
+      }
+      checkArgument(offset >= 0, "offset (%s) may not be negative", offset);
+      checkArgument(length >= 0, "length (%s) may not be negative", length);
+      long skipped = Math.min(offset, this.length);
+      long sliceLength = Math.min(length, this.length - skipped);
+      if (sliceLength == 0) {
+         return ByteSource.empty();
+      }
+      return new JdbcByteSource(jdbcService, payloadId, chunks, chunkSizes, this.offset + skipped, sliceLength,
+            executor, readAhead);
+   }
+
+   @Override
+   public String toString() {
+      return "JdbcByteSource[offset=" + offset + ", length=" + length + "]";
+   }
+
+}
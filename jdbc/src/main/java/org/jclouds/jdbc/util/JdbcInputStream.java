@@ -16,29 +16,61 @@
  */
 package org.jclouds.jdbc.util;
 
+import com.google.common.base.Throwables;
 import org.jclouds.jdbc.entity.ChunkEntity;
 import org.jclouds.jdbc.service.JdbcService;
 
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
-import java.util.LinkedHashSet;
+import java.util.Arrays;
+import java.util.Deque;
 import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
 
+import static com.google.common.base.Preconditions.checkArgument;
 import static com.google.common.base.Preconditions.checkNotNull;
+import static com.google.common.base.Preconditions.checkPositionIndexes;
 
+/**
+ * Streams the content of a blob stored as a list of chunks. Bulk reads copy straight out of the
+ * chunk data, and when an executor is given the next chunks are fetched in the background while
+ * the current one is being consumed. Compressed chunks are inflated as they are fetched.
+ * <p>
+ * Instances are not thread safe.
+ */
 public class JdbcInputStream extends InputStream {
 
-   private JdbcService jdbcService;
+   private final JdbcService jdbcService;
+   private final ExecutorService executor;
+   private final int readAhead;
 
    private final List<Long> chunks;
-   private ChunkEntity currentChunk;
+   private final Deque<Future<byte[]>> prefetched;
+   private int nextChunk;
+   private byte[] currentChunk;
    private int bytesRead;
 
    public JdbcInputStream(JdbcService jdbcService, List<Long> chunks) {
+      this(jdbcService, chunks, null, 0);
+   }
+
+   /**
+    * @param executor executor used to fetch chunks ahead of the reader, or null to fetch them on demand
+    * @param readAhead maximum number of chunks fetched ahead of the one being read
+    */
+   public JdbcInputStream(JdbcService jdbcService, List<Long> chunks, ExecutorService executor, int readAhead) {
+      checkArgument(readAhead >= 0, "readAhead must be non-negative");
       this.jdbcService = checkNotNull(jdbcService, "jdbcService");
-      // Need to remove duplicates due to https://hibernate.atlassian.net/browse/HHH-6783
-      this.chunks = new ArrayList<Long>(new LinkedHashSet<Long>(checkNotNull(chunks, "chunks")));
+      this.chunks = new ArrayList<Long>(checkNotNull(chunks, "chunks"));
+      this.executor = executor;
+      this.readAhead = executor == null ? 0 : readAhead;
+      this.prefetched = new ArrayDeque<Future<byte[]>>();
       try {
          readNextChunk();
       } catch (IOException e) {
@@ -47,30 +79,118 @@ public class JdbcInputStream extends InputStream {
    }
 
    @Override
-   public synchronized int read() throws IOException {
-      if (hasFinished()) {
+   public int read() throws IOException {
+      if (!ensureData()) {
          return -1;
       }
-      int b = currentChunk.getData()[bytesRead] & 0xff;
+      int b = currentChunk[bytesRead] & 0xff;
       bytesRead = bytesRead + 1;
-      if (bytesRead >= currentChunk.getSize()) {
-         readNextChunk();
-      }
       return b;
    }
 
-   private boolean hasFinished() {
-      return currentChunk == null || (chunks.size() == 0 && bytesRead >= currentChunk.getSize());
+   @Override
+   public int read(byte[] b, int off, int len) throws IOException {
+      checkPositionIndexes(off, off + len, b.length);
+      if (len == 0) {
+         return 0;
+      }
+      if (!ensureData()) {
+         return -1;
+      }
+      int count = Math.min(len, currentChunk.length - bytesRead);
+      System.arraycopy(currentChunk, bytesRead, b, off, count);
+      bytesRead = bytesRead + count;
+      return count;
+   }
+
+   @Override
+   public long skip(long n) throws IOException {
+      long skipped = 0;
+      while (skipped < n && ensureData()) {
+         int count = (int) Math.min(n - skipped, currentChunk.length - bytesRead);
+         bytesRead = bytesRead + count;
+         skipped = skipped + count;
+      }
+      return skipped;
+   }
+
+   @Override
+   public int available() {
+      return currentChunk == null ? 0 : currentChunk.length - bytesRead;
+   }
+
+   @Override
+   public void close() {
+      for (Future<byte[]> future : prefetched) {
+         future.cancel(false);
+      }
+      prefetched.clear();
+      nextChunk = chunks.size();
+      currentChunk = null;
    }
 
-   private void readNextChunk() throws IOException {
-      if (chunks.size() > 0) {
-         this.currentChunk = jdbcService.findChunkById(chunks.get(0));
-         if (currentChunk == null) {
-            throw new IOException("Could not find chunk.");
+   private boolean ensureData() throws IOException {
+      while (currentChunk == null || bytesRead >= currentChunk.length) {
+         if (!readNextChunk()) {
+            return false;
          }
-         chunks.remove(0);
-         this.bytesRead = 0;
+      }
+      return true;
+   }
+
+   private boolean readNextChunk() throws IOException {
+      byte[] chunk;
+      if (!prefetched.isEmpty()) {
+         chunk = await(prefetched.removeFirst());
+      } else if (nextChunk < chunks.size()) {
+         chunk = readChunk(chunks.get(nextChunk++));
+      } else {
+         return false;
+      }
+      this.currentChunk = chunk;
+      this.bytesRead = 0;
+      readAhead();
+      return true;
+   }
+
+   private void readAhead() {
+      while (prefetched.size() < readAhead && nextChunk < chunks.size()) {
+         final Long chunkId = chunks.get(nextChunk++);
+         prefetched.addLast(executor.submit(new Callable<byte[]>() {
+            @Override
+            public byte[] call() throws IOException {
+               return readChunk(chunkId);
+            }
+         }));
+      }
+   }
+
+   /**
+    * @return the content of a chunk, decompressed if needed and trimmed to the chunk size
+    */
+   private byte[] readChunk(Long chunkId) throws IOException {
+      ChunkEntity chunk = jdbcService.findChunkById(chunkId);
+      if (chunk == null) {
+         throw new IOException("Could not find chunk.");
+      }
+      if (chunk.isCompressed()) {
+         return ChunkCompression.decompress(chunk.getData(), chunk.getSize());
+      }
+      byte[] data = chunk.getData();
+      return data.length == chunk.getSize() ? data : Arrays.copyOf(data, chunk.getSize());
+   }
+
+   private static byte[] await(Future<byte[]> future) throws IOException {
+      try {
+         return future.get();
+      } catch (InterruptedException e) {
+         Thread.currentThread().interrupt();
+         InterruptedIOException exception = new InterruptedIOException("Interrupted while reading chunk");
+         exception.initCause(e);
+         throw exception;
+      } catch (ExecutionException e) {
+         Throwables.propagateIfInstanceOf(e.getCause(), IOException.class);
+         throw new IOException("Could not read chunk.", e.getCause());
       }
    }
 
@@ -0,0 +1,150 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jclouds.jdbc.util;
+
+import com.google.common.base.Charsets;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.Maps;
+
+import java.io.ByteArrayOutputStream;
+import java.util.List;
+import java.util.Map;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+/**
+ * Binary encoding of the chunk lists and user metadata stored in a single column of their row.
+ * Chunk ids are written as variable-length deltas from the previous id, chunks written by the same
+ * upload have consecutive ids and take a byte or two each. Empty values are stored as null.
+ */
+public final class PackedColumns {
+
+   private static final int VERSION = 1;
+
+   public static byte[] packChunkIds(List<Long> chunkIds) {
+      if (chunkIds == null || chunkIds.isEmpty()) {
+         return null;
+      }
+      ByteArrayOutputStream out = new ByteArrayOutputStream(chunkIds.size() * 2 + 6);
+      out.write(VERSION);
+      writeVarLong(out, chunkIds.size());
+      long previous = 0;
+      for (Long chunkId : chunkIds) {
+         long delta = chunkId - previous;
+         // zigzag encoding keeps small negative deltas short
+         writeVarLong(out, (delta << 1) ^ (delta >> 63));
+         previous = chunkId;
+      }
+      return out.toByteArray();
+   }
+
+   public static List<Long> unpackChunkIds(byte[] packed) {
+      if (packed == null || packed.length == 0) {
+         return ImmutableList.of();
+      }
+      Reader in = new Reader(packed);
+      int count = (int) in.readVarLong();
+      ImmutableList.Builder<Long> chunkIds = ImmutableList.builder();
+      long previous = 0;
+      for (int i = 0; i < count; i++) {
+         long zigzag = in.readVarLong();
+         previous += (zigzag >>> 1) ^ -(zigzag & 1);
+         chunkIds.add(previous);
+      }
+      return chunkIds.build();
+   }
+
+   public static byte[] packUserMetadata(Map<String, String> userMetadata) {
+      if (userMetadata == null || userMetadata.isEmpty()) {
+         return null;
+      }
+      ByteArrayOutputStream out = new ByteArrayOutputStream();
+      out.write(VERSION);
+      writeVarLong(out, userMetadata.size());
+      for (Map.Entry<String, String> entry : userMetadata.entrySet()) {
+         writeString(out, entry.getKey());
+         writeString(out, entry.getValue());
+      }
+      return out.toByteArray();
+   }
+
+   public static Map<String, String> unpackUserMetadata(byte[] packed) {
+      if (packed == null || packed.length == 0) {
+         return ImmutableMap.of();
+      }
+      Reader in = new Reader(packed);
+      int count = (int) in.readVarLong();
+      Map<String, String> userMetadata = Maps.newLinkedHashMap();
+      for (int i = 0; i < count; i++) {
+         String key = in.readString();
+         userMetadata.put(key, in.readString());
+      }
+      return userMetadata;
+   }
+
+   private static void writeString(ByteArrayOutputStream out, String value) {
+      byte[] bytes = (value == null ? "" : value).getBytes(Charsets.UTF_8);
+      writeVarLong(out, bytes.length);
+      out.write(bytes, 0, bytes.length);
+   }
+
+   private static void writeVarLong(ByteArrayOutputStream out, long value) {
+      while ((value & ~0x7FL) != 0) {
+         out.write((int) (value & 0x7F) | 0x80);
+         value >>>= 7;
+      }
+      out.write((int) value);
+   }
+
+   private static final class Reader {
+      private final byte[] data;
+      private int position;
+
+      Reader(byte[] data) {
+         checkArgument(data[0] == VERSION, "unsupported packed column version %s", data[0]);
+         this.data = data;
+         this.position = 1;
+      }
+
+      long readVarLong() {
+         long value = 0;
+         for (int shift = 0; shift < 64; shift += 7) {
+            checkArgument(position < data.length, "packed column is truncated");
+            byte b = data[position++];
+            value |= (long) (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) {
+               return value;
+            }
+         }
+         throw new IllegalArgumentException("packed column holds a malformed number");
+      }
+
+      String readString() {
+         int length = (int) readVarLong();
+         checkArgument(length >= 0 && position + length <= data.length, "packed column is truncated");
+         String value = new String(data, position, length, Charsets.UTF_8);
+         position += length;
+         return value;
+      }
+   }
+
+   private PackedColumns() {
+      throw new AssertionError("Intentionally Unimplemented");
+   }
+
+}
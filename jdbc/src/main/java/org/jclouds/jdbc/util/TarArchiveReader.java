@@ -0,0 +1,297 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jclouds.jdbc.util;
+
+import com.google.common.base.Charsets;
+import com.google.common.collect.Maps;
+import com.google.common.io.ByteStreams;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.math.BigDecimal;
+import java.util.Date;
+import java.util.Map;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+import static com.google.common.base.Preconditions.checkPositionIndexes;
+import static org.jclouds.jdbc.util.TarArchiveWriter.BLOCK_SIZE;
+
+/**
+ * Reads the regular files and directories of a tar archive in the ustar, pax or GNU format. Pax
+ * extended headers and GNU long names override the fields of the header that follows them, global
+ * headers and other types of entries, such as links, are skipped. The content of the current entry
+ * is read from this stream, which ends with the entry.
+ * <p>
+ * Instances are not thread safe.
+ */
+public class TarArchiveReader extends InputStream {
+
+   /**
+    * Largest extended header read in memory.
+    */
+   private static final int MAX_EXTENDED_HEADER_SIZE = 16 * 1024 * 1024;
+
+   private final InputStream in;
+   private long remaining;
+   private long padding;
+   private boolean finished;
+
+   public TarArchiveReader(InputStream in) {
+      this.in = checkNotNull(in, "in");
+   }
+
+   /**
+    * Skips what is left of the current entry and moves to the next one.
+    *
+    * @return the next entry, or null at the end of the archive
+    */
+   public TarEntry getNextEntry() throws IOException {
+      skipEntry();
+      Map<String, String> records = Maps.newLinkedHashMap();
+      String longName = null;
+      while (!finished) {
+         byte[] header = new byte[BLOCK_SIZE];
+         int read = ByteStreams.read(in, header, 0, BLOCK_SIZE);
+         if (read == 0 || (read == BLOCK_SIZE && isZero(header))) {
+            finished = true;
+            break;
+         }
+         if (read < BLOCK_SIZE) {
+            throw new EOFException("Truncated tar header");
+         }
+         long checksum = parseNumber(header, 148, 8);
+         if (checksum != TarArchiveWriter.checksum(header) && checksum != signedChecksum(header)) {
+            throw new IOException("Invalid tar header checksum");
+         }
+         byte type = header[156];
+         long size = parseNumber(header, 124, 12);
+         if (type == 'x' || type == 'L') {
+            if (size > MAX_EXTENDED_HEADER_SIZE) {
+               throw new IOException("Extended header of " + size + " bytes is too large");
+            }
+            byte[] data = new byte[(int) size];
+            ByteStreams.readFully(in, data);
+            ByteStreams.skipFully(in, TarArchiveWriter.padding(size));
+            if (type == 'x') {
+               parseRecords(data, records);
+            } else {
+               longName = parseString(data, 0, data.length);
+            }
+            continue;
+         }
+
+         String name = longName != null ? longName : parseName(header);
+         if (records.containsKey("path")) {
+            name = records.remove("path");
+         }
+         if (records.containsKey("size")) {
+            size = parseDecimal(records.remove("size"));
+         }
+         Date lastModified = new Date(parseNumber(header, 136, 12) * 1000);
+         if (records.containsKey("mtime")) {
+            lastModified = new Date(parseMtime(records.remove("mtime")));
+         }
+         remaining = size;
+         padding = TarArchiveWriter.padding(size);
+         boolean file = type == '0' || type == 0 || type == '7';
+         // pre-POSIX archives mark directories with a trailing slash only
+         boolean directory = type == '5' || (type == 0 && name.endsWith("/"));
+         if (directory) {
+            return new TarEntry(name, 0, true, lastModified, records);
+         } else if (file) {
+            return new TarEntry(name, size, false, lastModified, records);
+         }
+         // global headers, links and special files do not hold a blob
+         skipEntry();
+         records.clear();
+         longName = null;
+      }
+      return null;
+   }
+
+   @Override
+   public int read() throws IOException {
+      if (remaining <= 0) {
+         return -1;
+      }
+      int b = in.read();
+      if (b < 0) {
+         throw new EOFException("Truncated tar entry");
+      }
+      remaining--;
+      return b;
+   }
+
+   @Override
+   public int read(byte[] b, int off, int len) throws IOException {
+      checkPositionIndexes(off, off + len, b.length);
+      if (len == 0) {
+         return 0;
+      }
+      if (remaining <= 0) {
+         return -1;
+      }
+      int count = in.read(b, off, (int) Math.min(len, remaining));
+      if (count < 0) {
+         throw new EOFException("Truncated tar entry");
+      }
+      remaining -= count;
+      return count;
+   }
+
+   @Override
+   public int available() throws IOException {
+      return (int) Math.min(in.available(), remaining);
+   }
+
+   @Override
+   public void close() throws IOException {
+      in.close();
+   }
+
+   private void skipEntry() throws IOException {
+      ByteStreams.skipFully(in, remaining + padding);
+      remaining = 0;
+      padding = 0;
+   }
+
+   private static boolean isZero(byte[] header) {
+      for (byte b : header) {
+         if (b != 0) {
+            return false;
+         }
+      }
+      return true;
+   }
+
+   /**
+    * Some old archivers summed the header bytes as signed values.
+    */
+   private static long signedChecksum(byte[] header) {
+      long sum = 0;
+      for (int i = 0; i < header.length; i++) {
+         sum += i >= 148 && i < 156 ? ' ' : header[i];
+      }
+      return sum;
+   }
+
+   private static String parseName(byte[] header) {
+      String name = parseString(header, 0, 100);
+      if (new String(header, 257, 5, Charsets.US_ASCII).equals("ustar")) {
+         String prefix = parseString(header, 345, 155);
+         if (!prefix.isEmpty()) {
+            name = prefix + "/" + name;
+         }
+      }
+      return name;
+   }
+
+   private static String parseString(byte[] data, int offset, int length) {
+      int end = offset;
+      while (end < offset + length && data[end] != 0) {
+         end++;
+      }
+      return new String(data, offset, end - offset, Charsets.UTF_8);
+   }
+
+   /**
+    * Parses a numeric header field, written in octal or, by GNU tar for large values, in base 256.
+    */
+   private static long parseNumber(byte[] header, int offset, int length) throws IOException {
+      if ((header[offset] & 0x80) != 0) {
+         long value = header[offset] & 0x7f;
+         for (int i = offset + 1; i < offset + length; i++) {
+            if ((value >>> 55) != 0) {
+               throw new IOException("Numeric header field out of range");
+            }
+            value = (value << 8) | (header[i] & 0xff);
+         }
+         return value;
+      }
+      long value = 0;
+      int i = offset;
+      while (i < offset + length && (header[i] == ' ' || header[i] == 0)) {
+         i++;
+      }
+      for (; i < offset + length && header[i] != ' ' && header[i] != 0; i++) {
+         if (header[i] < '0' || header[i] > '7') {
+            throw new IOException("Invalid octal digit in tar header");
+         }
+         value = (value << 3) + (header[i] - '0');
+      }
+      return value;
+   }
+
+   private static long parseDecimal(String value) throws IOException {
+      try {
+         long result = Long.parseLong(value);
+         if (result < 0) {
+            throw new IOException("Negative size in extended header: " + value);
+         }
+         return result;
+      } catch (NumberFormatException e) {
+         throw new IOException("Invalid number in extended header: " + value, e);
+      }
+   }
+
+   private static long parseMtime(String value) throws IOException {
+      try {
+         return new BigDecimal(value).movePointRight(3).longValue();
+      } catch (NumberFormatException e) {
+         throw new IOException("Invalid modification time in extended header: " + value, e);
+      }
+   }
+
+   /**
+    * Parses pax records of the form {@code "<length> <key>=<value>\n"}, a record with an empty value
+    * removes the key.
+    */
+   private static void parseRecords(byte[] data, Map<String, String> records) throws IOException {
+      int position = 0;
+      while (position < data.length) {
+         int space = position;
+         while (space < data.length && data[space] != ' ') {
+            space++;
+         }
+         int length;
+         try {
+            length = Integer.parseInt(new String(data, position, space - position, Charsets.US_ASCII));
+         } catch (NumberFormatException e) {
+            throw new IOException("Malformed extended header record", e);
+         }
+         int end = position + length;
+         if (space >= data.length || end <= space + 1 || end > data.length || data[end - 1] != '\n') {
+            throw new IOException("Malformed extended header record");
+         }
+         String record = new String(data, space + 1, end - space - 2, Charsets.UTF_8);
+         int equals = record.indexOf('=');
+         if (equals <= 0) {
+            throw new IOException("Malformed extended header record");
+         }
+         String key = record.substring(0, equals);
+         String value = record.substring(equals + 1);
+         if (value.isEmpty()) {
+            records.remove(key);
+         } else {
+            records.put(key, value);
+         }
+         position = end;
+      }
+   }
+
+}
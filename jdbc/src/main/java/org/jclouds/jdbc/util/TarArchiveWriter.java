@@ -0,0 +1,243 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jclouds.jdbc.util;
+
+import com.google.common.base.Charsets;
+import com.google.common.base.Strings;
+import com.google.common.collect.Maps;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.math.BigDecimal;
+import java.util.Arrays;
+import java.util.Map;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+import static com.google.common.base.Preconditions.checkPositionIndexes;
+import static com.google.common.base.Preconditions.checkState;
+
+/**
+ * Writes a tar archive in the POSIX pax format. Each entry starts with a ustar header, preceded by a
+ * pax extended header when its name is not plain ASCII or longer than the ustar name field, its size
+ * does not fit the ustar size field, its modification time has a fraction of a second or it carries
+ * additional header records. The content of an entry is written to this stream after
+ * {@link #putEntry(TarEntry)}, and must match the size of the entry.
+ * <p>
+ * Instances are not thread safe.
+ */
+public class TarArchiveWriter extends OutputStream {
+
+   static final int BLOCK_SIZE = 512;
+
+   /**
+    * Largest size stored in the 11 octal digits of the ustar size field.
+    */
+   private static final long MAX_USTAR_SIZE = 077777777777L;
+
+   private static final int NAME_LENGTH = 100;
+
+   private final OutputStream out;
+   private long remaining;
+   private long padding;
+   private boolean entryOpen;
+   private boolean finished;
+
+   public TarArchiveWriter(OutputStream out) {
+      this.out = checkNotNull(out, "out");
+   }
+
+   /**
+    * Completes the current entry and starts a new one.
+    *
+    * @throws IOException if less content was written for the current entry than its size
+    */
+   public void putEntry(TarEntry entry) throws IOException {
+      checkState(!finished, "archive is finished");
+      closeEntry();
+      String name = entry.isDirectory() && !entry.getName().endsWith("/") ? entry.getName() + "/"
+            : entry.getName();
+      Map<String, String> records = Maps.newLinkedHashMap();
+      if (!fitsUstarName(name)) {
+         records.put("path", name);
+      }
+      if (entry.getSize() > MAX_USTAR_SIZE) {
+         records.put("size", Long.toString(entry.getSize()));
+      }
+      long mtime = 0;
+      if (entry.getLastModified() != null && entry.getLastModified().getTime() >= 0) {
+         long millis = entry.getLastModified().getTime();
+         mtime = millis / 1000;
+         if (millis % 1000 != 0) {
+            records.put("mtime", BigDecimal.valueOf(millis, 3).toPlainString());
+         }
+      }
+      records.putAll(entry.getHeaders());
+      if (!records.isEmpty()) {
+         byte[] data = encodeRecords(records);
+         writeHeader("PaxHeaders/" + name, data.length, mtime, (byte) 'x');
+         out.write(data);
+         out.write(new byte[padding(data.length)]);
+      }
+      writeHeader(name, entry.getSize() > MAX_USTAR_SIZE ? 0 : entry.getSize(), mtime,
+            entry.isDirectory() ? (byte) '5' : (byte) '0');
+      remaining = entry.getSize();
+      padding = padding(entry.getSize());
+      entryOpen = true;
+   }
+
+   @Override
+   public void write(int b) throws IOException {
+      checkContent(1);
+      out.write(b);
+      remaining--;
+   }
+
+   @Override
+   public void write(byte[] b, int off, int len) throws IOException {
+      checkPositionIndexes(off, off + len, b.length);
+      checkContent(len);
+      out.write(b, off, len);
+      remaining -= len;
+   }
+
+   /**
+    * Completes the current entry, padding its content to a whole block.
+    *
+    * @throws IOException if less content was written than the size of the entry
+    */
+   public void closeEntry() throws IOException {
+      if (!entryOpen) {
+         return;
+      }
+      if (remaining != 0) {
+         throw new IOException("Entry is missing " + remaining + " bytes of content");
+      }
+      out.write(new byte[(int) padding]);
+      entryOpen = false;
+   }
+
+   /**
+    * Completes the current entry and writes the end of the archive, leaving the underlying stream
+    * open.
+    */
+   public void finish() throws IOException {
+      if (finished) {
+         return;
+      }
+      closeEntry();
+      out.write(new byte[2 * BLOCK_SIZE]);
+      out.flush();
+      finished = true;
+   }
+
+   @Override
+   public void flush() throws IOException {
+      out.flush();
+   }
+
+   @Override
+   public void close() throws IOException {
+      try {
+         finish();
+      } finally {
+         out.close();
+      }
+   }
+
+   private void checkContent(int length) throws IOException {
+      checkState(entryOpen, "no entry to write to");
+      if (length > remaining) {
+         throw new IOException("Content exceeds the size of the entry by " + (length - remaining) + " bytes");
+      }
+   }
+
+   private void writeHeader(String name, long size, long mtime, byte type) throws IOException {
+      byte[] header = new byte[BLOCK_SIZE];
+      putString(header, 0, NAME_LENGTH, name);
+      putOctal(header, 100, 8, type == '5' ? 0755 : 0644);
+      putOctal(header, 108, 8, 0);
+      putOctal(header, 116, 8, 0);
+      putOctal(header, 124, 12, size);
+      putOctal(header, 136, 12, mtime);
+      Arrays.fill(header, 148, 156, (byte) ' ');
+      header[156] = type;
+      putString(header, 257, 6, "ustar");
+      putString(header, 263, 2, "00");
+      putOctal(header, 148, 7, checksum(header));
+      out.write(header);
+   }
+
+   static int padding(long size) {
+      return (int) ((BLOCK_SIZE - size % BLOCK_SIZE) % BLOCK_SIZE);
+   }
+
+   static long checksum(byte[] header) {
+      long sum = 0;
+      for (int i = 0; i < header.length; i++) {
+         sum += i >= 148 && i < 156 ? ' ' : header[i] & 0xff;
+      }
+      return sum;
+   }
+
+   private static boolean fitsUstarName(String name) {
+      if (name.length() > NAME_LENGTH) {
+         return false;
+      }
+      for (int i = 0; i < name.length(); i++) {
+         char c = name.charAt(i);
+         if (c < 0x20 || c > 0x7e) {
+            return false;
+         }
+      }
+      return true;
+   }
+
+   /**
+    * Writes the printable ASCII characters of a string, the full value is then carried by a pax record.
+    */
+   private static void putString(byte[] header, int offset, int length, String value) {
+      for (int i = 0, j = 0; i < value.length() && j < length; i++) {
+         char c = value.charAt(i);
+         header[offset + j++] = c >= 0x20 && c <= 0x7e ? (byte) c : (byte) '_';
+      }
+   }
+
+   private static void putOctal(byte[] header, int offset, int length, long value) {
+      String digits = Long.toOctalString(value);
+      checkArgument(digits.length() < length, "%s does not fit a %s bytes field", value, length);
+      putString(header, offset, length - 1, Strings.padStart(digits, length - 1, '0'));
+      header[offset + length - 1] = 0;
+   }
+
+   /**
+    * Encodes pax records as {@code "<length> <key>=<value>\n"}, the length counting itself.
+    */
+   private static byte[] encodeRecords(Map<String, String> records) {
+      StringBuilder result = new StringBuilder();
+      for (Map.Entry<String, String> record : records.entrySet()) {
+         checkArgument(record.getKey().indexOf('=') < 0, "header key %s contains '='", record.getKey());
+         String body = " " + record.getKey() + "=" + record.getValue() + "\n";
+         int length = body.getBytes(Charsets.UTF_8).length;
+         int total = length + Integer.toString(length).length();
+         total = length + Integer.toString(total).length();
+         result.append(total).append(body);
+      }
+      return result.toString().getBytes(Charsets.UTF_8);
+   }
+
+}
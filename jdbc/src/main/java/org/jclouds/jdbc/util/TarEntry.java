@@ -0,0 +1,78 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jclouds.jdbc.util;
+
+import com.google.common.collect.ImmutableMap;
+
+import java.util.Date;
+import java.util.Map;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+
+/**
+ * A regular file or a directory in a tar archive. Headers that do not fit the fixed ustar fields,
+ * and any other metadata, are carried as POSIX pax extended header records.
+ */
+public class TarEntry {
+
+   private final String name;
+   private final long size;
+   private final boolean directory;
+   private final Date lastModified;
+   private final Map<String, String> headers;
+
+   /**
+    * @param lastModified the modification time of the entry, or null if it is not known
+    * @param headers extended header records other than the path, size and modification time
+    */
+   public TarEntry(String name, long size, boolean directory, Date lastModified, Map<String, String> headers) {
+      checkArgument(size >= 0, "size must be non-negative");
+      checkArgument(!directory || size == 0, "directories cannot have content");
+      this.name = checkNotNull(name, "name");
+      this.size = size;
+      this.directory = directory;
+      this.lastModified = lastModified;
+      this.headers = ImmutableMap.copyOf(checkNotNull(headers, "headers"));
+   }
+
+   public String getName() {
+      return name;
+   }
+
+   public long getSize() {
+      return size;
+   }
+
+   public boolean isDirectory() {
+      return directory;
+   }
+
+   public Date getLastModified() {
+      return lastModified;
+   }
+
+   public Map<String, String> getHeaders() {
+      return headers;
+   }
+
+   @Override
+   public String toString() {
+      return "TarEntry[name=" + name + ", size=" + size + ", directory=" + directory + "]";
+   }
+
+}
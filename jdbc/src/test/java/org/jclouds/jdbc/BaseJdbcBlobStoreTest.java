@@ -17,7 +17,9 @@
 package org.jclouds.jdbc;
 
 import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
 import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.Iterables;
 import com.google.common.collect.Lists;
 import com.google.common.collect.Sets;
 import com.google.common.io.ByteSource;
@@ -28,17 +30,26 @@ import org.jclouds.blobstore.BlobRequestSigner;
 import org.jclouds.blobstore.BlobStore;
 import org.jclouds.blobstore.BlobStoreContext;
 import org.jclouds.blobstore.ContainerNotFoundException;
+import org.jclouds.blobstore.KeyNotFoundException;
 import org.jclouds.blobstore.domain.Blob;
 import org.jclouds.blobstore.domain.BlobMetadata;
+import org.jclouds.blobstore.domain.MultipartPart;
+import org.jclouds.blobstore.domain.MultipartUpload;
 import org.jclouds.blobstore.domain.PageSet;
 import org.jclouds.blobstore.domain.StorageMetadata;
 import org.jclouds.blobstore.domain.StorageType;
+import org.jclouds.blobstore.options.CopyOptions;
 import org.jclouds.blobstore.options.GetOptions;
 import org.jclouds.blobstore.options.ListContainerOptions;
+import org.jclouds.blobstore.options.PutOptions;
 import org.jclouds.http.HttpRequest;
+import org.jclouds.http.HttpResponseException;
+import org.jclouds.io.ByteStreams2;
 import org.jclouds.io.Payload;
+import org.jclouds.io.Payloads;
 import org.jclouds.io.payloads.PhantomPayload;
 import org.jclouds.io.payloads.StringPayload;
+import org.jclouds.jdbc.metrics.JdbcMetrics;
 import org.jclouds.util.Closeables2;
 import org.jclouds.util.Strings2;
 import org.testng.annotations.AfterMethod;
@@ -208,6 +219,67 @@ public abstract class BaseJdbcBlobStoreTest {
       checkForContainerContent(CONTAINER_NAME, "rrr/", blobsExpected);
    }
 
+   @Test
+   public void testListPaginated() {
+      blobStore.createContainerInLocation(null, CONTAINER_NAME);
+      createBlobsInContainer(CONTAINER_NAME, "a", 5);
+
+      PageSet<? extends StorageMetadata> page = blobStore.list(CONTAINER_NAME,
+            ListContainerOptions.Builder.recursive().maxResults(2));
+      assertThat(names(page)).containsExactly("a0", "a1");
+      assertThat(page.getNextMarker()).isEqualTo("a1");
+
+      page = blobStore.list(CONTAINER_NAME,
+            ListContainerOptions.Builder.recursive().maxResults(2).afterMarker(page.getNextMarker()));
+      assertThat(names(page)).containsExactly("a2", "a3");
+      assertThat(page.getNextMarker()).isEqualTo("a3");
+
+      page = blobStore.list(CONTAINER_NAME,
+            ListContainerOptions.Builder.recursive().maxResults(2).afterMarker(page.getNextMarker()));
+      assertThat(names(page)).containsExactly("a4");
+      assertThat(page.getNextMarker()).isNull();
+   }
+
+   @Test
+   public void testListPrefixWithDelimiter() {
+      blobStore.createContainerInLocation(null, CONTAINER_NAME);
+      for (String key : ImmutableList.of("dir/a", "dir/b/1", "dir/b/2", "dir/c", "dir%x", "other")) {
+         createBlobInContainer(CONTAINER_NAME, key);
+      }
+
+      PageSet<? extends StorageMetadata> page = blobStore.list(CONTAINER_NAME,
+            ListContainerOptions.Builder.prefix("dir/").delimiter("/").maxResults(2));
+      assertThat(names(page)).containsExactly("dir/a", "dir/b/");
+      assertThat(Iterables.get(page, 1).getType()).isEqualTo(StorageType.RELATIVE_PATH);
+      assertThat(page.getNextMarker()).isEqualTo("dir/b/");
+
+      page = blobStore.list(CONTAINER_NAME,
+            ListContainerOptions.Builder.prefix("dir/").delimiter("/").afterMarker(page.getNextMarker()));
+      assertThat(names(page)).containsExactly("dir/c");
+      assertThat(page.getNextMarker()).isNull();
+
+      page = blobStore.list(CONTAINER_NAME, ListContainerOptions.Builder.prefix("dir%"));
+      assertThat(names(page)).containsExactly("dir%x");
+   }
+
+   @Test
+   public void testListUserMetadataOnlyWithDetails() {
+      blobStore.createContainerInLocation(null, CONTAINER_NAME);
+      blobStore.putBlob(CONTAINER_NAME, blobStore.blobBuilder(BLOB_NAME)
+            .payload(randomByteSource().slice(0, 1024))
+            .contentType("text/plain")
+            .userMetadata(ImmutableMap.of("key", "value"))
+            .build());
+
+      StorageMetadata listed = Iterables.getOnlyElement(blobStore.list(CONTAINER_NAME));
+      assertThat(listed.getUserMetadata()).isEmpty();
+      assertThat(listed.getSize()).isEqualTo(1024L);
+
+      listed = Iterables.getOnlyElement(blobStore.list(CONTAINER_NAME, ListContainerOptions.Builder.withDetails()));
+      assertThat(listed.getUserMetadata()).containsEntry("key", "value");
+      assertThat(((BlobMetadata) listed).getContentMetadata().getContentType()).isEqualTo("text/plain");
+   }
+
    @Test
    public void testClearContainerNotExistingContainer() {
       blobStore.clearContainer(CONTAINER_NAME);
@@ -620,6 +692,170 @@ public abstract class BaseJdbcBlobStoreTest {
       }
    }
 
+   @Test
+   public void testRangesAcrossChunks() throws IOException {
+      blobStore.createContainerInLocation(null, CONTAINER_NAME);
+      ByteSource content = randomByteSource().slice(0, 3 * 1024 * 1024 + 10);
+      blobStore.putBlob(CONTAINER_NAME, blobStore.blobBuilder(BLOB_NAME).payload(content).build());
+
+      Blob tail = blobStore.getBlob(CONTAINER_NAME, BLOB_NAME, new GetOptions().tail(4096));
+      try {
+         assertThat(ByteStreams2.toByteArrayAndClose(tail.getPayload().openStream()))
+               .isEqualTo(content.slice(content.size() - 4096, 4096).read());
+      } finally {
+         Closeables2.closeQuietly(tail.getPayload());
+      }
+
+      Blob fragment = blobStore.getBlob(CONTAINER_NAME, BLOB_NAME,
+            new GetOptions().range(1024 * 1024 - 5, 2 * 1024 * 1024 + 5));
+      try {
+         assertThat(ByteStreams2.toByteArrayAndClose(fragment.getPayload().openStream()))
+               .isEqualTo(content.slice(1024 * 1024 - 5, 1024 * 1024 + 11).read());
+      } finally {
+         Closeables2.closeQuietly(fragment.getPayload());
+      }
+   }
+
+   @Test
+   public void testMultipartUpload() throws IOException {
+      blobStore.createContainerInLocation(null, CONTAINER_NAME);
+      ByteSource part1 = randomByteSource().slice(0, 1024 * 1024 + 512);
+      ByteSource part2 = randomByteSource().slice(0, 1024 * 1024 + 7);
+      BlobMetadata metadata = blobStore.blobBuilder(BLOB_NAME).userMetadata(ImmutableMap.of("key", "value"))
+            .build().getMetadata();
+      MultipartUpload mpu = blobStore.initiateMultipartUpload(CONTAINER_NAME, metadata, new PutOptions());
+      assertThat(blobStore.listMultipartUploads(CONTAINER_NAME)).hasSize(1);
+
+      MultipartPart second = blobStore.uploadMultipartPart(mpu, 2, Payloads.newByteSourcePayload(part2));
+      MultipartPart first = blobStore.uploadMultipartPart(mpu, 1, Payloads.newByteSourcePayload(part1));
+      assertThat(blobStore.listMultipartUpload(mpu)).hasSize(2);
+      assertThat(blobStore.blobExists(CONTAINER_NAME, BLOB_NAME)).isFalse();
+
+      blobStore.completeMultipartUpload(mpu, ImmutableList.of(first, second));
+      assertThat(blobStore.listMultipartUploads(CONTAINER_NAME)).isEmpty();
+      ByteSource content = ByteSource.concat(part1, part2);
+      Blob blob = blobStore.getBlob(CONTAINER_NAME, BLOB_NAME);
+      assertThat(blob.getMetadata().getUserMetadata()).containsEntry("key", "value");
+      assertThat(blob.getMetadata().getContentMetadata().getContentLength()).isEqualTo(content.size());
+      assertThat(ByteStreams2.toByteArrayAndClose(blob.getPayload().openStream())).isEqualTo(content.read());
+
+      // the range spans the short last chunk of the first part and the first chunk of the second one
+      Blob fragment = blobStore.getBlob(CONTAINER_NAME, BLOB_NAME,
+            new GetOptions().range(1024 * 1024 + 500, 1024 * 1024 + 600));
+      try {
+         assertThat(ByteStreams2.toByteArrayAndClose(fragment.getPayload().openStream()))
+               .isEqualTo(content.slice(1024 * 1024 + 500, 101).read());
+      } finally {
+         Closeables2.closeQuietly(fragment.getPayload());
+      }
+   }
+
+   @Test
+   public void testAbortMultipartUpload() throws IOException {
+      blobStore.createContainerInLocation(null, CONTAINER_NAME);
+      MultipartUpload mpu = blobStore.initiateMultipartUpload(CONTAINER_NAME,
+            blobStore.blobBuilder(BLOB_NAME).build().getMetadata(), new PutOptions());
+      MultipartPart part = blobStore.uploadMultipartPart(mpu, 1,
+            Payloads.newByteSourcePayload(randomByteSource().slice(0, 1024)));
+      try {
+         blobStore.completeMultipartUpload(mpu, ImmutableList.<MultipartPart>of());
+         fail("an upload without parts should not complete");
+      } catch (IllegalArgumentException e) {
+         // expected
+      }
+      blobStore.abortMultipartUpload(mpu);
+      assertThat(blobStore.listMultipartUploads(CONTAINER_NAME)).isEmpty();
+      assertThat(blobStore.listMultipartUpload(mpu)).isEmpty();
+      try {
+         blobStore.completeMultipartUpload(mpu, ImmutableList.of(part));
+         fail("an aborted upload should not complete");
+      } catch (IllegalArgumentException e) {
+         // expected
+      }
+      assertThat(blobStore.blobExists(CONTAINER_NAME, BLOB_NAME)).isFalse();
+   }
+
+   @Test
+   public void testCopyBlob() throws IOException {
+      blobStore.createContainerInLocation(null, CONTAINER_NAME);
+      ByteSource content = randomByteSource().slice(0, 3 * 1024 * 1024 + 5);
+      blobStore.putBlob(CONTAINER_NAME, blobStore.blobBuilder(BLOB_NAME).payload(content)
+            .contentType("application/octet-stream").userMetadata(ImmutableMap.of("key", "value")).build());
+
+      String etag = blobStore.copyBlob(CONTAINER_NAME, BLOB_NAME, CONTAINER_NAME, BLOB_NAME + "-copy",
+            CopyOptions.NONE);
+      blobStore.copyBlob(CONTAINER_NAME, BLOB_NAME, CONTAINER_NAME, BLOB_NAME + "-renamed",
+            CopyOptions.builder().userMetadata(ImmutableMap.of("other", "metadata")).build());
+      blobStore.removeBlob(CONTAINER_NAME, BLOB_NAME);
+
+      Blob copy = blobStore.getBlob(CONTAINER_NAME, BLOB_NAME + "-copy");
+      assertThat(copy.getMetadata().getETag()).isEqualTo(etag);
+      assertThat(copy.getMetadata().getUserMetadata()).isEqualTo(ImmutableMap.of("key", "value"));
+      assertThat(copy.getMetadata().getContentMetadata().getContentType()).isEqualTo("application/octet-stream");
+      assertThat(ByteStreams2.toByteArrayAndClose(copy.getPayload().openStream())).isEqualTo(content.read());
+      Blob renamed = blobStore.getBlob(CONTAINER_NAME, BLOB_NAME + "-renamed");
+      assertThat(renamed.getMetadata().getUserMetadata()).isEqualTo(ImmutableMap.of("other", "metadata"));
+      assertThat(ByteStreams2.toByteArrayAndClose(renamed.getPayload().openStream())).isEqualTo(content.read());
+
+      // the copies keep the shared chunks alive until the last of them is removed
+      blobStore.removeBlob(CONTAINER_NAME, BLOB_NAME + "-copy");
+      renamed = blobStore.getBlob(CONTAINER_NAME, BLOB_NAME + "-renamed");
+      assertThat(ByteStreams2.toByteArrayAndClose(renamed.getPayload().openStream())).isEqualTo(content.read());
+   }
+
+   @Test
+   public void testCopyBlobPreconditions() {
+      blobStore.createContainerInLocation(null, CONTAINER_NAME);
+      blobStore.putBlob(CONTAINER_NAME, blobStore.blobBuilder(BLOB_NAME).payload("content").build());
+      try {
+         blobStore.copyBlob(CONTAINER_NAME, BLOB_NAME, CONTAINER_NAME, BLOB_NAME + "-copy",
+               CopyOptions.builder().ifMatch("\"0123456789abcdef0123456789abcdef\"").build());
+         fail("copy should not have matched");
+      } catch (HttpResponseException e) {
+         assertThat(e.getResponse().getStatusCode()).isEqualTo(412);
+      }
+      assertThat(blobStore.blobExists(CONTAINER_NAME, BLOB_NAME + "-copy")).isFalse();
+      String etag = blobStore.blobMetadata(CONTAINER_NAME, BLOB_NAME).getETag();
+      assertThat(blobStore.copyBlob(CONTAINER_NAME, BLOB_NAME, CONTAINER_NAME, BLOB_NAME + "-copy",
+            CopyOptions.builder().ifMatch(etag).build())).isEqualTo(etag);
+      try {
+         blobStore.copyBlob(CONTAINER_NAME, BLOB_NAME + "-missing", CONTAINER_NAME, BLOB_NAME + "-copy",
+               CopyOptions.NONE);
+         fail("missing blob should not have been copied");
+      } catch (KeyNotFoundException e) {
+         // expected
+      }
+   }
+
+   @Test
+   public void testConditionalGet() throws IOException {
+      JdbcMetrics metrics = context.utils().injector().getInstance(JdbcMetrics.class);
+      ByteSource content = randomByteSource().slice(0, 10000);
+      blobStore.createContainerInLocation(null, CONTAINER_NAME);
+      String etag = blobStore.putBlob(CONTAINER_NAME, blobStore.blobBuilder(BLOB_NAME).payload(content).build());
+      try {
+         blobStore.getBlob(CONTAINER_NAME, BLOB_NAME, GetOptions.Builder.ifETagDoesntMatch(etag));
+         fail("blob should not have been modified");
+      } catch (HttpResponseException e) {
+         assertThat(e.getResponse().getStatusCode()).isEqualTo(304);
+      }
+      try {
+         blobStore.getBlob(CONTAINER_NAME, BLOB_NAME,
+               GetOptions.Builder.ifETagMatches("\"0123456789abcdef0123456789abcdef\""));
+         fail("blob should not have matched");
+      } catch (HttpResponseException e) {
+         assertThat(e.getResponse().getStatusCode()).isEqualTo(412);
+      }
+      // failed conditions are answered from the metadata, without looking up the chunks
+      assertNull(metrics.getStats("JdbcService.findChunkIdsByPayloadId"));
+      assertNull(blobStore.getBlob(CONTAINER_NAME, BLOB_NAME + "-missing", GetOptions.Builder.ifETagMatches(etag)));
+
+      Blob blob = blobStore.getBlob(CONTAINER_NAME, BLOB_NAME, GetOptions.Builder.ifETagMatches(etag).range(10, 19));
+      assertThat(ByteStreams2.toByteArrayAndClose(blob.getPayload().openStream()))
+            .isEqualTo(content.slice(10, 10).read());
+      assertNotNull(metrics.getStats("JdbcService.findChunkIdsByPayloadId"));
+   }
+
    @Test
    public void testBlobRequestSigner() throws Exception {
       String containerName = "container";
@@ -668,6 +904,14 @@ public abstract class BaseJdbcBlobStoreTest {
       return blobNames;
    }
 
+   private static List<String> names(PageSet<? extends StorageMetadata> page) {
+      List<String> names = Lists.newArrayList();
+      for (StorageMetadata metadata : page) {
+         names.add(metadata.getName());
+      }
+      return names;
+   }
+
    private void checkForContainerContent(final String containerName, List<String> expectedBlobKeys) {
       checkForContainerContent(containerName, null, expectedBlobKeys);
    }
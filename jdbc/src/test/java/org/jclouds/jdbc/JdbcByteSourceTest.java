@@ -0,0 +1,142 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jclouds.jdbc;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.io.ByteSource;
+import org.jclouds.jdbc.entity.ChunkEntity;
+import org.jclouds.jdbc.reference.JdbcConstants;
+import org.jclouds.jdbc.service.JdbcService;
+import org.jclouds.jdbc.util.JdbcByteSource;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import java.io.IOException;
+import java.util.Arrays;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.easymock.EasyMock.createMock;
+import static org.easymock.EasyMock.expect;
+import static org.easymock.EasyMock.replay;
+import static org.easymock.EasyMock.verify;
+
+@Test(groups = "unit", testName = "JdbcByteSourceTest")
+public class JdbcByteSourceTest {
+
+   private static final int CHUNK_SIZE = JdbcConstants.DEFAULT_CHUNK_SIZE;
+   private static final Long PAYLOAD_ID = 10L;
+
+   private JdbcService mockJdbcService;
+   private ByteSource byteSource;
+
+   @BeforeMethod
+   public void setUp() {
+      mockJdbcService = createMock(JdbcService.class);
+      byteSource = new JdbcByteSource(mockJdbcService, PAYLOAD_ID, 2L * CHUNK_SIZE + 3, null, 0);
+   }
+
+   @Test
+   public void testSize() throws IOException {
+      replay(mockJdbcService);
+      assertThat(byteSource.size()).isEqualTo(2L * CHUNK_SIZE + 3);
+      assertThat(byteSource.slice(CHUNK_SIZE, Long.MAX_VALUE).size()).isEqualTo(CHUNK_SIZE + 3);
+      assertThat(byteSource.slice(3L * CHUNK_SIZE, 1).size()).isEqualTo(0);
+      verify(mockJdbcService);
+   }
+
+   @Test
+   public void testTailOnlyReadsLastChunk() throws IOException {
+      expect(mockJdbcService.findChunkIdsByPayloadId(PAYLOAD_ID)).andReturn(ImmutableList.of(1L, 2L, 3L));
+      expect(mockJdbcService.findChunkById(3L)).andReturn(new ChunkEntity(new byte[] { 7, 8, 9 }, 3));
+      replay(mockJdbcService);
+
+      assertThat(byteSource.slice(2L * CHUNK_SIZE + 1, 2).read()).isEqualTo(new byte[] { 8, 9 });
+      verify(mockJdbcService);
+   }
+
+   @Test
+   public void testRangeAcrossChunkBoundary() throws IOException {
+      expect(mockJdbcService.findChunkIdsByPayloadId(PAYLOAD_ID)).andReturn(ImmutableList.of(1L, 2L, 3L));
+      expect(mockJdbcService.findChunkById(1L)).andReturn(new ChunkEntity(filledChunk((byte) 1), CHUNK_SIZE));
+      expect(mockJdbcService.findChunkById(2L)).andReturn(new ChunkEntity(filledChunk((byte) 2), CHUNK_SIZE));
+      replay(mockJdbcService);
+
+      assertThat(byteSource.slice(CHUNK_SIZE - 2, 4).read()).isEqualTo(new byte[] { 1, 1, 2, 2 });
+      verify(mockJdbcService);
+   }
+
+   @Test
+   public void testNestedSlice() throws IOException {
+      expect(mockJdbcService.findChunkIdsByPayloadId(PAYLOAD_ID)).andReturn(ImmutableList.of(1L, 2L, 3L));
+      expect(mockJdbcService.findChunkById(2L)).andReturn(new ChunkEntity(filledChunk((byte) 2), CHUNK_SIZE));
+      expect(mockJdbcService.findChunkById(3L)).andReturn(new ChunkEntity(new byte[] { 7, 8, 9 }, 3));
+      replay(mockJdbcService);
+
+      ByteSource slice = byteSource.slice(CHUNK_SIZE, CHUNK_SIZE + 3).slice(CHUNK_SIZE - 1, 3);
+      assertThat(slice.read()).isEqualTo(new byte[] { 2, 7, 8 });
+      verify(mockJdbcService);
+   }
+
+   @Test
+   public void testChunkIdsReadOnce() throws IOException {
+      expect(mockJdbcService.findChunkIdsByPayloadId(PAYLOAD_ID)).andReturn(ImmutableList.of(1L, 2L, 3L));
+      expect(mockJdbcService.findChunkById(3L)).andReturn(new ChunkEntity(new byte[] { 7, 8, 9 }, 3)).times(2);
+      replay(mockJdbcService);
+
+      ByteSource tail = byteSource.slice(2L * CHUNK_SIZE, 3);
+      assertThat(tail.read()).isEqualTo(new byte[] { 7, 8, 9 });
+      assertThat(byteSource.slice(2L * CHUNK_SIZE + 2, 1).read()).isEqualTo(new byte[] { 9 });
+      verify(mockJdbcService);
+   }
+
+   @Test
+   public void testInlinePayload() throws IOException {
+      expect(mockJdbcService.findChunkIdsByPayloadId(PAYLOAD_ID)).andReturn(ImmutableList.<Long>of());
+      expect(mockJdbcService.findInlineDataByPayloadId(PAYLOAD_ID)).andReturn(new byte[] { 1, 2, 3, 4 });
+      replay(mockJdbcService);
+
+      assertThat(new JdbcByteSource(mockJdbcService, PAYLOAD_ID, 4L, null, 0).slice(1, 2).read())
+            .isEqualTo(new byte[] { 2, 3 });
+      verify(mockJdbcService);
+   }
+
+   @Test
+   public void testResolvedChunkIdsAreNotLookedUp() throws IOException {
+      expect(mockJdbcService.findChunkById(3L)).andReturn(new ChunkEntity(new byte[] { 7, 8, 9 }, 3));
+      replay(mockJdbcService);
+
+      ByteSource resolved = new JdbcByteSource(mockJdbcService, PAYLOAD_ID, ImmutableList.of(1L, 2L, 3L), false,
+            2L * CHUNK_SIZE + 3, null, 0);
+      assertThat(resolved.slice(2L * CHUNK_SIZE + 1, 2).read()).isEqualTo(new byte[] { 8, 9 });
+      verify(mockJdbcService);
+   }
+
+   @Test(expectedExceptions = IOException.class)
+   public void testMissingPayload() throws IOException {
+      expect(mockJdbcService.findChunkIdsByPayloadId(PAYLOAD_ID)).andReturn(null);
+      replay(mockJdbcService);
+
+      byteSource.openStream();
+   }
+
+   private static byte[] filledChunk(byte value) {
+      byte[] data = new byte[CHUNK_SIZE];
+      Arrays.fill(data, value);
+      return data;
+   }
+
+}
@@ -17,16 +17,23 @@
 package org.jclouds.jdbc;
 
 import com.google.common.collect.ImmutableList;
+import com.google.common.io.ByteStreams;
+import org.jclouds.jdbc.entity.ChunkEntity;
 import org.jclouds.jdbc.service.JdbcService;
+import org.jclouds.jdbc.util.ChunkCompression;
 import org.jclouds.jdbc.util.JdbcInputStream;
 import org.testng.annotations.BeforeMethod;
 import org.testng.annotations.Test;
 
 import java.io.IOException;
+import java.util.Arrays;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 
 import static org.assertj.core.api.Assertions.assertThat;
 import static org.easymock.EasyMock.createNiceMock;
 import static org.easymock.EasyMock.expect;
+import static org.easymock.EasyMock.replay;
 
 @Test(groups = "unit", testName = "JdbcInputStreamTest")
 public class JdbcInputStreamTest {
@@ -56,4 +63,75 @@ public class JdbcInputStreamTest {
       assertThat(jdbcInputStream.read()).isEqualTo(-1);
    }
 
+   @Test
+   public void testBulkReadAcrossChunks() throws IOException {
+      expect(mockJdbcService.findChunkById(1L)).andReturn(new ChunkEntity(new byte[] { 1, 2, 3 }, 3));
+      expect(mockJdbcService.findChunkById(2L)).andReturn(new ChunkEntity(new byte[] { 4, 5 }, 2));
+      replay(mockJdbcService);
+
+      JdbcInputStream jdbcInputStream = new JdbcInputStream(mockJdbcService, ImmutableList.of(1L, 2L));
+      byte[] buffer = new byte[8];
+      assertThat(jdbcInputStream.read(buffer, 0, buffer.length)).isEqualTo(3);
+      assertThat(jdbcInputStream.read(buffer, 3, buffer.length - 3)).isEqualTo(2);
+      assertThat(jdbcInputStream.read(buffer, 5, buffer.length - 5)).isEqualTo(-1);
+      assertThat(Arrays.copyOf(buffer, 5)).isEqualTo(new byte[] { 1, 2, 3, 4, 5 });
+   }
+
+   @Test
+   public void testSkipAcrossChunks() throws IOException {
+      expect(mockJdbcService.findChunkById(1L)).andReturn(new ChunkEntity(new byte[] { 1, 2, 3 }, 3));
+      expect(mockJdbcService.findChunkById(2L)).andReturn(new ChunkEntity(new byte[] { 4, 5 }, 2));
+      replay(mockJdbcService);
+
+      JdbcInputStream jdbcInputStream = new JdbcInputStream(mockJdbcService, ImmutableList.of(1L, 2L));
+      assertThat(jdbcInputStream.skip(4)).isEqualTo(4);
+      assertThat(jdbcInputStream.read()).isEqualTo(5);
+      assertThat(jdbcInputStream.read()).isEqualTo(-1);
+   }
+
+   @Test
+   public void testRepeatedChunk() throws IOException {
+      expect(mockJdbcService.findChunkById(1L)).andReturn(new ChunkEntity(new byte[] { 1, 2 }, 2)).times(2);
+      expect(mockJdbcService.findChunkById(2L)).andReturn(new ChunkEntity(new byte[] { 3 }, 1));
+      replay(mockJdbcService);
+
+      JdbcInputStream jdbcInputStream = new JdbcInputStream(mockJdbcService, ImmutableList.of(1L, 2L, 1L));
+      assertThat(ByteStreams.toByteArray(jdbcInputStream)).isEqualTo(new byte[] { 1, 2, 3, 1, 2 });
+   }
+
+   @Test
+   public void testReadAhead() throws IOException {
+      expect(mockJdbcService.findChunkById(1L)).andReturn(new ChunkEntity(new byte[] { 1, 2 }, 2));
+      expect(mockJdbcService.findChunkById(2L)).andReturn(new ChunkEntity(new byte[] { 3, 4 }, 2));
+      expect(mockJdbcService.findChunkById(3L)).andReturn(new ChunkEntity(new byte[] { 5 }, 1));
+      replay(mockJdbcService);
+
+      ExecutorService executor = Executors.newSingleThreadExecutor();
+      try {
+         JdbcInputStream jdbcInputStream = new JdbcInputStream(mockJdbcService, ImmutableList.of(1L, 2L, 3L),
+               executor, 1);
+         assertThat(ByteStreams.toByteArray(jdbcInputStream)).isEqualTo(new byte[] { 1, 2, 3, 4, 5 });
+      } finally {
+         executor.shutdownNow();
+      }
+   }
+
+   @Test
+   public void testCompressedChunk() throws IOException {
+      byte[] data = new byte[4096];
+      Arrays.fill(data, (byte) 42);
+      ChunkEntity compressed = new ChunkEntity(ChunkCompression.compress(data, data.length), data.length);
+      compressed.setCompressed(true);
+      expect(mockJdbcService.findChunkById(1L)).andReturn(compressed);
+      expect(mockJdbcService.findChunkById(2L)).andReturn(new ChunkEntity(new byte[] { 1, 2 }, 2));
+      replay(mockJdbcService);
+
+      assertThat(compressed.getData().length).isLessThan(data.length);
+      JdbcInputStream jdbcInputStream = new JdbcInputStream(mockJdbcService, ImmutableList.of(1L, 2L));
+      byte[] expected = Arrays.copyOf(data, data.length + 2);
+      expected[data.length] = 1;
+      expected[data.length + 1] = 2;
+      assertThat(ByteStreams.toByteArray(jdbcInputStream)).isEqualTo(expected);
+   }
+
 }
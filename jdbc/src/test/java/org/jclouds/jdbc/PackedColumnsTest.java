@@ -0,0 +1,69 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jclouds.jdbc;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import org.jclouds.jdbc.util.PackedColumns;
+import org.testng.annotations.Test;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+@Test(groups = "unit", testName = "PackedColumnsTest")
+public class PackedColumnsTest {
+
+   @Test
+   public void testChunkIdsRoundTrip() {
+      List<Long> chunkIds = ImmutableList.of(1L, 2L, 3L, 1000000L, 7L, 7L, Long.MAX_VALUE, 0L);
+      assertThat(PackedColumns.unpackChunkIds(PackedColumns.packChunkIds(chunkIds))).isEqualTo(chunkIds);
+   }
+
+   @Test
+   public void testConsecutiveChunkIdsTakeAByteEach() {
+      ImmutableList.Builder<Long> chunkIds = ImmutableList.builder();
+      for (long id = 5000000; id < 5001000; id++) {
+         chunkIds.add(id);
+      }
+      assertThat(PackedColumns.packChunkIds(chunkIds.build()).length).isLessThan(1010);
+   }
+
+   @Test
+   public void testEmptyValuesAreNull() {
+      assertThat(PackedColumns.packChunkIds(ImmutableList.<Long>of())).isNull();
+      assertThat(PackedColumns.packUserMetadata(ImmutableMap.<String, String>of())).isNull();
+      assertThat(PackedColumns.unpackChunkIds(null)).isEmpty();
+      assertThat(PackedColumns.unpackUserMetadata(null)).isEmpty();
+   }
+
+   @Test
+   public void testUserMetadataRoundTrip() {
+      Map<String, String> userMetadata = ImmutableMap.of("key", "value", "empty", "", "unicode", "\u00e9\u4e2d");
+      assertThat(PackedColumns.unpackUserMetadata(PackedColumns.packUserMetadata(userMetadata)))
+            .isEqualTo(userMetadata);
+   }
+
+   @Test(expectedExceptions = IllegalArgumentException.class)
+   public void testTruncatedColumn() {
+      byte[] packed = PackedColumns.packUserMetadata(ImmutableMap.of("key", "value"));
+      PackedColumns.unpackUserMetadata(Arrays.copyOf(packed, packed.length - 2));
+   }
+
+}
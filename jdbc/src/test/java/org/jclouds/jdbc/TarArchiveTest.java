@@ -0,0 +1,111 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jclouds.jdbc;
+
+import com.google.common.base.Strings;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.io.ByteStreams;
+import org.jclouds.jdbc.util.TarArchiveReader;
+import org.jclouds.jdbc.util.TarArchiveWriter;
+import org.jclouds.jdbc.util.TarEntry;
+import org.testng.annotations.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.Map;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.testng.Assert.fail;
+
+@Test(groups = "unit", testName = "TarArchiveTest")
+public class TarArchiveTest {
+
+   @Test
+   public void testRoundTrip() throws IOException {
+      String longName = Strings.repeat("directory/", 20) + "\u00e9\u4e2d";
+      Map<String, String> headers = ImmutableMap.of("JCLOUDS.meta.key", "multi\nline");
+      byte[] content = new byte[1000];
+      Arrays.fill(content, (byte) 'a');
+
+      ByteArrayOutputStream archive = new ByteArrayOutputStream();
+      TarArchiveWriter writer = new TarArchiveWriter(archive);
+      writer.putEntry(new TarEntry("file", 5, false, new Date(1234567890123L), headers));
+      writer.write("hello".getBytes("UTF-8"));
+      writer.putEntry(new TarEntry(longName, content.length, false, new Date(1000000000000L),
+            ImmutableMap.<String, String>of()));
+      writer.write(content);
+      writer.putEntry(new TarEntry("directory", 0, true, null, ImmutableMap.<String, String>of()));
+      writer.finish();
+      assertThat(archive.size() % 512).isEqualTo(0);
+
+      TarArchiveReader reader = new TarArchiveReader(new ByteArrayInputStream(archive.toByteArray()));
+      TarEntry entry = reader.getNextEntry();
+      assertThat(entry.getName()).isEqualTo("file");
+      assertThat(entry.getLastModified()).isEqualTo(new Date(1234567890123L));
+      assertThat(entry.getHeaders()).isEqualTo(headers);
+      assertThat(ByteStreams.toByteArray(reader)).isEqualTo("hello".getBytes("UTF-8"));
+      entry = reader.getNextEntry();
+      assertThat(entry.getName()).isEqualTo(longName);
+      assertThat(entry.getSize()).isEqualTo(content.length);
+      // the content of an entry is skipped when it is not read
+      entry = reader.getNextEntry();
+      assertThat(entry.getName()).isEqualTo("directory/");
+      assertThat(entry.isDirectory()).isTrue();
+      assertThat(reader.getNextEntry()).isNull();
+   }
+
+   @Test
+   public void testContentMustMatchSize() throws IOException {
+      TarArchiveWriter writer = new TarArchiveWriter(new ByteArrayOutputStream());
+      writer.putEntry(new TarEntry("file", 5, false, null, ImmutableMap.<String, String>of()));
+      writer.write(new byte[4]);
+      try {
+         writer.write(new byte[2]);
+         fail("content exceeding the entry size should have been rejected");
+      } catch (IOException e) {
+         // expected
+      }
+      try {
+         writer.finish();
+         fail("missing content should have been reported");
+      } catch (IOException e) {
+         // expected
+      }
+   }
+
+   @Test
+   public void testTruncatedArchive() throws IOException {
+      ByteArrayOutputStream archive = new ByteArrayOutputStream();
+      TarArchiveWriter writer = new TarArchiveWriter(archive);
+      writer.putEntry(new TarEntry("file", 1000, false, null, ImmutableMap.<String, String>of()));
+      writer.write(new byte[1000]);
+      writer.finish();
+
+      TarArchiveReader reader = new TarArchiveReader(new ByteArrayInputStream(archive.toByteArray(), 0, 700));
+      assertThat(reader.getNextEntry().getName()).isEqualTo("file");
+      try {
+         ByteStreams.toByteArray(reader);
+         fail("truncated content should have been reported");
+      } catch (IOException e) {
+         // expected
+      }
+   }
+
+}
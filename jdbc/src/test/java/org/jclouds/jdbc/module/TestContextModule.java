@@ -18,11 +18,13 @@ package org.jclouds.jdbc.module;
 
 import com.google.inject.AbstractModule;
 import org.jclouds.jdbc.config.JPAInitializer;
+import org.jclouds.jdbc.metrics.JdbcMetricsModule;
 
 public class TestContextModule extends AbstractModule {
 
    @Override
    protected void configure() {
+      install(new JdbcMetricsModule());
       bind(JPAInitializer.class).asEagerSingleton();
    }
 
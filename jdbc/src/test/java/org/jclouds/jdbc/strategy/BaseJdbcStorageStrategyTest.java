@@ -16,12 +16,33 @@
  */
 package org.jclouds.jdbc.strategy;
 
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
 import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.Lists;
+import com.google.common.hash.HashCode;
+import com.google.common.hash.Hashing;
+import com.google.common.io.ByteSource;
+import com.google.common.io.ByteStreams;
+import com.google.common.primitives.Bytes;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.ListeningExecutorService;
+import com.google.common.util.concurrent.MoreExecutors;
+import com.google.inject.AbstractModule;
 import com.google.inject.Guice;
 import com.google.inject.Injector;
 import com.google.inject.Module;
+import com.google.inject.ProvisionException;
+import com.google.inject.TypeLiteral;
+import com.google.inject.matcher.Matchers;
+import com.google.inject.name.Names;
 import com.google.inject.persist.PersistService;
+import com.google.inject.persist.UnitOfWork;
 import com.google.inject.persist.jpa.JpaPersistModule;
+import org.aopalliance.intercept.MethodInterceptor;
+import org.aopalliance.intercept.MethodInvocation;
+import org.jclouds.Constants;
 import org.jclouds.blobstore.domain.Blob;
 import org.jclouds.blobstore.domain.BlobAccess;
 import org.jclouds.blobstore.domain.ContainerAccess;
@@ -29,18 +50,47 @@ import org.jclouds.blobstore.domain.StorageMetadata;
 import org.jclouds.blobstore.domain.StorageType;
 import org.jclouds.blobstore.domain.internal.BlobBuilderImpl;
 import org.jclouds.blobstore.options.CreateContainerOptions;
+import org.jclouds.blobstore.options.ListContainerOptions;
+import org.jclouds.jdbc.entity.BlobEntity;
+import org.jclouds.jdbc.entity.ChunkEntity;
+import org.jclouds.jdbc.entity.PayloadEntity;
+import org.jclouds.jdbc.metrics.JdbcMetrics;
+import org.jclouds.jdbc.metrics.JdbcOperationListener;
+import org.jclouds.jdbc.metrics.OperationStats;
 import org.jclouds.jdbc.module.TestContextModule;
+import org.jclouds.jdbc.reference.JdbcConstants;
+import org.jclouds.jdbc.repository.ContainerRepository;
+import org.jclouds.jdbc.service.BlobMetadataCache;
+import org.jclouds.jdbc.service.ChunkCollector;
+import org.jclouds.jdbc.service.ChunkWriter;
+import org.jclouds.jdbc.service.JdbcService;
+import org.jclouds.jdbc.service.SchemaMigration;
+import org.jclouds.jdbc.service.SchemaValidator;
 import org.testng.annotations.AfterMethod;
 import org.testng.annotations.BeforeMethod;
 import org.testng.annotations.Test;
 
+import javax.persistence.EntityManager;
+import javax.persistence.PersistenceException;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.util.Arrays;
+import java.util.Collections;
 import java.util.Date;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import static org.assertj.core.api.Assertions.assertThat;
 import static org.jclouds.utils.TestUtils.randomByteSource;
+import static org.testng.Assert.fail;
 
 public abstract class BaseJdbcStorageStrategyTest {
 
@@ -51,6 +101,10 @@ public abstract class BaseJdbcStorageStrategyTest {
 
    private JdbcStorageStrategy storageStrategy;
    private Injector injector;
+   private ListeningExecutorService userExecutor;
+   private final List<String> completedOperations = Collections.synchronizedList(Lists.<String>newArrayList());
+   private final AtomicInteger failingChunkBatches = new AtomicInteger();
+   private final AtomicInteger chunkListReads = new AtomicInteger();
 
    protected BaseJdbcStorageStrategyTest(String jpaModuleName) {
       this.jpaModuleName = jpaModuleName;
@@ -58,13 +112,84 @@ public abstract class BaseJdbcStorageStrategyTest {
 
    @BeforeMethod
    protected void setUp() throws Exception {
-      injector = Guice.createInjector(ImmutableSet.<Module> of(new TestContextModule(), new JpaPersistModule(jpaModuleName)));
+      userExecutor = MoreExecutors.listeningDecorator(Executors.newCachedThreadPool());
+      injector = null;
+      failingChunkBatches.set(0);
+      chunkListReads.set(0);
+      start(ImmutableMap.<String, String>of());
+   }
+
+   /**
+    * Starts the storage strategy on an empty database, stopping the one started before. The given
+    * properties are bound on top of the ones every test uses.
+    */
+   private void start(Map<String, String> overrides) {
+      if (injector != null) {
+         injector.getInstance(PersistService.class).stop();
+      }
+      final Properties properties = new Properties();
+      // small enough for the tests to span several delete batches
+      properties.setProperty(JdbcConstants.PROPERTY_DELETE_BATCH_SIZE, "2");
+      properties.setProperty(JdbcConstants.PROPERTY_GC_GRACE_PERIOD, "0");
+      properties.putAll(overrides);
+      Module testProperties = new AbstractModule() {
+         @Override
+         protected void configure() {
+            Names.bindProperties(binder(), properties);
+            // fails chunk batches once written, so their transaction is rolled back
+            bindInterceptor(Matchers.subclassesOf(ChunkWriter.class), Matchers.named("writeChunks"),
+                  new MethodInterceptor() {
+                     @Override
+                     public Object invoke(MethodInvocation invocation) throws Throwable {
+                        Object result = invocation.proceed();
+                        if (failingChunkBatches.get() > 0 && failingChunkBatches.decrementAndGet() >= 0) {
+                           throw new PersistenceException("failing chunk batch");
+                        }
+                        return result;
+                     }
+                  });
+            // counts the batches of chunk lists the collector reads
+            bindInterceptor(Matchers.subclassesOf(ChunkCollector.class),
+                  Matchers.named("findPayloadChunkLists").or(Matchers.named("findPartChunkLists")),
+                  new MethodInterceptor() {
+                     @Override
+                     public Object invoke(MethodInvocation invocation) throws Throwable {
+                        chunkListReads.incrementAndGet();
+                        return invocation.proceed();
+                     }
+                  });
+            // chunk batches are written concurrently with the upload
+            bind(ListeningExecutorService.class).annotatedWith(Names.named(Constants.PROPERTY_USER_THREADS))
+                  .toInstance(userExecutor);
+            bind(new TypeLiteral<Set<JdbcOperationListener>>() { }).toInstance(ImmutableSet.<JdbcOperationListener>of(
+                  new JdbcOperationListener() {
+                     @Override
+                     public void operationCompleted(String operation, long durationNanos, long rows, long bytes,
+                           Throwable failure) {
+                        completedOperations.add(operation);
+                     }
+                  }));
+         }
+      };
+      injector = Guice.createInjector(ImmutableSet.<Module> of(new TestContextModule(), new JpaPersistModule(jpaModuleName),
+            testProperties));
       storageStrategy = injector.getInstance(JdbcStorageStrategy.class);
    }
 
    @AfterMethod
    protected void tearDown() {
       injector.getInstance(PersistService.class).stop();
+      userExecutor.shutdownNow();
+   }
+
+   @Test
+   public void testNonPositiveDeleteBatchSize() {
+      try {
+         start(ImmutableMap.of(JdbcConstants.PROPERTY_DELETE_BATCH_SIZE, "0"));
+         fail("a delete batch size of 0 should have been rejected");
+      } catch (ProvisionException e) {
+         assertThat(e.getCause()).isInstanceOf(IllegalArgumentException.class);
+      }
    }
 
    @Test
@@ -105,6 +230,23 @@ public abstract class BaseJdbcStorageStrategyTest {
       assertThat(storageStrategy.containerExists(CONTAINER_NAME)).isFalse();
    }
 
+   @Test
+   public void testRecreateContainer() throws IOException {
+      assertThat(storageStrategy.createContainerInLocation(CONTAINER_NAME, null, null)).isTrue();
+      storageStrategy.putBlob(CONTAINER_NAME, new BlobBuilderImpl().name(BLOB_NAME).payload("old").build());
+      storageStrategy.deleteContainer(CONTAINER_NAME);
+      assertThat(storageStrategy.blobExists(CONTAINER_NAME, BLOB_NAME)).isFalse();
+      assertThat(storageStrategy.createContainerInLocation(CONTAINER_NAME, null, null)).isTrue();
+      assertThat(storageStrategy.blobExists(CONTAINER_NAME, BLOB_NAME)).isFalse();
+      storageStrategy.putBlob(CONTAINER_NAME, new BlobBuilderImpl().name(BLOB_NAME).payload("new").build());
+      InputStream data = storageStrategy.getBlob(CONTAINER_NAME, BLOB_NAME).getPayload().openStream();
+      try {
+         assertThat(new String(ByteStreams.toByteArray(data), "UTF-8")).isEqualTo("new");
+      } finally {
+         data.close();
+      }
+   }
+
    @Test
    public void testGetAllContainerNames() {
       assertThat(storageStrategy.createContainerInLocation(CONTAINER_NAME + "1", null, null)).isTrue();
@@ -167,6 +309,422 @@ public abstract class BaseJdbcStorageStrategyTest {
         }
     }
 
+   @Test
+   public void testGetBlobSpanningSeveralWriteBatches() throws IOException {
+      assertThat(storageStrategy.createContainerInLocation(CONTAINER_NAME, null, null)).isTrue();
+      ByteSource content = randomByteSource().slice(0, 10 * 1024 * 1024 + 1);
+      storageStrategy.putBlob(CONTAINER_NAME, new BlobBuilderImpl().name(BLOB_NAME).payload(content).build());
+      InputStream data = storageStrategy.getBlob(CONTAINER_NAME, BLOB_NAME).getPayload().openStream();
+      try {
+         assertThat(ByteStreams.toByteArray(data)).isEqualTo(content.read());
+      } finally {
+         data.close();
+      }
+   }
+
+   @Test
+   public void testGetBlobAroundInlineThreshold() throws IOException {
+      assertThat(storageStrategy.createContainerInLocation(CONTAINER_NAME, null, null)).isTrue();
+      int threshold = JdbcConstants.DEFAULT_INLINE_THRESHOLD;
+      for (int size : new int[] { 0, threshold, threshold + 1 }) {
+         ByteSource content = randomByteSource().slice(0, size);
+         storageStrategy.putBlob(CONTAINER_NAME,
+               new BlobBuilderImpl().name(BLOB_NAME + size).payload(content).build());
+         Blob blob = storageStrategy.getBlob(CONTAINER_NAME, BLOB_NAME + size);
+         assertThat(blob.getMetadata().getContentMetadata().getContentLength()).isEqualTo(size);
+         InputStream data = blob.getPayload().openStream();
+         try {
+            assertThat(ByteStreams.toByteArray(data)).isEqualTo(content.read());
+         } finally {
+            data.close();
+         }
+      }
+   }
+
+   @Test
+   public void testGetCompressibleBlob() throws IOException {
+      start(ImmutableMap.of(JdbcConstants.PROPERTY_COMPRESSION, "true"));
+      assertThat(storageStrategy.createContainerInLocation(CONTAINER_NAME, null, null)).isTrue();
+      byte[] line = "{\"level\":\"INFO\",\"message\":\"request served\"}\n".getBytes("UTF-8");
+      byte[] content = new byte[3 * 1024 * 1024 + 17];
+      for (int i = 0; i < content.length; i++) {
+         content[i] = line[i % line.length];
+      }
+      storageStrategy.putBlob(CONTAINER_NAME, new BlobBuilderImpl().name(BLOB_NAME).payload(content).build());
+      Blob blob = storageStrategy.getBlob(CONTAINER_NAME, BLOB_NAME);
+      assertThat(blob.getMetadata().getContentMetadata().getContentLength()).isEqualTo(content.length);
+      InputStream data = blob.getPayload().openStream();
+      try {
+         assertThat(ByteStreams.toByteArray(data)).isEqualTo(content);
+      } finally {
+         data.close();
+      }
+      data = ((ByteSource) blob.getPayload().getRawContent()).slice(2 * 1024 * 1024 - 3, 10).openStream();
+      try {
+         assertThat(ByteStreams.toByteArray(data)).isEqualTo(Arrays.copyOfRange(content, 2 * 1024 * 1024 - 3,
+               2 * 1024 * 1024 + 7));
+      } finally {
+         data.close();
+      }
+   }
+
+   @Test
+   public void testExportImportContainer() throws IOException {
+      assertThat(storageStrategy.createContainerInLocation(CONTAINER_NAME, null, null)).isTrue();
+      ByteSource large = randomByteSource().slice(0, 10 * 1024 * 1024 + 1);
+      storageStrategy.putBlob(CONTAINER_NAME, new BlobBuilderImpl().name(BLOB_NAME + "-large").payload(large)
+            .contentType("application/octet-stream").build());
+      storageStrategy.putBlob(CONTAINER_NAME, new BlobBuilderImpl().name(BLOB_NAME + "-small").payload("small")
+            .contentType("text/plain").userMetadata(ImmutableMap.of("owner", "\u00e9\u4e2d")).build());
+      storageStrategy.createDirectory(CONTAINER_NAME, "directory");
+
+      ByteArrayOutputStream archive = new ByteArrayOutputStream();
+      assertThat(storageStrategy.exportContainer(CONTAINER_NAME, archive)).isEqualTo(3);
+      assertThat(storageStrategy.importContainer(CONTAINER_NAME + "-copy",
+            new ByteArrayInputStream(archive.toByteArray()))).isEqualTo(3);
+      // chunks are read in batches rather than with a query each
+      assertThat(completedOperations).contains("JdbcService.findChunkData")
+            .doesNotContain("JdbcService.findChunkById");
+
+      assertThat(storageStrategy.getBlobKeysInsideContainer(CONTAINER_NAME + "-copy"))
+            .containsExactly("directory", BLOB_NAME + "-large", BLOB_NAME + "-small");
+      Blob small = storageStrategy.getBlob(CONTAINER_NAME + "-copy", BLOB_NAME + "-small");
+      assertThat(small.getMetadata().getUserMetadata()).isEqualTo(ImmutableMap.of("owner", "\u00e9\u4e2d"));
+      assertThat(small.getMetadata().getContentMetadata().getContentType()).isEqualTo("text/plain");
+      assertThat(small.getMetadata().getETag())
+            .isEqualTo(storageStrategy.getBlob(CONTAINER_NAME, BLOB_NAME + "-small").getMetadata().getETag());
+      Blob copy = storageStrategy.getBlob(CONTAINER_NAME + "-copy", BLOB_NAME + "-large");
+      InputStream data = copy.getPayload().openStream();
+      try {
+         assertThat(ByteStreams.toByteArray(data)).isEqualTo(large.read());
+      } finally {
+         data.close();
+      }
+      assertThat(storageStrategy.getBlob(CONTAINER_NAME + "-copy", "directory").getMetadata().getType())
+            .isEqualTo(StorageType.FOLDER);
+   }
+
+   @Test
+   public void testCollectOrphanChunks() throws Exception {
+      assertThat(storageStrategy.createContainerInLocation(CONTAINER_NAME, null, null)).isTrue();
+      ByteSource content = randomByteSource().slice(0, 2 * 1024 * 1024);
+      storageStrategy.putBlob(CONTAINER_NAME, new BlobBuilderImpl().name(BLOB_NAME).payload(content).build());
+      // chunks written by an upload interrupted before it could store its payload or release them
+      ChunkEntity legacyChunk = new ChunkEntity(getByteArray('b', 200), 200);
+      injector.getInstance(ChunkWriter.class).writeChunks(ImmutableList.of(
+            new ChunkEntity(getByteArray('a', 100), 100), legacyChunk));
+      // chunks stored before their use was tracked
+      EntityManager em = injector.getInstance(EntityManager.class);
+      em.getTransaction().begin();
+      em.createQuery("UPDATE ChunkEntity c SET c.lastUsed = NULL WHERE c.id = :id")
+            .setParameter("id", legacyChunk.getId())
+            .executeUpdate();
+      em.getTransaction().commit();
+      injector.getInstance(UnitOfWork.class).end();
+      Thread.sleep(10);
+
+      // they still count a reference, so only the full pass finds them
+      ChunkCollector collector = injector.getInstance(ChunkCollector.class);
+      assertThat(collector.collectOrphanChunks()).isEqualTo(0);
+      assertThat(collector.auditOrphanChunks()).isEqualTo(300);
+      assertThat(collector.auditOrphanChunks()).isEqualTo(0);
+      assertThat(collector.getCollectedChunks()).isEqualTo(2);
+
+      InputStream data = storageStrategy.getBlob(CONTAINER_NAME, BLOB_NAME).getPayload().openStream();
+      try {
+         assertThat(ByteStreams.toByteArray(data)).isEqualTo(content.read());
+      } finally {
+         data.close();
+      }
+   }
+
+   @Test
+   public void testCollectorSkipsReferencedChunks() throws Exception {
+      assertThat(storageStrategy.createContainerInLocation(CONTAINER_NAME, null, null)).isTrue();
+      for (int i = 0; i < 3; i++) {
+         storageStrategy.putBlob(CONTAINER_NAME, new BlobBuilderImpl().name(BLOB_NAME + i)
+               .payload(randomByteSource().slice(i, 3 * 1024 * 1024)).build());
+      }
+      Thread.sleep(10);
+
+      // none of the chunks lost its last reference, so there is nothing to check against the lists
+      ChunkCollector collector = injector.getInstance(ChunkCollector.class);
+      assertThat(collector.collectOrphanChunks()).isEqualTo(0);
+      assertThat(chunkListReads.get()).isEqualTo(0);
+      assertThat(collector.auditOrphanChunks()).isEqualTo(0);
+      assertThat(chunkListReads.get()).isGreaterThan(0);
+   }
+
+   @Test
+   public void testUploadsLeaveNoOrphanChunks() throws Exception {
+      assertThat(storageStrategy.createContainerInLocation(CONTAINER_NAME, null, null)).isTrue();
+      storageStrategy.putBlob(CONTAINER_NAME,
+            new BlobBuilderImpl().name(BLOB_NAME).payload(randomByteSource().slice(0, 3 * 1024 * 1024)).build());
+      ByteSource content = randomByteSource().slice(7, 3 * 1024 * 1024);
+      storageStrategy.putBlob(CONTAINER_NAME, new BlobBuilderImpl().name(BLOB_NAME).payload(content).build());
+      Blob corrupted = new BlobBuilderImpl().name(BLOB_NAME).payload(randomByteSource().slice(3, 3 * 1024 * 1024))
+            .build();
+      corrupted.getPayload().getContentMetadata().setContentMD5(Hashing.md5().hashBytes(new byte[1]));
+      try {
+         storageStrategy.putBlob(CONTAINER_NAME, corrupted);
+         fail("upload with a wrong MD5 should have failed");
+      } catch (IOException e) {
+         // expected
+      }
+      Thread.sleep(10);
+
+      // the chunks of the replaced payload and of the failed upload are left to the collector
+      ChunkCollector collector = injector.getInstance(ChunkCollector.class);
+      assertThat(collector.collectOrphanChunks()).isEqualTo(2 * 3 * 1024 * 1024);
+      assertThat(collector.collectOrphanChunks()).isEqualTo(0);
+      assertThat(countChunks("c.referenceCount <> 1")).isEqualTo(0);
+      InputStream data = storageStrategy.getBlob(CONTAINER_NAME, BLOB_NAME).getPayload().openStream();
+      try {
+         assertThat(ByteStreams.toByteArray(data)).isEqualTo(content.read());
+      } finally {
+         data.close();
+      }
+   }
+
+   @Test
+   public void testFailedDeduplicatedUploadKeepsSharedChunks() throws Exception {
+      start(ImmutableMap.of(JdbcConstants.PROPERTY_DEDUPLICATION, "true"));
+      assertThat(storageStrategy.createContainerInLocation(CONTAINER_NAME, null, null)).isTrue();
+      ByteSource content = randomByteSource().slice(0, 3 * 1024 * 1024 + 5);
+      storageStrategy.putBlob(CONTAINER_NAME, new BlobBuilderImpl().name(BLOB_NAME).payload(content).build());
+
+      // the upload reuses the chunks of the first blob, then its batch is rolled back
+      failingChunkBatches.set(1);
+      try {
+         storageStrategy.putBlob(CONTAINER_NAME,
+               new BlobBuilderImpl().name(BLOB_NAME + "-copy").payload(content).build());
+         fail("upload with a failing chunk batch should have failed");
+      } catch (Exception e) {
+         // expected
+      }
+      Thread.sleep(10);
+
+      assertThat(storageStrategy.blobExists(CONTAINER_NAME, BLOB_NAME + "-copy")).isFalse();
+      assertThat(injector.getInstance(ChunkCollector.class).collectOrphanChunks()).isEqualTo(0);
+      InputStream data = storageStrategy.getBlob(CONTAINER_NAME, BLOB_NAME).getPayload().openStream();
+      try {
+         assertThat(ByteStreams.toByteArray(data)).isEqualTo(content.read());
+      } finally {
+         data.close();
+      }
+   }
+
+   @Test
+   public void testConcurrentPutsOfTheSameKey() throws Exception {
+      assertThat(storageStrategy.createContainerInLocation(CONTAINER_NAME, null, null)).isTrue();
+      List<ListenableFuture<String>> puts = Lists.newArrayList();
+      List<HashCode> hashes = Lists.newArrayList();
+      for (int i = 0; i < 8; i++) {
+         // large blobs publish a chunk list, small ones are stored inline
+         final ByteSource content = randomByteSource().slice(i, i % 2 == 0 ? 1536 * 1024 : 100);
+         hashes.add(Hashing.md5().hashBytes(content.read()));
+         puts.add(userExecutor.submit(new Callable<String>() {
+            @Override
+            public String call() throws IOException {
+               return storageStrategy.putBlob(CONTAINER_NAME,
+                     new BlobBuilderImpl().name(BLOB_NAME).payload(content).build());
+            }
+         }));
+      }
+      Futures.allAsList(puts).get();
+      Thread.sleep(10);
+
+      // every writer published its blob, and each replaced payload released its chunks exactly once:
+      // once the collector reclaimed them, only the chunks of the last blob remain, referenced once
+      injector.getInstance(ChunkCollector.class).collectOrphanChunks();
+      assertThat(countChunks("c.referenceCount <> 1")).isEqualTo(0);
+      InputStream data = storageStrategy.getBlob(CONTAINER_NAME, BLOB_NAME).getPayload().openStream();
+      try {
+         assertThat(hashes).contains(Hashing.md5().hashBytes(ByteStreams.toByteArray(data)));
+      } finally {
+         data.close();
+      }
+   }
+
+   @Test
+   public void testMigrateLegacyTables() throws IOException {
+      assertThat(storageStrategy.createContainerInLocation(CONTAINER_NAME, null, null)).isTrue();
+      ByteSource content = randomByteSource().slice(0, 2 * 1024 * 1024 + 5);
+      storageStrategy.putBlob(CONTAINER_NAME, new BlobBuilderImpl().name(BLOB_NAME).payload(content)
+            .userMetadata(ImmutableMap.of("color", "blue")).build());
+
+      // move the chunk list and user metadata into the tables the first versions kept them in, named
+      // by the persistence provider and without an order column
+      EntityManager em = injector.getInstance(EntityManager.class);
+      em.getTransaction().begin();
+      em.createNativeQuery("CREATE TABLE PayloadEntity_chunks (PayloadEntity_id BIGINT NOT NULL, chunks BIGINT)")
+            .executeUpdate();
+      em.createNativeQuery("CREATE TABLE BlobEntity_userMetadata (BlobEntity_id BIGINT NOT NULL, "
+            + "BlobEntity_key VARCHAR(255) NOT NULL, userMetadata VARCHAR(255), "
+            + "userMetadata_KEY VARCHAR(255) NOT NULL)").executeUpdate();
+      PayloadEntity payload = em.createQuery("SELECT p FROM PayloadEntity p", PayloadEntity.class).getSingleResult();
+      List<Long> chunks = payload.getChunks();
+      assertThat(chunks.size()).isGreaterThan(1);
+      // the list is restored in the order of the chunk ids, whatever the order of the rows
+      assertThat(chunks).isSorted();
+      for (Long chunk : Lists.reverse(chunks)) {
+         em.createNativeQuery("INSERT INTO PayloadEntity_chunks VALUES (?1, ?2)")
+               .setParameter(1, payload.getId())
+               .setParameter(2, chunk)
+               .executeUpdate();
+      }
+      BlobEntity blobEntity = em.createQuery("SELECT b FROM BlobEntity b", BlobEntity.class).getSingleResult();
+      em.createNativeQuery("INSERT INTO BlobEntity_userMetadata VALUES (?1, ?2, ?3, ?4)")
+            .setParameter(1, blobEntity.getContainerEntity().getId())
+            .setParameter(2, BLOB_NAME)
+            .setParameter(3, "blue")
+            .setParameter(4, "color")
+            .executeUpdate();
+      em.createQuery("UPDATE PayloadEntity p SET p.chunks = NULL").executeUpdate();
+      em.createQuery("UPDATE BlobEntity b SET b.userMetadata = NULL").executeUpdate();
+      em.getTransaction().commit();
+      injector.getInstance(UnitOfWork.class).end();
+
+      injector.getInstance(SchemaMigration.class).migrate();
+      injector.getInstance(BlobMetadataCache.class).invalidateAll();
+      Blob blob = storageStrategy.getBlob(CONTAINER_NAME, BLOB_NAME);
+      assertThat(blob.getMetadata().getUserMetadata()).isEqualTo(ImmutableMap.of("color", "blue"));
+      InputStream data = blob.getPayload().openStream();
+      try {
+         assertThat(ByteStreams.toByteArray(data)).isEqualTo(content.read());
+      } finally {
+         data.close();
+      }
+   }
+
+   @Test
+   public void testSchemaHasDeclaredIndexes() {
+      assertThat(injector.getInstance(SchemaValidator.class).findMissingIndexes()).isEmpty();
+   }
+
+   @Test
+   public void testOperationMetrics() throws IOException {
+      assertThat(storageStrategy.createContainerInLocation(CONTAINER_NAME, null, null)).isTrue();
+      ByteSource content = randomByteSource().slice(0, 2 * 1024 * 1024);
+      storageStrategy.putBlob(CONTAINER_NAME, new BlobBuilderImpl().name(BLOB_NAME).payload(content).build());
+      InputStream data = storageStrategy.getBlob(CONTAINER_NAME, BLOB_NAME).getPayload().openStream();
+      try {
+         ByteStreams.toByteArray(data);
+      } finally {
+         data.close();
+      }
+      storageStrategy.list(CONTAINER_NAME, "", null, null, 10, false);
+
+      JdbcMetrics metrics = injector.getInstance(JdbcMetrics.class);
+      OperationStats putBlob = metrics.getStats("JdbcStorageStrategy.putBlob");
+      assertThat(putBlob.getCount()).isEqualTo(1);
+      assertThat(putBlob.getBytes()).isEqualTo(content.size());
+      assertThat(putBlob.getFailures()).isEqualTo(0);
+      assertThat(metrics.getStats("JdbcService.findChunkById").getBytes()).isEqualTo(content.size());
+      assertThat(metrics.getStats("JdbcStorageStrategy.list").getRows()).isEqualTo(1);
+      assertThat(completedOperations).contains("JdbcStorageStrategy.putBlob", "JdbcStorageStrategy.getBlob",
+            "JdbcService.createOrModifyBlob");
+   }
+
+   @Test
+   public void testCachedMetadataFollowsWrites() throws IOException {
+      assertThat(storageStrategy.createContainerInLocation(CONTAINER_NAME, null, null)).isTrue();
+      BlobMetadataCache metadataCache = injector.getInstance(BlobMetadataCache.class);
+      assertThat(storageStrategy.blobExists(CONTAINER_NAME, BLOB_NAME)).isFalse();
+      String etag = storageStrategy.putBlob(CONTAINER_NAME,
+            new BlobBuilderImpl().name(BLOB_NAME).payload("first").build());
+      assertThat(storageStrategy.blobExists(CONTAINER_NAME, BLOB_NAME)).isTrue();
+      assertThat(storageStrategy.getBlob(CONTAINER_NAME, BLOB_NAME).getMetadata().getETag()).isEqualTo(etag);
+      assertThat(metadataCache.stats().hitCount()).isEqualTo(1);
+
+      etag = storageStrategy.putBlob(CONTAINER_NAME, new BlobBuilderImpl().name(BLOB_NAME).payload("second").build());
+      Blob blob = storageStrategy.getBlob(CONTAINER_NAME, BLOB_NAME);
+      assertThat(blob.getMetadata().getETag()).isEqualTo(etag);
+      assertThat(ByteStreams.toByteArray(blob.getPayload().openStream())).isEqualTo("second".getBytes("UTF-8"));
+
+      storageStrategy.removeBlob(CONTAINER_NAME, BLOB_NAME);
+      assertThat(storageStrategy.blobExists(CONTAINER_NAME, BLOB_NAME)).isFalse();
+      assertThat(storageStrategy.getBlob(CONTAINER_NAME, BLOB_NAME)).isNull();
+      assertThat(metadataCache.getHitCount()).isEqualTo(2);
+
+      // a summary read before the key was invalidated is not cached
+      metadataCache.invalidate(CONTAINER_NAME, BLOB_NAME);
+      long generation = metadataCache.generation(CONTAINER_NAME, BLOB_NAME);
+      metadataCache.invalidate(CONTAINER_NAME, BLOB_NAME);
+      metadataCache.put(CONTAINER_NAME, BLOB_NAME, null, generation);
+      assertThat(metadataCache.getIfPresent(CONTAINER_NAME, BLOB_NAME)).isNull();
+   }
+
+   @Test
+   public void testContainerIdCacheFollowsRecreatedContainer() throws Exception {
+      assertThat(storageStrategy.createContainerInLocation(CONTAINER_NAME, null, null)).isTrue();
+      final JdbcService jdbcService = injector.getInstance(JdbcService.class);
+      final AtomicBoolean done = new AtomicBoolean();
+      // looks the container up while it is dropped and recreated, each time under a new id
+      ListenableFuture<?> lookups = userExecutor.submit(new Runnable() {
+         @Override
+         public void run() {
+            while (!done.get()) {
+               jdbcService.blobExists(CONTAINER_NAME, BLOB_NAME);
+            }
+         }
+      });
+      try {
+         for (int i = 0; i < 100; i++) {
+            storageStrategy.deleteContainer(CONTAINER_NAME);
+            assertThat(storageStrategy.createContainerInLocation(CONTAINER_NAME, null, null)).isTrue();
+         }
+      } finally {
+         done.set(true);
+      }
+      lookups.get();
+
+      // an id read before an eviction must not outlive it
+      ContainerRepository containerRepository = injector.getInstance(ContainerRepository.class);
+      UnitOfWork unitOfWork = injector.getInstance(UnitOfWork.class);
+      unitOfWork.begin();
+      try {
+         assertThat(containerRepository.findContainerReferenceByName(CONTAINER_NAME).getId())
+               .isEqualTo(containerRepository.findContainerByName(CONTAINER_NAME).getId());
+      } finally {
+         unitOfWork.end();
+      }
+   }
+
+   @Test
+   public void testOverwriteBlob() throws IOException {
+      assertThat(storageStrategy.createContainerInLocation(CONTAINER_NAME, null, null)).isTrue();
+      storageStrategy.putBlob(CONTAINER_NAME,
+            new BlobBuilderImpl().name(BLOB_NAME).payload(randomByteSource().slice(0, 2 * 1024 * 1024)).build());
+      ByteSource content = randomByteSource().slice(1, 3 * 1024 * 1024);
+      storageStrategy.putBlob(CONTAINER_NAME, new BlobBuilderImpl().name(BLOB_NAME).payload(content).build());
+      InputStream data = storageStrategy.getBlob(CONTAINER_NAME, BLOB_NAME).getPayload().openStream();
+      try {
+         assertThat(ByteStreams.toByteArray(data)).isEqualTo(content.read());
+      } finally {
+         data.close();
+      }
+   }
+
+   @Test
+   public void testOverwriteBlobWhileStreaming() throws IOException {
+      assertThat(storageStrategy.createContainerInLocation(CONTAINER_NAME, null, null)).isTrue();
+      ByteSource content = randomByteSource().slice(0, 6 * 1024 * 1024 + 5);
+      storageStrategy.putBlob(CONTAINER_NAME, new BlobBuilderImpl().name(BLOB_NAME).payload(content).build());
+      InputStream data = storageStrategy.getBlob(CONTAINER_NAME, BLOB_NAME).getPayload().openStream();
+      try {
+         byte[] head = new byte[10];
+         ByteStreams.readFully(data, head);
+
+         // the chunks of the replaced payload are kept for the reader until the collector runs
+         storageStrategy.putBlob(CONTAINER_NAME,
+               new BlobBuilderImpl().name(BLOB_NAME).payload(randomByteSource().slice(1, 100)).build());
+         assertThat(Bytes.concat(head, ByteStreams.toByteArray(data))).isEqualTo(content.read());
+      } finally {
+         data.close();
+      }
+   }
+
    @Test
    public void testRemoveBlob() throws IOException {
       assertThat(storageStrategy.createContainerInLocation(CONTAINER_NAME, null, null)).isTrue();
@@ -186,6 +744,41 @@ public abstract class BaseJdbcStorageStrategyTest {
       assertThat(storageStrategy.getBlobAccess(CONTAINER_NAME, BLOB_NAME)).isEqualTo(BlobAccess.PRIVATE);
    }
 
+   @Test
+   public void testClearDirectory() throws IOException {
+      assertThat(storageStrategy.createContainerInLocation(CONTAINER_NAME, null, null)).isTrue();
+      for (String key : ImmutableList.of("dir/a", "dir/b", "dir/sub/c", "dir/sub/d", "other")) {
+         storageStrategy.putBlob(CONTAINER_NAME,
+               new BlobBuilderImpl().name(key).payload(randomByteSource().slice(0, 1024)).build());
+      }
+      storageStrategy.clearContainer(CONTAINER_NAME, ListContainerOptions.Builder.inDirectory("dir/"));
+      assertThat(storageStrategy.getBlobKeysInsideContainer(CONTAINER_NAME)).containsExactly("other");
+      InputStream data = storageStrategy.getBlob(CONTAINER_NAME, "other").getPayload().openStream();
+      try {
+         assertThat(ByteStreams.toByteArray(data)).hasSize(1024);
+      } finally {
+         data.close();
+      }
+   }
+
+   @Test
+   public void testCountBlobs() throws IOException {
+      assertThat(storageStrategy.createContainerInLocation(CONTAINER_NAME, null, null)).isTrue();
+      storageStrategy.createDirectory(CONTAINER_NAME, "dir");
+      for (String key : ImmutableList.of("dir/a", "dir/b", "dir/sub/c", "dir_a", "other")) {
+         storageStrategy.putBlob(CONTAINER_NAME,
+               new BlobBuilderImpl().name(key).payload(randomByteSource().slice(0, 1024)).build());
+      }
+      assertThat(storageStrategy.countBlobs(CONTAINER_NAME, ListContainerOptions.NONE)).isEqualTo(6);
+      assertThat(storageStrategy.countBlobs(CONTAINER_NAME, ListContainerOptions.Builder.inDirectory("dir")))
+            .isEqualTo(2);
+      assertThat(storageStrategy.countBlobs(CONTAINER_NAME,
+            ListContainerOptions.Builder.inDirectory("dir/").recursive())).isEqualTo(3);
+      assertThat(storageStrategy.directoryExists(CONTAINER_NAME, "dir")).isTrue();
+      assertThat(storageStrategy.directoryExists(CONTAINER_NAME, "other")).isFalse();
+      assertThat(storageStrategy.directoryExists(CONTAINER_NAME, "missing")).isFalse();
+   }
+
    @Test
    public void testClearContainer() throws IOException {
       assertThat(storageStrategy.createContainerInLocation(CONTAINER_NAME, null, null)).isTrue();
@@ -209,4 +802,14 @@ public abstract class BaseJdbcStorageStrategyTest {
         return array;
     }
 
+   private long countChunks(String condition) {
+      EntityManager em = injector.getInstance(EntityManager.class);
+      try {
+         return em.createQuery("SELECT COUNT(c) FROM ChunkEntity c WHERE " + condition, Long.class)
+               .getSingleResult();
+      } finally {
+         injector.getInstance(UnitOfWork.class).end();
+      }
+   }
+
 }